@@ -1,22 +1,29 @@
 package com.db.memory;
 
 import com.db.memory.cluster.ClusterManager;
+import com.db.memory.failover.LeaderFailureDetector;
 import com.db.memory.hashing.HashRing;
 import com.db.memory.replication.ReplicationManager;
 import com.db.memory.server.KVServer;
+import com.db.memory.storage.KVStore;
+import com.db.memory.storage.StorageEngine;
+import com.db.memory.storage.ValueCodec;
+import com.db.memory.storage.ValueLog;
 
 import java.net.InetAddress;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 public class KVNode {
     private final String nodeId;
     private final String zkConnect;
     private final int port;
     private final List<String> replicas;
-    private final Map<String, String> store = new HashMap<>();
+    private final KVStore store = new KVStore(KVStore.DEFAULT_NAMESPACE, ValueCodec.fromSystemProperties(),
+            StorageEngine.fromSystemProperties(), ValueLog.fromSystemProperties(KVStore.DEFAULT_NAMESPACE));
 
     public KVNode(String nodeId, String zkConnect, int port, List<String> replicas) {
         this.nodeId = nodeId;
@@ -32,30 +39,41 @@ public class KVNode {
         clusterManager.initialize(event -> {
         });
 
-        // Try to become leader for this physical node
-        boolean isLeader = clusterManager.tryToBecomeLeader();
-        if (isLeader) {
-            clusterManager.registerNode(nodeId, replicas, true);
-        }
+        // Try to become leader for this physical node; election and registration share one round trip
+        clusterManager.tryToBecomeLeader(replicas);
 
         // Build hash ring after leader election so leaders are visible
         HashRing hashRing = new HashRing(clusterManager);
         hashRing.buildHashRing();
         clusterManager.watchLeadership(nodeId, () -> {
             try {
-                boolean won = clusterManager.tryToBecomeLeader();
-                if (won) {
-                    clusterManager.registerNode(nodeId, replicas, true);
-                }
+                clusterManager.tryToBecomeLeader(replicas);
             } catch (Exception e) {
                 e.printStackTrace();
             }
         });
-
+        // Notices a dead leader well before its ZooKeeper session expires
+        LeaderFailureDetector failureDetector = new LeaderFailureDetector(clusterManager, replicas);
+        failureDetector.start();
 
         ReplicationManager replicationManager = new ReplicationManager(nodeId, clusterManager);
-        KVServer kvServer = new KVServer(port, store, replicationManager, clusterManager, hashRing);
+        if (replicationManager.isChained()) {
+            clusterManager.joinChain();
+        }
+        KVServer kvServer = new KVServer(port, store, replicationManager, clusterManager, hashRing, failureDetector);
         new Thread(kvServer).start();
+
+        // Leaders publish their key count for load reports
+        ScheduledExecutorService loadPublisher = Executors.newSingleThreadScheduledExecutor();
+        loadPublisher.scheduleAtFixedRate(() -> {
+            try {
+                if (clusterManager.isLeader()) {
+                    clusterManager.publishLoad(store.size());
+                }
+            } catch (Exception e) {
+                System.err.println("[" + nodeId + "] Failed to publish load: " + e.getMessage());
+            }
+        }, 0, Long.getLong("kv.load.publish.ms", 5000), TimeUnit.MILLISECONDS);
     }
 
     public static void main(String[] args) throws Exception {
@@ -0,0 +1,75 @@
+package com.db.memory.admission;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Latency-driven concurrency limit (additive increase, multiplicative decrease). A smoothed
+ * service time is compared to the lowest recently seen one, once per window of {@code limit}
+ * requests. While it stays within tolerance and the limit is actually being used, the limit grows
+ * by one. Once it climbs past, the node is queueing internally and the limit is cut back.
+ */
+public class AdaptiveLimit {
+    private static final double BACKOFF = 0.9;
+    private static final double SMOOTHING = 0.1;
+    // Lets the no-load baseline drift upward so a lasting shift in service time is relearned
+    private static final double BASELINE_DRIFT = 1.001;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final double tolerance;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private volatile int limit;
+    private double smoothedNanos;
+    private double baselineNanos = Double.MAX_VALUE;
+    private int windowSamples;
+    private int windowPeakInFlight;
+
+    public AdaptiveLimit(int initialLimit, int minLimit, int maxLimit, double tolerance) {
+        this.limit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.tolerance = tolerance;
+    }
+
+    public boolean tryAcquire() {
+        while (true) {
+            int current = inFlight.get();
+            if (current >= limit) {
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Ends a request admitted by {@link #tryAcquire()} and feeds its service time into the limit.
+     */
+    public void release(long serviceNanos) {
+        int wasInFlight = inFlight.getAndDecrement();
+        synchronized (this) {
+            smoothedNanos = smoothedNanos == 0 ? serviceNanos : smoothedNanos + SMOOTHING * (serviceNanos - smoothedNanos);
+            baselineNanos = Math.min(smoothedNanos, baselineNanos * BASELINE_DRIFT);
+            windowPeakInFlight = Math.max(windowPeakInFlight, wasInFlight);
+            if (++windowSamples < limit) {
+                return;
+            }
+            if (smoothedNanos > baselineNanos * tolerance) {
+                limit = Math.max(minLimit, (int) (limit * BACKOFF));
+            } else if (windowPeakInFlight * 2 >= limit) {
+                limit = Math.min(maxLimit, limit + 1);
+            }
+            windowSamples = 0;
+            windowPeakInFlight = 0;
+        }
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+}
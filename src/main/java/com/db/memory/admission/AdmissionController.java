@@ -0,0 +1,181 @@
+package com.db.memory.admission;
+
+import com.db.memory.util.TokenBucket;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Decides what work a node takes on so that overload turns into fast BUSY replies instead of
+ * unbounded threads and memory. Connections are capped and handed to a fixed worker pool through a
+ * bounded queue; connections that waited too long in it are shed. Requests are then subject to a
+ * per-client rate limit and an adaptive limit on how many are in flight at once.
+ */
+public class AdmissionController {
+    private static final int MAX_TRACKED_CLIENTS = 10_000;
+
+    private final int maxConnections;
+    private final long queueTimeoutNanos;
+    private final double clientRate;
+    private final double clientBurst;
+    private final ThreadPoolExecutor workers;
+    private final AdaptiveLimit limit;
+    private final AtomicInteger connections = new AtomicInteger();
+    private final Map<String, TokenBucket> clientBuckets = new ConcurrentHashMap<>();
+
+    private final LongAdder busyConnections = new LongAdder();
+    private final LongAdder busyQueue = new LongAdder();
+    private final LongAdder busyRate = new LongAdder();
+    private final LongAdder busyLimit = new LongAdder();
+
+    public AdmissionController(int maxConnections, int workerThreads, int queueSize, long queueTimeoutMs,
+                               AdaptiveLimit limit, double clientRate, double clientBurst) {
+        this("kv-worker-", maxConnections, workerThreads, queueSize, queueTimeoutMs, limit, clientRate, clientBurst);
+    }
+
+    private AdmissionController(String threadPrefix, int maxConnections, int workerThreads, int queueSize, long queueTimeoutMs,
+                                AdaptiveLimit limit, double clientRate, double clientBurst) {
+        this.maxConnections = maxConnections;
+        this.queueTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(queueTimeoutMs);
+        this.limit = limit;
+        this.clientRate = clientRate;
+        this.clientBurst = clientBurst;
+        AtomicInteger threadIds = new AtomicInteger();
+        this.workers = new ThreadPoolExecutor(workerThreads, workerThreads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize), r -> new Thread(r, threadPrefix + threadIds.incrementAndGet()),
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    public static AdmissionController fromSystemProperties() {
+        double clientRate = Double.parseDouble(System.getProperty("kv.admission.client.rate", "0"));
+        return new AdmissionController(
+                Integer.getInteger("kv.admission.max.connections", 1024),
+                Integer.getInteger("kv.admission.workers", 256),
+                Integer.getInteger("kv.admission.queue", 512),
+                Long.getLong("kv.admission.queue.timeout.ms", 1000),
+                new AdaptiveLimit(
+                        Integer.getInteger("kv.admission.limit.initial", 64),
+                        Integer.getInteger("kv.admission.limit.min", 8),
+                        Integer.getInteger("kv.admission.limit.max", 512),
+                        Double.parseDouble(System.getProperty("kv.admission.limit.tolerance", "2.0"))),
+                clientRate,
+                Double.parseDouble(System.getProperty("kv.admission.client.burst", Double.toString(clientRate))));
+    }
+
+    /**
+     * Connection cap, pool and queue for the peer port, configured by kv.peer.*. Peer requests are
+     * never rate-limited or held to the in-flight limit, so only {@link #admit} applies. The queue
+     * timeout defaults to the 5 s a node waits for a reply, after which the sender has given up.
+     */
+    public static AdmissionController forPeers() {
+        int workers = Integer.getInteger("kv.peer.workers", 128);
+        return new AdmissionController("kv-peer-",
+                Integer.getInteger("kv.peer.max.connections", 1024),
+                workers,
+                Integer.getInteger("kv.peer.queue", 512),
+                Long.getLong("kv.peer.queue.timeout.ms", 5000),
+                new AdaptiveLimit(workers, workers, workers, 1.0),
+                0, 0);
+    }
+
+    /**
+     * Hands an accepted connection to the worker pool, or answers BUSY and closes it straight from
+     * the accepting thread when the node is at its connection cap or the queue is full.
+     */
+    public void admit(Socket socket, Consumer<Socket> handler) {
+        if (connections.incrementAndGet() > maxConnections) {
+            connections.decrementAndGet();
+            reject(socket, busyConnections, "BUSY too many connections");
+            return;
+        }
+        long queuedAt = System.nanoTime();
+        try {
+            workers.execute(() -> {
+                try {
+                    // The client has most likely given up on a connection that queued this long
+                    if (System.nanoTime() - queuedAt > queueTimeoutNanos) {
+                        reject(socket, busyQueue, "BUSY queue timeout");
+                    } else {
+                        handler.accept(socket);
+                    }
+                } finally {
+                    connections.decrementAndGet();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            connections.decrementAndGet();
+            reject(socket, busyQueue, "BUSY queue full");
+        }
+    }
+
+    /**
+     * {@link #allowClient(String)} for a connection's remote address, which is only formatted
+     * when a rate is configured.
+     */
+    public boolean allowClient(InetAddress client) {
+        return clientRate <= 0 || allowClient(client.getHostAddress());
+    }
+
+    /**
+     * Per-client token bucket, keyed by remote address; always true when no rate is configured.
+     */
+    public boolean allowClient(String client) {
+        if (clientRate <= 0) {
+            return true;
+        }
+        if (clientBuckets.size() > MAX_TRACKED_CLIENTS) {
+            clientBuckets.clear();
+        }
+        if (clientBuckets.computeIfAbsent(client, c -> new TokenBucket(clientRate, clientBurst)).tryAcquire(1)) {
+            return true;
+        }
+        busyRate.increment();
+        return false;
+    }
+
+    /**
+     * Admits a request under the adaptive in-flight limit; every admitted request must be ended
+     * with {@link #finishRequest(long)}.
+     */
+    public boolean tryStartRequest() {
+        if (limit.tryAcquire()) {
+            return true;
+        }
+        busyLimit.increment();
+        return false;
+    }
+
+    public void finishRequest(long serviceNanos) {
+        limit.release(serviceNanos);
+    }
+
+    private static void reject(Socket socket, LongAdder counter, String reply) {
+        counter.increment();
+        try (socket) {
+            OutputStream out = socket.getOutputStream();
+            out.write((reply + "\n").getBytes(StandardCharsets.UTF_8));
+            out.flush();
+        } catch (IOException ignored) {
+            // The client is gone, which is all a rejection needed anyway
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("connections=%d queued=%d limit=%d inFlight=%d busyConnections=%d busyQueue=%d busyRate=%d busyLimit=%d",
+                connections.get(), workers.getQueue().size(), limit.getLimit(), limit.getInFlight(),
+                busyConnections.sum(), busyQueue.sum(), busyRate.sum(), busyLimit.sum());
+    }
+}
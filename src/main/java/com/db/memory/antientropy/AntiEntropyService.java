@@ -0,0 +1,415 @@
+package com.db.memory.antientropy;
+
+import com.db.memory.cluster.ClusterManager;
+import com.db.memory.cluster.ClusterManager.NodeInfo;
+import com.db.memory.namespace.Namespace;
+import com.db.memory.namespace.NamespaceManager;
+import com.db.memory.storage.KVStore;
+import com.db.memory.storage.SortedSet;
+import com.db.memory.storage.SortedSetStore;
+import com.db.memory.storage.StoreListener;
+import com.db.memory.util.NodeClient;
+
+import java.io.BufferedReader;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Background anti-entropy between a block's leader and its replicas. The leader periodically
+ * compares Merkle roots with each replica and, where they differ, walks down the tree one level
+ * per round trip, only into differing subtrees. The leader then pushes the entries of each
+ * differing leaf, and the replica makes that leaf match. Sorted sets are covered alongside strings:
+ * each member is part of its key's leaf, and a differing set is pushed whole. So are the other
+ * namespaces: a key outside the default one is hashed and bucketed as "&lt;namespace&gt;\n&lt;key&gt;",
+ * a name no default-namespace key can have since keys never contain a newline.
+ *
+ * A repair must never undo a write the replica received after the leader looked. So before
+ * taking its snapshot the leader has the replica open a mark, which records every key the replica
+ * writes from then on; the walk compares the replica against that snapshot, and the replica skips
+ * marked keys when applying it, since their replicated writes are at least as new.
+ */
+public class AntiEntropyService {
+    private final NamespaceManager namespaces;
+    private final SortedSetStore sortedSets;
+    private final ClusterManager clusterManager;
+    private final MerkleTree tree;
+    private final long intervalMs;
+    private final long markTtlMs;
+    private final AtomicLong nextMark = new AtomicLong();
+    private final Map<Long, Mark> marks = new ConcurrentHashMap<>();
+    // Set while this thread applies a repair, whose own writes must not count as newer ones
+    private final ThreadLocal<Boolean> repairing = ThreadLocal.withInitial(() -> false);
+
+    public AntiEntropyService(NamespaceManager namespaces, SortedSetStore sortedSets, ClusterManager clusterManager) {
+        this.namespaces = namespaces;
+        this.sortedSets = sortedSets;
+        this.clusterManager = clusterManager;
+        this.tree = new MerkleTree(Integer.getInteger("kv.antientropy.depth", 10));
+        this.intervalMs = Long.getLong("kv.antientropy.interval.ms", 30000);
+        this.markTtlMs = Long.getLong("kv.antientropy.mark.ttl.ms", 60000);
+        for (Namespace namespace : namespaces.all()) {
+            namespace.getStore().addListener(new StoreListener() {
+                @Override
+                public void onPut(String key, byte[] previous, byte[] encoded) {
+                    String name = entryName(namespace, key);
+                    tree.onPut(name, previous, encoded);
+                    touched(name);
+                }
+
+                @Override
+                public void onRemove(String key, byte[] previous) {
+                    String name = entryName(namespace, key);
+                    tree.onRemove(name, previous);
+                    touched(name);
+                }
+            });
+        }
+        sortedSets.addListener(tree);
+        sortedSets.addListener((key, member, previous, score) -> touched(key));
+    }
+
+    public void start() {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "anti-entropy");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                runRound();
+            } catch (Exception e) {
+                System.err.println("[AntiEntropy] Round failed: " + e.getMessage());
+            }
+        }, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Repairs every replica of this block if this node is its leader. Returns the number of leaves repaired.
+     */
+    public int runRound() throws Exception {
+        if (!clusterManager.isLeader()) {
+            return 0;
+        }
+        NodeInfo self = clusterManager.getNodeMetadata().get(clusterManager.getNodeId());
+        if (self == null) {
+            return 0;
+        }
+        int repaired = 0;
+        for (String replica : self.replicas) {
+            try {
+                repaired += syncReplica(replica);
+            } catch (Exception e) {
+                System.err.println("[AntiEntropy] Failed to sync " + replica + ": " + e.getMessage());
+            }
+        }
+        return repaired;
+    }
+
+    /**
+     * Repairs one replica until its Merkle root matches this node's, for callers that must know
+     * the replica holds exactly this node's data. Returns false if it still differs after the
+     * given number of repair passes.
+     */
+    public boolean converge(String replica, int attempts) throws Exception {
+        for (int attempt = 0; attempt < attempts; attempt++) {
+            if (rootMatches(replica)) {
+                return true;
+            }
+            syncReplica(replica);
+        }
+        return rootMatches(replica);
+    }
+
+    private boolean rootMatches(String replica) throws Exception {
+        return tree.level(0)[0] == parseHashes(NodeClient.send(replica, "REPLICATE MERKLE 0 0"))[0];
+    }
+
+    private int syncReplica(String replica) throws Exception {
+        // The live tree is only good for spotting that something differs; the walk itself has to
+        // compare against the same pinned state that gets pushed
+        if (rootMatches(replica)) {
+            return 0;
+        }
+        long mark = Long.parseLong(checked(NodeClient.send(replica, "REPLICATE SYNCMARK")));
+        boolean pushed = false;
+        Map<String, KVStore.Snapshot> snapshots = new HashMap<>();
+        try {
+            for (Namespace namespace : namespaces.all()) {
+                snapshots.put(namespace.getName(), namespace.getStore().snapshot());
+            }
+            // One scan both hashes the snapshots and buckets their keys by leaf for the push.
+            // Sorted sets have no snapshots and are read live; any of their writes since the mark
+            // was opened are skipped by the replica anyway
+            MerkleTree pinned = new MerkleTree(tree.getDepth());
+            Map<Integer, List<String>> keysByLeaf = new HashMap<>();
+            for (Map.Entry<String, KVStore.Snapshot> snapshot : snapshots.entrySet()) {
+                Namespace namespace = namespaces.get(snapshot.getKey());
+                snapshot.getValue().forEach((key, encoded) -> {
+                    String name = entryName(namespace, key);
+                    pinned.onPut(name, null, encoded);
+                    keysByLeaf.computeIfAbsent(pinned.leafOf(name), l -> new ArrayList<>()).add(name);
+                });
+            }
+            Map<Integer, List<String>> setKeysByLeaf = new HashMap<>();
+            for (String key : sortedSets.keys()) {
+                SortedSet set = sortedSets.get(key);
+                if (set == null) {
+                    continue;
+                }
+                for (SortedSet.Entry entry : set.range(0, -1)) {
+                    pinned.onMember(key, entry.member(), null, entry.score());
+                }
+                setKeysByLeaf.computeIfAbsent(pinned.leafOf(key), l -> new ArrayList<>()).add(key);
+            }
+            List<Integer> differing = List.of(0);
+            for (int level = 0; level <= tree.getDepth() && !differing.isEmpty(); level++) {
+                long[] mine = pinned.level(level);
+                long[] theirs = parseHashes(NodeClient.send(replica, "REPLICATE MERKLE " + level + " " + join(differing)));
+                List<Integer> next = new ArrayList<>();
+                for (int i = 0; i < differing.size(); i++) {
+                    int index = differing.get(i);
+                    if (mine[index] == theirs[i]) {
+                        continue;
+                    }
+                    if (level == tree.getDepth()) {
+                        next.add(index);
+                    } else {
+                        next.add(2 * index);
+                        next.add(2 * index + 1);
+                    }
+                }
+                differing = next;
+                if (level < tree.getDepth()) {
+                    continue;
+                }
+                pushLeaves(replica, mark, differing, snapshots, keysByLeaf, setKeysByLeaf);
+                pushed = true;
+                if (!differing.isEmpty()) {
+                    System.out.println("[AntiEntropy] Repaired " + differing.size() + " leaves on " + replica);
+                }
+                return differing.size();
+            }
+            return 0;
+        } finally {
+            snapshots.values().forEach(KVStore.Snapshot::close);
+            if (!pushed) {
+                // Closes the mark so the replica stops recording writes for it
+                NodeClient.send(replica, "REPLICATE SYNCLEAF " + mark + " 0");
+            }
+        }
+    }
+
+    /**
+     * Sends the snapshot's entries of every differing leaf in one frame under the replica's mark:
+     * a "key base64" line per string, "key NS name base64" for one in another namespace, and a
+     * "key ZSET score member ..." line per sorted set, the same lines migration sends.
+     */
+    private void pushLeaves(String replica, long mark, List<Integer> leaves, Map<String, KVStore.Snapshot> snapshots,
+                            Map<Integer, List<String>> keysByLeaf, Map<Integer, List<String>> setKeysByLeaf) throws Exception {
+        StringBuilder frame = new StringBuilder("REPLICATE SYNCLEAF " + mark + " " + leaves.size());
+        for (int leaf : leaves) {
+            List<String> lines = new ArrayList<>();
+            for (String name : keysByLeaf.getOrDefault(leaf, List.of())) {
+                int newline = name.indexOf('\n');
+                String key = name.substring(newline + 1);
+                String namespace = newline < 0 ? KVStore.DEFAULT_NAMESPACE : name.substring(0, newline);
+                String value = Base64.getEncoder().encodeToString(snapshots.get(namespace).getEncoded(key));
+                lines.add(newline < 0 ? key + " " + value : key + " NS " + namespace + " " + value);
+            }
+            for (String key : setKeysByLeaf.getOrDefault(leaf, List.of())) {
+                String pairs = sortedSets.format(key);
+                if (pairs != null) {
+                    lines.add(key + " ZSET " + pairs);
+                }
+            }
+            frame.append('\n').append(leaf).append(' ').append(lines.size());
+            for (String line : lines) {
+                frame.append('\n').append(line);
+            }
+        }
+        checked(NodeClient.send(replica, frame.toString()));
+    }
+
+    /**
+     * Replica side of the tree walk: hashes of the requested nodes at one level, or an ERROR reply
+     * if the level or an index is not in this node's tree.
+     */
+    public String describe(String level, String indices) {
+        long[] hashes;
+        try {
+            int depth = Integer.parseInt(level);
+            if (depth < 0 || depth > tree.getDepth()) {
+                return "ERROR: Merkle level must be between 0 and " + tree.getDepth();
+            }
+            hashes = tree.level(depth);
+        } catch (NumberFormatException e) {
+            return "ERROR: Invalid Merkle level";
+        }
+        if (indices == null) {
+            return "ERROR: Missing Merkle indices";
+        }
+        StringJoiner reply = new StringJoiner(",");
+        for (String index : indices.split(",")) {
+            int node;
+            try {
+                node = Integer.parseInt(index);
+            } catch (NumberFormatException e) {
+                return "ERROR: Invalid Merkle index " + index;
+            }
+            if (node < 0 || node >= hashes.length) {
+                return "ERROR: Merkle index " + node + " out of range";
+            }
+            reply.add(Long.toHexString(hashes[node]));
+        }
+        return reply.toString();
+    }
+
+    /**
+     * Replica side of a repair, first step: opens a mark that records every key written from now
+     * on and returns its id. Marks the leader never closes expire after kv.antientropy.mark.ttl.ms.
+     */
+    public long mark() {
+        long now = System.currentTimeMillis();
+        marks.values().removeIf(mark -> now - mark.openedAt() > markTtlMs);
+        long id = nextMark.incrementAndGet();
+        marks.put(id, new Mark(now, ConcurrentHashMap.newKeySet()));
+        return id;
+    }
+
+    private void touched(String key) {
+        if (marks.isEmpty() || repairing.get()) {
+            return;
+        }
+        for (Mark mark : marks.values()) {
+            mark.touched().add(key);
+        }
+    }
+
+    /**
+     * Replica side of a repair, second step: reads the leader's entries for each leaf of the frame
+     * and makes those leaves match them, except for keys written since the mark was opened, which
+     * are left alone. Closes the mark. Returns false, applying nothing, if the mark had expired.
+     */
+    public boolean applyLeaves(BufferedReader reader, long markId, int leafCount) throws Exception {
+        Map<Integer, Map<String, byte[]>> leaderLeaves = new HashMap<>();
+        Map<Integer, Map<String, String>> leaderSetLeaves = new HashMap<>();
+        for (int i = 0; i < leafCount; i++) {
+            String[] header = reader.readLine().split(" ");
+            int count = Integer.parseInt(header[1]);
+            Map<String, byte[]> entries = new HashMap<>();
+            Map<String, String> sets = new HashMap<>();
+            for (int j = 0; j < count; j++) {
+                String[] line = reader.readLine().split(" ", 3);
+                if (line.length == 3 && "ZSET".equals(line[1])) {
+                    sets.put(line[0], line[2]);
+                } else if (line.length == 3 && "NS".equals(line[1])) {
+                    String[] rest = line[2].split(" ", 2);
+                    entries.put(rest[0] + "\n" + line[0], Base64.getDecoder().decode(rest[1]));
+                } else {
+                    entries.put(line[0], Base64.getDecoder().decode(line[1]));
+                }
+            }
+            leaderLeaves.put(Integer.parseInt(header[0]), entries);
+            leaderSetLeaves.put(Integer.parseInt(header[0]), sets);
+        }
+        Mark mark = marks.get(markId);
+        if (mark == null) {
+            return false;
+        }
+        repairing.set(true);
+        try {
+            // One scan of each store finds the local keys of every leaf in the frame
+            for (Namespace namespace : namespaces.all()) {
+                KVStore store = namespace.getStore();
+                for (String key : store.keys()) {
+                    String name = entryName(namespace, key);
+                    Map<String, byte[]> leaderEntries = leaderLeaves.get(tree.leafOf(name));
+                    if (leaderEntries != null && !leaderEntries.containsKey(name) && !mark.touched().contains(name)) {
+                        byte[] seen = store.getEncoded(key);
+                        if (seen != null) {
+                            store.replaceEncoded(key, seen, null);
+                        }
+                    }
+                }
+            }
+            // Tested inside the set's update, so a replicated ZADD or ZREM can't slip in between
+            for (String key : sortedSets.keys()) {
+                Map<String, String> leaderSets = leaderSetLeaves.get(tree.leafOf(key));
+                if (leaderSets != null && !leaderSets.containsKey(key)) {
+                    sortedSets.replace(key, List.of(), mark.touched()::contains);
+                }
+            }
+            for (Map<String, String> leaderSets : leaderSetLeaves.values()) {
+                for (Map.Entry<String, String> entry : leaderSets.entrySet()) {
+                    if (!entry.getValue().equals(sortedSets.format(entry.getKey()))) {
+                        sortedSets.replace(entry.getKey(), SortedSetStore.parse(entry.getValue().split(" "), 0),
+                                mark.touched()::contains);
+                    }
+                }
+            }
+            for (Map<String, byte[]> leaderEntries : leaderLeaves.values()) {
+                for (Map.Entry<String, byte[]> entry : leaderEntries.entrySet()) {
+                    String name = entry.getKey();
+                    int newline = name.indexOf('\n');
+                    Namespace namespace = namespaces.get(newline < 0 ? null : name.substring(0, newline));
+                    if (namespace == null || mark.touched().contains(name)) {
+                        continue;
+                    }
+                    // Conditional, so a replicated write landing after the touched check still wins
+                    String key = name.substring(newline + 1);
+                    byte[] seen = namespace.getStore().getEncoded(key);
+                    if (!Arrays.equals(seen, entry.getValue())) {
+                        namespace.getStore().replaceEncoded(key, seen, entry.getValue());
+                    }
+                }
+            }
+            return true;
+        } finally {
+            repairing.set(false);
+            marks.remove(markId);
+        }
+    }
+
+    public MerkleTree getTree() {
+        return tree;
+    }
+
+    /**
+     * What a string key is hashed, bucketed and marked under: the key itself in the default
+     * namespace, "&lt;namespace&gt;\n&lt;key&gt;" in any other.
+     */
+    private static String entryName(Namespace namespace, String key) {
+        return namespace.isDefault() ? key : namespace.getName() + "\n" + key;
+    }
+
+    private static String join(List<Integer> indices) {
+        StringJoiner joiner = new StringJoiner(",");
+        for (int index : indices) {
+            joiner.add(Integer.toString(index));
+        }
+        return joiner.toString();
+    }
+
+    private static String checked(String reply) {
+        if (reply == null || reply.startsWith("ERROR")) {
+            throw new IllegalStateException("replica answered " + reply);
+        }
+        return reply;
+    }
+
+    private static long[] parseHashes(String reply) {
+        String[] parts = checked(reply).split(",");
+        long[] hashes = new long[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            hashes[i] = Long.parseUnsignedLong(parts[i], 16);
+        }
+        return hashes;
+    }
+
+    private record Mark(long openedAt, Set<String> touched) {
+    }
+}
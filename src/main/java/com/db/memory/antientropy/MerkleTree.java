@@ -0,0 +1,125 @@
+package com.db.memory.antientropy;
+
+import com.db.memory.storage.SortedSetListener;
+import com.db.memory.storage.StoreListener;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Merkle tree over 2^depth key-hash buckets of a store. Each leaf is the XOR of its entries'
+ * hashes, so a write updates exactly one leaf in O(1) regardless of order. Inner nodes are derived
+ * from the leaves when a level is requested, which is cheap for the fixed, small leaf count.
+ * A sorted set contributes one hash per member, so changing a member is O(1) however large the set.
+ */
+public class MerkleTree implements StoreListener, SortedSetListener {
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final int depth;
+    private final AtomicLongArray leaves;
+
+    public MerkleTree(int depth) {
+        this.depth = depth;
+        this.leaves = new AtomicLongArray(1 << depth);
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * Bucket of a key; identical on every node because it only depends on the key's bytes.
+     */
+    public int leafOf(String key) {
+        return (int) (mix(fnv(FNV_OFFSET, key.getBytes(StandardCharsets.UTF_8))) >>> (64 - depth));
+    }
+
+    @Override
+    public void onPut(String key, byte[] previous, byte[] encoded) {
+        int leaf = leafOf(key);
+        long delta = entryHash(key, encoded);
+        if (previous != null) {
+            delta ^= entryHash(key, previous);
+        }
+        xor(leaf, delta);
+    }
+
+    @Override
+    public void onRemove(String key, byte[] previous) {
+        xor(leafOf(key), entryHash(key, previous));
+    }
+
+    @Override
+    public void onMember(String key, String member, Double previous, Double score) {
+        long delta = 0;
+        if (previous != null) {
+            delta ^= memberHash(key, member, previous);
+        }
+        if (score != null) {
+            delta ^= memberHash(key, member, score);
+        }
+        xor(leafOf(key), delta);
+    }
+
+    /**
+     * All node hashes at the given level; level 0 is the root and level {@link #getDepth()} the leaves.
+     */
+    public long[] level(int level) {
+        long[] nodes = new long[leaves.length()];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = leaves.get(i);
+        }
+        for (int current = depth; current > level; current--) {
+            long[] parents = new long[nodes.length / 2];
+            for (int i = 0; i < parents.length; i++) {
+                parents[i] = mix(nodes[2 * i] * 31 + mix(nodes[2 * i + 1]));
+            }
+            nodes = parents;
+        }
+        return nodes;
+    }
+
+    public long root() {
+        return level(0)[0];
+    }
+
+    private void xor(int leaf, long delta) {
+        long current;
+        do {
+            current = leaves.get(leaf);
+        } while (!leaves.compareAndSet(leaf, current, current ^ delta));
+    }
+
+    private static long entryHash(String key, byte[] encoded) {
+        long h = fnv(FNV_OFFSET, key.getBytes(StandardCharsets.UTF_8));
+        h = (h ^ 0xff) * FNV_PRIME;
+        return mix(fnv(h, encoded));
+    }
+
+    private static long memberHash(String key, String member, double score) {
+        long h = fnv(FNV_OFFSET, key.getBytes(StandardCharsets.UTF_8));
+        // A different separator than entryHash's, so a member never hashes like a string value
+        h = (h ^ 0xfe) * FNV_PRIME;
+        h = fnv(h, member.getBytes(StandardCharsets.UTF_8));
+        return mix(h ^ mix(Double.doubleToLongBits(score)));
+    }
+
+    private static long fnv(long seed, byte[] bytes) {
+        long h = seed;
+        for (byte b : bytes) {
+            h ^= b & 0xff;
+            h *= FNV_PRIME;
+        }
+        return h;
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,281 @@
+package com.db.memory.bulkload;
+
+import com.db.memory.cluster.ClusterManager;
+import com.db.memory.handover.LeaderHandover;
+import com.db.memory.hashing.HashRing;
+import com.db.memory.rebalance.MigrationManager;
+import com.db.memory.replication.ReplicationManager;
+import com.db.memory.storage.CompressionStats;
+import com.db.memory.storage.KVStore;
+import com.db.memory.storage.ValueCodec;
+import com.db.memory.util.NodeClient;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Consumer;
+
+/**
+ * Imports a file of "key value" lines without going through PUT. The loading node encodes each
+ * value once, splits the records by ring owner and streams each partition's records to its leader
+ * as BULK &lt;n&gt; chunks over one connection per partition. The leader checks ownership and
+ * leadership once per chunk, writes the chunk straight into its store and forwards the same chunk
+ * to its replicas as one frame, so there is no per-key leader lookup or replication round trip.
+ *
+ * A bulk load overwrites existing values and, like range migration, publishes no change events.
+ * Files are only read from the kv.bulk.dir import directory; without one, LOAD is disabled.
+ */
+public class BulkLoader {
+    private static final List<String> END = List.of();
+
+    private final KVStore store;
+    private final HashRing hashRing;
+    private final ClusterManager clusterManager;
+    private final ReplicationManager replicationManager;
+    private final MigrationManager migrationManager;
+    private final LeaderHandover handover;
+    private final ValueCodec codec = ValueCodec.fromSystemProperties();
+    private final CompressionStats compressionStats = new CompressionStats("bulkload");
+    private final int chunkKeys;
+    private final int queuedChunks;
+    private final Path importDir;
+
+    public BulkLoader(KVStore store, HashRing hashRing, ClusterManager clusterManager, ReplicationManager replicationManager,
+                      MigrationManager migrationManager, LeaderHandover handover) {
+        this.store = store;
+        this.hashRing = hashRing;
+        this.clusterManager = clusterManager;
+        this.replicationManager = replicationManager;
+        this.migrationManager = migrationManager;
+        this.handover = handover;
+        this.chunkKeys = Integer.getInteger("kv.bulk.chunk.keys", 5000);
+        this.queuedChunks = Integer.getInteger("kv.bulk.queue.chunks", 4);
+        String dir = System.getProperty("kv.bulk.dir");
+        this.importDir = dir == null || dir.isBlank() ? null : Path.of(dir).toAbsolutePath().normalize();
+    }
+
+    /**
+     * Loads a file from the import directory, named relative to it. Names that resolve outside
+     * it, through ".." or a symbolic link, are refused. Returns the reply for the client.
+     */
+    public String load(String name) throws Exception {
+        if (importDir == null) {
+            return "ERROR: LOAD is disabled; set kv.bulk.dir to an import directory";
+        }
+        Path file = importDir.resolve(name).normalize();
+        if (!file.startsWith(importDir) || !Files.isRegularFile(file)
+                || !file.toRealPath().startsWith(importDir.toRealPath())) {
+            return "ERROR: No file " + name + " in the import directory";
+        }
+        return load(file);
+    }
+
+    /**
+     * Loads a file local to this node: one record per line, the key up to the first space and the
+     * value after it. Blank or malformed lines are skipped.
+     */
+    private String load(Path file) throws Exception {
+        long start = System.nanoTime();
+        Map<String, PartitionStream> streams = new HashMap<>();
+        Map<String, List<String>> pending = new HashMap<>();
+        long loaded = 0;
+        long skipped = 0;
+        try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                int space = line.indexOf(' ');
+                if (space <= 0 || space == line.length() - 1) {
+                    skipped++;
+                    continue;
+                }
+                String key = line.substring(0, space);
+                byte[] encoded = codec.encode(line.substring(space + 1), compressionStats);
+                String partition = hashRing.getTargetNode(key);
+                List<String> chunk = pending.computeIfAbsent(partition, p -> new ArrayList<>(chunkKeys));
+                chunk.add(key + " " + Base64.getEncoder().encodeToString(encoded));
+                if (chunk.size() == chunkKeys) {
+                    streams.computeIfAbsent(partition, PartitionStream::new).submit(chunk);
+                    pending.remove(partition);
+                }
+                loaded++;
+            }
+        } finally {
+            pending.forEach((partition, chunk) -> streams.computeIfAbsent(partition, PartitionStream::new).submit(chunk));
+            for (PartitionStream stream : streams.values()) {
+                stream.submit(END);
+            }
+        }
+
+        List<String> failures = new ArrayList<>();
+        for (PartitionStream stream : streams.values()) {
+            stream.thread.join();
+            if (stream.failure != null) {
+                failures.add(stream.partition + ": " + stream.failure);
+            }
+        }
+        long elapsedMs = Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        if (!failures.isEmpty()) {
+            return "ERROR: Bulk load of " + file + " failed for " + String.join(", ", failures);
+        }
+        System.out.println("[BulkLoad] Loaded " + loaded + " keys from " + file + " into " + streams.size()
+                + " partitions in " + elapsedMs + " ms");
+        return "OK " + loaded + " keys " + skipped + " skipped " + elapsedMs + "ms " + (loaded * 1000 / elapsedMs) + "/s";
+    }
+
+    /**
+     * Applies BULK chunks until the sender closes the connection; the first header has already
+     * been read by the caller. Chunks from a loading node (REPLICATE BULK &lt;n&gt; &lt;partition&gt;) are
+     * applied as the partition's leader: every key must belong to this partition and none may be
+     * mid-migration, otherwise the chunk is rejected whole and the stream ends. Chunks the leader
+     * forwards (REPLICATE BULK &lt;n&gt;) are applied as they are.
+     */
+    public void receive(BufferedReader reader, PrintWriter writer, int firstCount, boolean fromLeader,
+                        Consumer<String> applied) throws Exception {
+        int count = firstCount;
+        while (true) {
+            List<String> lines = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                String line = reader.readLine();
+                if (line == null) {
+                    return;
+                }
+                lines.add(line);
+            }
+            if (fromLeader) {
+                apply(lines, applied);
+                if (replicationManager.isChained()) {
+                    replicationManager.replicateBulkChunk(lines);
+                }
+            } else {
+                String error = applyAsLeader(lines, applied);
+                if (error != null) {
+                    writer.println(error);
+                    return;
+                }
+            }
+            writer.println("OK " + count);
+
+            String header = reader.readLine();
+            if (header == null) {
+                return;
+            }
+            count = Integer.parseInt(header.split(" ")[2]);
+        }
+    }
+
+    private String applyAsLeader(List<String> lines, Consumer<String> applied) throws Exception {
+        if (!handover.tryStartWrite()) {
+            return "ERROR: TRYAGAIN Leadership handover in progress";
+        }
+        Lock localWrites = migrationManager.localWrites();
+        try {
+            String self = clusterManager.getNodeId();
+            if (!clusterManager.isLeader()) {
+                return "ERROR: Node " + self + " is not the leader";
+            }
+            localWrites.lock();
+            try {
+                for (String line : lines) {
+                    String key = line.substring(0, line.indexOf(' '));
+                    if (!self.equals(hashRing.getTargetNode(key))) {
+                        return "ERROR: Key " + key + " does not belong to " + self;
+                    }
+                    if (migrationManager.forwardingTarget(key) != null) {
+                        return "ERROR: TRYAGAIN Key " + key + " is being migrated";
+                    }
+                }
+                apply(lines, applied);
+            } finally {
+                localWrites.unlock();
+            }
+            replicationManager.replicateBulkChunk(lines);
+            return null;
+        } finally {
+            handover.finishWrite();
+        }
+    }
+
+    private void apply(List<String> lines, Consumer<String> applied) {
+        for (String line : lines) {
+            int space = line.indexOf(' ');
+            String key = line.substring(0, space);
+            store.putEncoded(key, Base64.getDecoder().decode(line.substring(space + 1)));
+            applied.accept(key);
+        }
+    }
+
+    /**
+     * Sends one partition's chunks to its leader on a dedicated connection and thread, so a slow
+     * partition doesn't hold up reading the file for the others until its queue is full.
+     */
+    private final class PartitionStream implements Runnable {
+        private final String partition;
+        private final BlockingQueue<List<String>> queue = new ArrayBlockingQueue<>(queuedChunks);
+        private final Thread thread;
+        private volatile String failure;
+
+        PartitionStream(String partition) {
+            this.partition = partition;
+            this.thread = new Thread(this, "bulk-load-" + partition);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        void submit(List<String> chunk) {
+            try {
+                queue.put(chunk);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                String leader = clusterManager.getCurrentLeader(partition);
+                if (leader == null) {
+                    throw new IllegalStateException("no leader");
+                }
+                try (Socket socket = NodeClient.connectToPeer(leader);
+                     PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), false);
+                     BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8))) {
+                    List<String> chunk;
+                    while ((chunk = queue.take()) != END) {
+                        out.println("REPLICATE BULK " + chunk.size() + " " + partition);
+                        out.println(String.join("\n", chunk));
+                        out.flush();
+                        String reply = in.readLine();
+                        if (reply == null || !reply.startsWith("OK")) {
+                            throw new IllegalStateException("leader " + leader + " rejected chunk: " + reply);
+                        }
+                    }
+                }
+            } catch (Exception e) {
+                failure = e.getMessage();
+                System.err.println("[BulkLoad] Stream to " + partition + " failed: " + failure);
+                // Keep draining so the reader never blocks on a dead partition
+                try {
+                    while (queue.take() != END) {
+                        // discard
+                    }
+                } catch (InterruptedException ignored) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+}
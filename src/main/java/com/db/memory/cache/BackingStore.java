@@ -0,0 +1,38 @@
+package com.db.memory.cache;
+
+import java.nio.file.Path;
+import java.util.Map;
+
+/**
+ * The system of record behind a block running in cache mode. Leaders call {@link #load} on a read
+ * miss and {@link #storeAll} from the write-behind flusher; neither is called concurrently for the
+ * same key, but both may run on different threads at once.
+ *
+ * Implementations are named by kv.cache.backing: "file" for {@link FileBackingStore}, or the
+ * fully qualified name of a class with a public no-argument constructor.
+ */
+public interface BackingStore {
+
+    /**
+     * The value of the key, or null if the system of record doesn't have it.
+     */
+    String load(String key) throws Exception;
+
+    /**
+     * Applies a batch of writes; a null value deletes the key. Throwing leaves the whole batch
+     * queued to be retried.
+     */
+    void storeAll(Map<String, String> entries) throws Exception;
+
+    /**
+     * The configured backing store, or null when cache mode is off.
+     */
+    static BackingStore fromSystemProperties() throws ReflectiveOperationException {
+        String name = System.getProperty("kv.cache.backing", "");
+        return switch (name) {
+            case "" -> null;
+            case "file" -> new FileBackingStore(Path.of(System.getProperty("kv.cache.file.dir", "/tmp/kv-backing")));
+            default -> (BackingStore) Class.forName(name).getDeclaredConstructor().newInstance();
+        };
+    }
+}
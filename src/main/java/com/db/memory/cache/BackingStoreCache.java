@@ -0,0 +1,189 @@
+package com.db.memory.cache;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiFunction;
+
+/**
+ * Runs a block as a cache in front of a {@link BackingStore}. A leader's read miss loads the key
+ * through here: concurrent misses for the same key share a single load, and the loaded value is
+ * installed only if no write to the key started meanwhile. Leader writes are queued per key, so
+ * repeated writes to a key between flushes reach the backing store once, and a background thread
+ * pushes them in batches.
+ *
+ * Queued writes live only on the leader; if it dies before a flush they are lost, as with any
+ * write-behind cache.
+ */
+public class BackingStoreCache {
+    // Marks a queued delete, since the queue can't hold nulls
+    private static final Object DELETED = new Object();
+
+    private final BackingStore backingStore;
+    private final int batchSize;
+    private final long loadTimeoutMs;
+    private final Map<String, InFlightLoad> loads = new ConcurrentHashMap<>();
+    private final Map<String, Object> pending = new ConcurrentHashMap<>();
+
+    private final LongAdder loaded = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder loadFailures = new LongAdder();
+    private final LongAdder flushedKeys = new LongAdder();
+    private final LongAdder flushedBatches = new LongAdder();
+    private final LongAdder flushFailures = new LongAdder();
+
+    /**
+     * Flushes only when asked to, until {@link #start} schedules it.
+     */
+    public BackingStoreCache(BackingStore backingStore, int batchSize, long loadTimeoutMs) {
+        this.backingStore = backingStore;
+        this.batchSize = batchSize;
+        this.loadTimeoutMs = loadTimeoutMs;
+    }
+
+    /**
+     * Pushes queued writes every flushMs on a background thread. Kept out of the constructor so
+     * the thread never sees a half-constructed cache.
+     */
+    public void start(long flushMs) {
+        ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "write-behind");
+            t.setDaemon(true);
+            return t;
+        });
+        flusher.scheduleWithFixedDelay(this::flush, flushMs, flushMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Cache mode per kv.cache.backing, or null when it is off. Batches hold up to
+     * kv.cache.batch.size writes (default 500), flushed every kv.cache.flush.ms (default 100).
+     */
+    public static BackingStoreCache fromSystemProperties() throws ReflectiveOperationException {
+        BackingStore backingStore = BackingStore.fromSystemProperties();
+        if (backingStore == null) {
+            return null;
+        }
+        System.out.println("[Cache] Read-through/write-behind to " + backingStore.getClass().getSimpleName());
+        BackingStoreCache cache = new BackingStoreCache(backingStore,
+                Integer.getInteger("kv.cache.batch.size", 500),
+                Long.getLong("kv.cache.load.timeout.ms", 5000));
+        long flushMs = Long.getLong("kv.cache.flush.ms", 100);
+        if (flushMs > 0) {
+            cache.start(flushMs);
+        }
+        return cache;
+    }
+
+    /**
+     * Resolves a miss. A write still queued for the key answers it directly, since the backing
+     * store doesn't have it yet. Otherwise one caller loads from the backing store while the rest
+     * wait for its result. The loading caller passes the value to install, which should store it
+     * only if the key is still absent and return the encoding it stored, or null.
+     */
+    public Load load(String key, BiFunction<String, String, byte[]> install) throws Exception {
+        InFlightLoad load = new InFlightLoad();
+        InFlightLoad existing = loads.putIfAbsent(key, load);
+        if (existing != null) {
+            coalesced.increment();
+            try {
+                return new Load(existing.result.get(loadTimeoutMs, TimeUnit.MILLISECONDS), null);
+            } catch (ExecutionException e) {
+                throw (Exception) e.getCause();
+            }
+        }
+
+        String value;
+        try {
+            // Checked after registering, so a write queued after this check also invalidates the load
+            Object queued = pending.get(key);
+            if (queued != null) {
+                value = queued == DELETED ? null : (String) queued;
+            } else {
+                value = backingStore.load(key);
+                loaded.increment();
+            }
+        } catch (Exception e) {
+            loadFailures.increment();
+            loads.remove(key, load);
+            load.result.completeExceptionally(e);
+            throw e;
+        }
+
+        byte[][] installed = new byte[1][];
+        // Serialized with written() for the same key, so a write either stops the install or lands after it
+        loads.compute(key, (k, current) -> {
+            if (value != null && !load.invalidated) {
+                installed[0] = install.apply(key, value);
+            }
+            return null;
+        });
+        load.result.complete(value);
+        return new Load(value, installed[0]);
+    }
+
+    /**
+     * Queues a leader write (null value for a delete) for the backing store. Call it before the
+     * write reaches the local store where the value is known in advance, so a concurrent load
+     * can't install the value it replaces.
+     */
+    public void written(String key, String value) {
+        pending.put(key, value == null ? DELETED : value);
+        loads.computeIfPresent(key, (k, load) -> {
+            load.invalidated = true;
+            return load;
+        });
+    }
+
+    /**
+     * Pushes queued writes in batches until the queue is empty or the backing store fails.
+     * A key written again while its batch was in flight stays queued with the newer value.
+     */
+    public synchronized void flush() {
+        while (!pending.isEmpty()) {
+            Map<String, Object> taken = new LinkedHashMap<>();
+            for (Map.Entry<String, Object> entry : pending.entrySet()) {
+                taken.put(entry.getKey(), entry.getValue());
+                if (taken.size() == batchSize) {
+                    break;
+                }
+            }
+            Map<String, String> batch = new LinkedHashMap<>(taken.size());
+            taken.forEach((key, value) -> batch.put(key, value == DELETED ? null : (String) value));
+            try {
+                backingStore.storeAll(batch);
+            } catch (Exception e) {
+                flushFailures.increment();
+                System.err.println("[Cache] Write-behind of " + batch.size() + " keys failed: " + e.getMessage());
+                return;
+            }
+            taken.forEach(pending::remove);
+            flushedKeys.add(taken.size());
+            flushedBatches.increment();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "cacheLoads=" + loaded.sum() + " cacheLoadsCoalesced=" + coalesced.sum()
+                + " cacheLoadFailures=" + loadFailures.sum() + " writeBehindPending=" + pending.size()
+                + " writeBehindKeys=" + flushedKeys.sum() + " writeBehindBatches=" + flushedBatches.sum()
+                + " writeBehindFailures=" + flushFailures.sum();
+    }
+
+    /**
+     * The value a miss resolved to, and its encoding if this caller installed it in the store.
+     */
+    public record Load(String value, byte[] installed) {
+    }
+
+    private static final class InFlightLoad {
+        private final CompletableFuture<String> result = new CompletableFuture<>();
+        private volatile boolean invalidated;
+    }
+}
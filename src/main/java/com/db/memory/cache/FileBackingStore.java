@@ -0,0 +1,56 @@
+package com.db.memory.cache;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Base64;
+import java.util.Map;
+
+/**
+ * A stand-in system of record for tests and demos: one file per key in a directory, named by the
+ * URL-safe base64 of the key. Writes go to a temporary file that is then moved into place, so a
+ * load never sees a half-written value.
+ */
+public class FileBackingStore implements BackingStore {
+    private final Path directory;
+
+    public FileBackingStore(Path directory) {
+        this.directory = directory;
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public String load(String key) throws IOException {
+        try {
+            return Files.readString(fileOf(key), StandardCharsets.UTF_8);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public void storeAll(Map<String, String> entries) throws IOException {
+        for (Map.Entry<String, String> entry : entries.entrySet()) {
+            Path file = fileOf(entry.getKey());
+            if (entry.getValue() == null) {
+                Files.deleteIfExists(file);
+            } else {
+                Path temp = Files.createTempFile(directory, ".write", null);
+                Files.writeString(temp, entry.getValue(), StandardCharsets.UTF_8);
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+        }
+    }
+
+    private Path fileOf(String key) {
+        return directory.resolve(Base64.getUrlEncoder().withoutPadding().encodeToString(key.getBytes(StandardCharsets.UTF_8)));
+    }
+}
@@ -3,15 +3,22 @@ package com.db.memory.cluster;
 import org.apache.zookeeper.*;
 import org.apache.zookeeper.data.Stat;
 
+import java.net.InetAddress;
+import java.net.UnknownHostException;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * ClusterManager handles node registration and metadata storage in ZooKeeper.
  * Each node creates an ephemeral node containing metadata (e.g. port, replica info).
  * Also supports node-level leadership election and failover.
+ *
+ * Node metadata and leader addresses are cached locally and kept fresh by watches, so the
+ * request path reads them without a ZooKeeper round trip. Refreshes use the async API.
  */
 public class ClusterManager {
     private final String nodeId;
@@ -19,6 +26,47 @@ public class ClusterManager {
     private final ZooKeeper zooKeeper;
     private static final String ZK_NODES_PATH = "/nodes";
     private static final String ZK_LEADERS_PATH = "/leaders";
+    private static final String ZK_LOAD_PATH = "/load";
+    private static final String ZK_CHAINS_PATH = "/chains";
+    private static final String ZK_CHAIN_READERS_PATH = "/chainreaders";
+    private static final String NO_LEADER = "";
+
+    private final double weight = Double.parseDouble(System.getProperty("kv.node.weight", "1.0"));
+    private final Map<String, NodeInfo> nodeCache = new ConcurrentHashMap<>();
+    private final Map<String, String> leaderCache = new ConcurrentHashMap<>();
+    private final CountDownLatch metadataLoaded = new CountDownLatch(1);
+    private volatile Set<String> chainMembers = Set.of();
+    private volatile Set<String> chainReaders = Set.of();
+    private final Watcher nodesWatcher = event -> {
+        if (event.getType() == Watcher.Event.EventType.NodeChildrenChanged) {
+            refreshNodes();
+        }
+    };
+    private final Watcher nodeDataWatcher = event -> {
+        if (event.getPath() == null) return;
+        String node = event.getPath().substring(ZK_NODES_PATH.length() + 1);
+        if (event.getType() == Watcher.Event.EventType.NodeDeleted) {
+            nodeCache.remove(node);
+        } else if (event.getType() == Watcher.Event.EventType.NodeDataChanged) {
+            refreshNode(node, null);
+        }
+    };
+    private final Watcher leaderWatcher = event -> {
+        if (event.getPath() != null && event.getType() != Watcher.Event.EventType.None) {
+            refreshLeader(event.getPath().substring(ZK_LEADERS_PATH.length() + 1));
+        }
+    };
+
+    private final Watcher chainWatcher = event -> {
+        if (event.getType() == Watcher.Event.EventType.NodeChildrenChanged) {
+            refreshChain();
+        }
+    };
+    private final Watcher chainReadersWatcher = event -> {
+        if (event.getType() == Watcher.Event.EventType.NodeChildrenChanged) {
+            refreshChainReaders();
+        }
+    };
 
     public ClusterManager(String nodeId, String nodeAddress, String zkConnect) throws Exception {
         this.nodeId = nodeId;
@@ -26,6 +74,7 @@ public class ClusterManager {
         CountDownLatch connectedLatch = new CountDownLatch(1);
         this.zooKeeper = new ZooKeeper(zkConnect, 30000, event -> {
             System.out.println("[" + nodeId + "] ZooKeeper event: " + event);
+            onConnectionEvent(event);
             if (event.getState() == Watcher.Event.KeeperState.SyncConnected) {
                 connectedLatch.countDown();
             }
@@ -40,9 +89,12 @@ public class ClusterManager {
     }
 
     public void initialize(Watcher watcher) throws KeeperException, InterruptedException {
-        createIfNotExists(ZK_NODES_PATH);
-        createIfNotExists(ZK_LEADERS_PATH);
-        zooKeeper.register(watcher);
+        createPersistentPaths(ZK_NODES_PATH, ZK_LEADERS_PATH, ZK_LOAD_PATH);
+        zooKeeper.register(event -> {
+            onConnectionEvent(event);
+            watcher.process(event);
+        });
+        refreshNodes();
     }
 
     public void registerNode(String nodeId, List<String> replicas, boolean isLeader) throws KeeperException, InterruptedException {
@@ -52,20 +104,47 @@ public class ClusterManager {
         }
 
         String nodePath = ZK_NODES_PATH + "/" + nodeId;
-        StringBuilder sb = new StringBuilder();
-        sb.append(nodeId); // leader node
-        if (replicas != null && !replicas.isEmpty()) {
-            sb.append("|" + String.join(",", replicas));
-        }
-        byte[] metadata = sb.toString().getBytes(StandardCharsets.UTF_8);
+        String metadata = formatMetadata(nodeId, replicas, weight);
+        byte[] data = metadata.getBytes(StandardCharsets.UTF_8);
 
-        if (zooKeeper.exists(nodePath, false) == null) {
-            zooKeeper.create(nodePath, metadata, ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.EPHEMERAL);
-        } else {
-            zooKeeper.setData(nodePath, metadata, -1);
+        try {
+            zooKeeper.create(nodePath, data, ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.EPHEMERAL);
+        } catch (KeeperException.NodeExistsException e) {
+            zooKeeper.setData(nodePath, data, -1);
         }
+        nodeCache.put(nodeId, parseNodeInfo(nodeId, data));
 
-        System.out.println("[" + nodeId + "] Registered with ZooKeeper at path: " + nodePath + " with data: " + sb);
+        System.out.println("[" + nodeId + "] Registered with ZooKeeper at path: " + nodePath + " with data: " + metadata);
+    }
+
+    /**
+     * Elects this node and publishes its replica metadata in a single multi() round trip.
+     * Falls back to separate calls when a metadata znode from an earlier session still exists.
+     */
+    public boolean tryToBecomeLeader(List<String> replicas) throws KeeperException, InterruptedException {
+        String leaderPath = ZK_LEADERS_PATH + "/" + nodeId;
+        String nodePath = ZK_NODES_PATH + "/" + nodeId;
+        byte[] metadata = formatMetadata(nodeId, replicas, weight).getBytes(StandardCharsets.UTF_8);
+        try {
+            zooKeeper.multi(List.of(
+                    Op.create(leaderPath, nodeAddress.getBytes(StandardCharsets.UTF_8), ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.EPHEMERAL),
+                    Op.create(nodePath, metadata, ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.EPHEMERAL)));
+        } catch (KeeperException e) {
+            List<OpResult> results = e.getResults();
+            if (results != null && !results.isEmpty() && results.get(0) instanceof OpResult.ErrorResult error
+                    && error.getErr() == KeeperException.Code.NODEEXISTS.intValue()) {
+                return false;
+            }
+            boolean won = tryToBecomeLeader();
+            if (won) {
+                registerNode(nodeId, replicas, true);
+            }
+            return won;
+        }
+        leaderCache.put(nodeId, nodeAddress);
+        nodeCache.put(nodeId, parseNodeInfo(nodeId, metadata));
+        System.out.println("[" + nodeId + "] Became leader and registered replicas " + replicas);
+        return true;
     }
 
 
@@ -73,6 +152,7 @@ public class ClusterManager {
         String path = ZK_LEADERS_PATH + "/" + nodeId;
         try {
             zooKeeper.create(path, nodeAddress.getBytes(StandardCharsets.UTF_8), ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.EPHEMERAL);
+            leaderCache.put(nodeId, nodeAddress);
             System.out.println("[" + nodeId + "] Became leader.");
             return true;
         } catch (KeeperException.NodeExistsException e) {
@@ -80,6 +160,83 @@ public class ClusterManager {
         }
     }
 
+    /**
+     * First step of a planned handover, on the current leader: rewrites this node's leader znode
+     * to give it a version that only this handover knows, and returns that version.
+     */
+    public int prepareHandover() throws KeeperException, InterruptedException {
+        String path = ZK_LEADERS_PATH + "/" + nodeId;
+        Stat stat = new Stat();
+        byte[] leader = zooKeeper.getData(path, false, stat);
+        if (!nodeAddress.equals(new String(leader, StandardCharsets.UTF_8))) {
+            throw new IllegalStateException(nodeAddress + " no longer holds " + path);
+        }
+        return zooKeeper.setData(path, leader, stat.getVersion()).getVersion();
+    }
+
+    /**
+     * Second step, on the chosen replica: replaces the old leader's znodes with this node's in one
+     * multi(). Deleting at the prepared version means it only succeeds if the leader znode is still
+     * the one the old leader prepared, so there is never a moment without a leader or with two.
+     */
+    public void takeOverLeadership(int leaderVersion, List<String> replicas) throws KeeperException, InterruptedException {
+        replaceLeader(leaderVersion, replicas, true);
+        System.out.println("[" + nodeId + "] Took over leadership with replicas " + replicas);
+    }
+
+    /**
+     * Unplanned counterpart of {@link #takeOverLeadership}: takes leadership from a leader this
+     * node's failure detector suspects, without waiting for its session to expire. The suspect's
+     * znode stays the fence: it is only replaced if it still names the suspect, at the version
+     * read here, so at most one replica's attempt can succeed. If the znode is already gone this
+     * is an ordinary election.
+     */
+    public boolean seizeLeadership(String suspect, List<String> replicas) throws KeeperException, InterruptedException {
+        String leaderPath = ZK_LEADERS_PATH + "/" + nodeId;
+        Stat stat = new Stat();
+        byte[] leader;
+        try {
+            leader = zooKeeper.getData(leaderPath, false, stat);
+        } catch (KeeperException.NoNodeException e) {
+            return tryToBecomeLeader(replicas);
+        }
+        if (!suspect.equals(new String(leader, StandardCharsets.UTF_8))) {
+            return false;
+        }
+        try {
+            replaceLeader(stat.getVersion(), replicas, zooKeeper.exists(ZK_NODES_PATH + "/" + nodeId, false) != null);
+        } catch (KeeperException e) {
+            return false;
+        }
+        System.out.println("[" + nodeId + "] Took leadership from suspected leader " + suspect);
+        return true;
+    }
+
+    private void replaceLeader(int leaderVersion, List<String> replicas, boolean replaceMetadata)
+            throws KeeperException, InterruptedException {
+        String leaderPath = ZK_LEADERS_PATH + "/" + nodeId;
+        String nodePath = ZK_NODES_PATH + "/" + nodeId;
+        byte[] metadata = formatMetadata(nodeId, replicas, weight).getBytes(StandardCharsets.UTF_8);
+        List<Op> ops = new ArrayList<>();
+        ops.add(Op.delete(leaderPath, leaderVersion));
+        ops.add(Op.create(leaderPath, nodeAddress.getBytes(StandardCharsets.UTF_8), ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.EPHEMERAL));
+        if (replaceMetadata) {
+            ops.add(Op.delete(nodePath, -1));
+        }
+        ops.add(Op.create(nodePath, metadata, ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.EPHEMERAL));
+        zooKeeper.multi(ops);
+        leaderCache.put(nodeId, nodeAddress);
+        nodeCache.put(nodeId, parseNodeInfo(nodeId, metadata));
+    }
+
+    /**
+     * Called by the old leader once a handover completed, so it stops accepting writes right away
+     * instead of waiting for the watch to fire.
+     */
+    public void leadershipMovedTo(String newLeader) {
+        leaderCache.put(nodeId, newLeader);
+    }
+
     public void watchLeadership(String targetNodeId, Runnable onLeaderGone) throws KeeperException, InterruptedException {
         String path = ZK_LEADERS_PATH + "/" + targetNodeId;
         Watcher watcher = event -> {
@@ -102,35 +259,323 @@ public class ClusterManager {
         }
     }
 
+    /**
+     * Invokes the callback whenever a partition leader appears or disappears under /leaders.
+     */
+    public void watchLeaders(Runnable onChange) throws KeeperException, InterruptedException {
+        zooKeeper.getChildren(ZK_LEADERS_PATH, event -> {
+            if (event.getType() == Watcher.Event.EventType.NodeChildrenChanged) {
+                onChange.run();
+                try {
+                    // Re-set the watch
+                    watchLeaders(onChange);
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+    }
+
+    /**
+     * Served from the watch-maintained cache; only the first lookup for a block goes to ZooKeeper.
+     */
     public String getCurrentLeader(String targetNodeId) throws KeeperException, InterruptedException {
+        String cached = leaderCache.get(targetNodeId);
+        if (cached != null) {
+            return cached.isEmpty() ? null : cached;
+        }
+
         String path = ZK_LEADERS_PATH + "/" + targetNodeId;
-        Stat stat = zooKeeper.exists(path, false);
-        if (stat == null) return null;
-        byte[] data = zooKeeper.getData(path, false, null);
-        return new String(data, StandardCharsets.UTF_8);
+        try {
+            String leader = new String(zooKeeper.getData(path, leaderWatcher, null), StandardCharsets.UTF_8);
+            leaderCache.putIfAbsent(targetNodeId, leader);
+            return leader;
+        } catch (KeeperException.NoNodeException e) {
+            if (zooKeeper.exists(path, leaderWatcher) != null) {
+                // Created between the two calls; let the async refresh fill the cache
+                refreshLeader(targetNodeId);
+                return getLeaderUncached(path);
+            }
+            leaderCache.putIfAbsent(targetNodeId, NO_LEADER);
+            return null;
+        }
+    }
+
+    private String getLeaderUncached(String path) throws KeeperException, InterruptedException {
+        try {
+            return new String(zooKeeper.getData(path, false, null), StandardCharsets.UTF_8);
+        } catch (KeeperException.NoNodeException e) {
+            return null;
+        }
+    }
+
+    private void refreshLeader(String targetNodeId) {
+        String path = ZK_LEADERS_PATH + "/" + targetNodeId;
+        zooKeeper.getData(path, leaderWatcher, (rc, p, ctx, data, stat) -> {
+            if (rc == KeeperException.Code.OK.intValue()) {
+                leaderCache.put(targetNodeId, new String(data, StandardCharsets.UTF_8));
+            } else if (rc == KeeperException.Code.NONODE.intValue()) {
+                leaderCache.put(targetNodeId, NO_LEADER);
+                // Watch for the next leader's znode
+                zooKeeper.exists(path, leaderWatcher, (existsRc, existsPath, existsCtx, existsStat) -> {
+                    if (existsRc == KeeperException.Code.OK.intValue()) {
+                        refreshLeader(targetNodeId);
+                    }
+                }, null);
+            } else {
+                leaderCache.remove(targetNodeId);
+            }
+        }, null);
+    }
+
+    private void onConnectionEvent(WatchedEvent event) {
+        if (event.getType() == Watcher.Event.EventType.None
+                && event.getState() != Watcher.Event.KeeperState.SyncConnected) {
+            // Cached leaders can't be trusted while disconnected; fall back to direct reads
+            leaderCache.clear();
+        }
+    }
+
+    private void createPersistentPaths(String... paths) throws KeeperException, InterruptedException {
+        List<Op> ops = new ArrayList<>();
+        for (String path : paths) {
+            ops.add(Op.create(path, new byte[0], ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT));
+        }
+        try {
+            zooKeeper.multi(ops);
+        } catch (KeeperException.NodeExistsException e) {
+            // Another node already created some of them; create whatever is still missing
+            for (String path : paths) {
+                createIfNotExists(path);
+            }
+        }
     }
 
     private void createIfNotExists(String path) throws KeeperException, InterruptedException {
-        Stat stat = zooKeeper.exists(path, false);
-        if (stat == null) {
+        try {
             zooKeeper.create(path, new byte[0], ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+        } catch (KeeperException.NodeExistsException ignored) {
+        }
+    }
+
+    /**
+     * Announces this node as a live member of its block's replication chain with an ephemeral
+     * /chains/&lt;block&gt;/&lt;address&gt; znode, and starts watching the block's members. A member
+     * receives writes from here on but serves no reads until {@link #markCaughtUp()}.
+     */
+    public void joinChain() throws KeeperException, InterruptedException {
+        String blockPath = ZK_CHAINS_PATH + "/" + nodeId;
+        String readersPath = ZK_CHAIN_READERS_PATH + "/" + nodeId;
+        createIfNotExists(ZK_CHAINS_PATH);
+        createIfNotExists(blockPath);
+        createIfNotExists(ZK_CHAIN_READERS_PATH);
+        createIfNotExists(readersPath);
+        chainReaders = Set.copyOf(zooKeeper.getChildren(readersPath, chainReadersWatcher));
+        createEphemeral(blockPath + "/" + nodeAddress);
+        chainMembers = Set.copyOf(zooKeeper.getChildren(blockPath, chainWatcher));
+        System.out.println("[" + nodeId + "] Joined replication chain as " + nodeAddress);
+    }
+
+    /**
+     * Announces that this member holds every write its block has acknowledged, with an ephemeral
+     * /chainreaders/&lt;block&gt;/&lt;address&gt; znode, so reads may be routed to it.
+     */
+    public void markCaughtUp() throws KeeperException, InterruptedException {
+        createEphemeral(ZK_CHAIN_READERS_PATH + "/" + nodeId + "/" + nodeAddress);
+        System.out.println("[" + nodeId + "] Caught up with the chain, serving reads as " + nodeAddress);
+    }
+
+    private void createEphemeral(String path) throws KeeperException, InterruptedException {
+        try {
+            zooKeeper.create(path, new byte[0], ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.EPHEMERAL);
+        } catch (KeeperException.NodeExistsException e) {
+            // Left over from this address's previous session; it would vanish when that expires
+            zooKeeper.delete(path, -1);
+            zooKeeper.create(path, new byte[0], ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.EPHEMERAL);
         }
     }
 
+    /**
+     * Addresses of this block's members whose chain znode is alive, kept fresh by a watch.
+     */
+    public Set<String> getChainMembers() {
+        return chainMembers;
+    }
+
+    /**
+     * Addresses of this block's members that have caught up and may serve reads.
+     */
+    public Set<String> getChainReaders() {
+        return chainReaders;
+    }
+
+    private void refreshChain() {
+        zooKeeper.getChildren(ZK_CHAINS_PATH + "/" + nodeId, chainWatcher, (rc, path, ctx, children) -> {
+            if (rc == KeeperException.Code.OK.intValue()) {
+                chainMembers = Set.copyOf(children);
+            }
+        }, null);
+    }
+
+    private void refreshChainReaders() {
+        zooKeeper.getChildren(ZK_CHAIN_READERS_PATH + "/" + nodeId, chainReadersWatcher, (rc, path, ctx, children) -> {
+            if (rc == KeeperException.Code.OK.intValue()) {
+                chainReaders = Set.copyOf(children);
+            }
+        }, null);
+    }
+
+    /**
+     * Returns the watch-maintained view of /nodes. Blocks only until the initial load completes.
+     */
     public Map<String, NodeInfo> getNodeMetadata() throws KeeperException, InterruptedException {
-        Map<String, NodeInfo> nodeMap = new HashMap<>();
-        List<String> nodes = zooKeeper.getChildren(ZK_NODES_PATH, false);
-        for (String node : nodes) {
-            String path = ZK_NODES_PATH + "/" + node;
-            byte[] data = zooKeeper.getData(path, false, null);
-            String[] parts = new String(data, StandardCharsets.UTF_8).split("\\|");
-            List<String> replicas = new ArrayList<>();
-            if (parts.length > 1) {
-                Collections.addAll(replicas, parts[1].split(","));
+        if (!metadataLoaded.await(30, TimeUnit.SECONDS)) {
+            throw new KeeperException.OperationTimeoutException();
+        }
+        return Collections.unmodifiableMap(nodeCache);
+    }
+
+    private void refreshNodes() {
+        zooKeeper.getChildren(ZK_NODES_PATH, nodesWatcher, (rc, path, ctx, children) -> {
+            if (rc != KeeperException.Code.OK.intValue()) {
+                System.err.println("[" + nodeId + "] Failed to list " + ZK_NODES_PATH + ": " + KeeperException.Code.get(rc));
+                return;
             }
-            nodeMap.put(node, new NodeInfo(node, replicas));
+            nodeCache.keySet().retainAll(children);
+            if (children.isEmpty()) {
+                metadataLoaded.countDown();
+                return;
+            }
+            // Issue every read at once; the initial load completes when the last one answers
+            AtomicInteger pending = new AtomicInteger(children.size());
+            for (String child : children) {
+                refreshNode(child, () -> {
+                    if (pending.decrementAndGet() == 0) {
+                        metadataLoaded.countDown();
+                    }
+                });
+            }
+        }, null);
+    }
+
+    private void refreshNode(String node, Runnable onDone) {
+        zooKeeper.getData(ZK_NODES_PATH + "/" + node, nodeDataWatcher, (rc, path, ctx, data, stat) -> {
+            if (rc == KeeperException.Code.OK.intValue()) {
+                nodeCache.put(node, parseNodeInfo(node, data));
+            } else if (rc == KeeperException.Code.NONODE.intValue()) {
+                nodeCache.remove(node);
+            }
+            if (onDone != null) {
+                onDone.run();
+            }
+        }, null);
+    }
+
+    /**
+     * Publishes this block's key count so every node can report load.
+     */
+    public void publishLoad(long keyCount) throws KeeperException, InterruptedException {
+        String path = ZK_LOAD_PATH + "/" + nodeId;
+        byte[] data = Long.toString(keyCount).getBytes(StandardCharsets.UTF_8);
+        try {
+            zooKeeper.setData(path, data, -1);
+        } catch (KeeperException.NoNodeException e) {
+            zooKeeper.create(path, data, ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.EPHEMERAL);
+        }
+    }
+
+    /**
+     * Latest key count published by each block's leader, read with parallel async calls.
+     */
+    public Map<String, Long> getPartitionLoads() throws KeeperException, InterruptedException {
+        List<String> partitions = zooKeeper.getChildren(ZK_LOAD_PATH, false);
+        Map<String, Long> loads = new ConcurrentHashMap<>();
+        CountDownLatch done = new CountDownLatch(partitions.size());
+        for (String partition : partitions) {
+            zooKeeper.getData(ZK_LOAD_PATH + "/" + partition, false, (rc, path, ctx, data, stat) -> {
+                if (rc == KeeperException.Code.OK.intValue()) {
+                    loads.put(partition, Long.parseLong(new String(data, StandardCharsets.UTF_8)));
+                }
+                done.countDown();
+            }, null);
+        }
+        if (!done.await(30, TimeUnit.SECONDS)) {
+            throw new KeeperException.OperationTimeoutException();
+        }
+        return loads;
+    }
+
+    public boolean isLeader() throws KeeperException, InterruptedException {
+        return nodeAddress.equals(getCurrentLeader(nodeId));
+    }
+
+    private static String formatMetadata(String nodeId, List<String> replicas, double weight) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(nodeId); // leader node
+        boolean hasReplicas = replicas != null && !replicas.isEmpty();
+        if (hasReplicas || weight != 1.0) {
+            sb.append("|" + (hasReplicas ? String.join(",", replicas) : ""));
+        }
+        if (weight != 1.0) {
+            sb.append("|" + weight);
+        }
+        return sb.toString();
+    }
+
+    private static NodeInfo parseNodeInfo(String node, byte[] data) {
+        String[] parts = new String(data, StandardCharsets.UTF_8).split("\\|");
+        List<String> replicas = new ArrayList<>();
+        if (parts.length > 1 && !parts[1].isEmpty()) {
+            Collections.addAll(replicas, parts[1].split(","));
         }
-        return nodeMap;
+        double weight = parts.length > 2 ? Double.parseDouble(parts[2]) : 1.0;
+        return new NodeInfo(node, replicas, weight);
+    }
+
+    /**
+     * Whether a connection from this address may come from another node: the address of a block
+     * leader, a replica listed under /nodes or a chain member, or this node's own. Each lookup
+     * reads the caches; a block whose leader hasn't been looked up yet costs one ZooKeeper read,
+     * after which the watch keeps it fresh.
+     */
+    public boolean isKnownPeer(InetAddress address) throws KeeperException, InterruptedException {
+        Set<String> hosts = new HashSet<>();
+        hosts.add(host(nodeAddress));
+        for (NodeInfo info : getNodeMetadata().values()) {
+            info.replicas.forEach(replica -> hosts.add(host(replica)));
+        }
+        chainMembers.forEach(member -> hosts.add(host(member)));
+        for (String host : hosts) {
+            if (resolvesTo(host, address)) {
+                return true;
+            }
+        }
+        for (String block : getNodeMetadata().keySet()) {
+            String leader = getCurrentLeader(block);
+            if (leader != null && resolvesTo(host(leader), address)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String host(String address) {
+        int colon = address.lastIndexOf(':');
+        return colon < 0 ? address : address.substring(0, colon);
+    }
+
+    private static boolean resolvesTo(String host, InetAddress address) {
+        try {
+            // Resolutions are cached by the JVM, so this is a lookup per host only on a miss
+            for (InetAddress resolved : InetAddress.getAllByName(host)) {
+                if (resolved.equals(address)) {
+                    return true;
+                }
+            }
+        } catch (UnknownHostException ignored) {
+            // A node that no longer resolves can't be the one connecting
+        }
+        return false;
     }
 
     public List<String> getAllNodes() throws KeeperException, InterruptedException {
@@ -152,10 +597,16 @@ public class ClusterManager {
     public static class NodeInfo {
         public final String nodeId;
         public final List<String> replicas;
+        public final double weight;
 
         public NodeInfo(String nodeId, List<String> replicas) {
+            this(nodeId, replicas, 1.0);
+        }
+
+        public NodeInfo(String nodeId, List<String> replicas, double weight) {
             this.nodeId = nodeId;
             this.replicas = replicas;
+            this.weight = weight;
         }
 
         @Override
@@ -163,6 +614,7 @@ public class ClusterManager {
             return "NodeInfo{" +
                     "nodeId='" + nodeId + '\'' +
                     ", replicas=" + replicas +
+                    ", weight=" + weight +
                     '}';
         }
     }
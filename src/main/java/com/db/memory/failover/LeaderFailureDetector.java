@@ -0,0 +1,157 @@
+package com.db.memory.failover;
+
+import com.db.memory.cluster.ClusterManager;
+import com.db.memory.cluster.ClusterManager.NodeInfo;
+import com.db.memory.util.NodeClient;
+
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs on every member of a block and watches the block's leader directly, so an unplanned
+ * failover doesn't have to wait for the leader's ZooKeeper session to expire. Replicas ping the
+ * leader and feed the replies into a phi accrual detector. Once phi passes the threshold, the
+ * replicas take over in the order the leader listed them: each waits its rank times a short delay
+ * and gives up if the leader answered again or someone else already took over. A replica also
+ * only takes over once enough of the others suspect the leader too, so one replica cut off from
+ * the leader can't depose a leader the rest of the block still reaches. The leader znode is still
+ * the fence; the ZooKeeper watch remains as a fallback, and the only path for a block with a
+ * single replica, which has no one to agree with.
+ */
+public class LeaderFailureDetector {
+    private static final int WINDOW_SIZE = 100;
+
+    private final ClusterManager clusterManager;
+    private final List<String> replicas;
+    private final long heartbeatMs;
+    private final long rankDelayMs;
+    private final double threshold;
+    private volatile String watchedLeader;
+    private volatile PhiAccrualDetector detector;
+
+    /**
+     * @param replicas the replica list this node publishes if it becomes leader
+     */
+    public LeaderFailureDetector(ClusterManager clusterManager, List<String> replicas) {
+        this.clusterManager = clusterManager;
+        this.replicas = replicas;
+        this.heartbeatMs = Long.getLong("kv.failover.heartbeat.ms", 100);
+        this.rankDelayMs = Long.getLong("kv.failover.rank.delay.ms", 200);
+        this.threshold = Double.parseDouble(System.getProperty("kv.failover.phi.threshold", "8"));
+    }
+
+    public void start() {
+        if (heartbeatMs <= 0) {
+            return;
+        }
+        // Separate threads, so a ping stuck on a dead leader never delays the check that notices it
+        ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(2, r -> {
+            Thread t = new Thread(r, "failure-detector");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(this::ping, heartbeatMs, heartbeatMs, TimeUnit.MILLISECONDS);
+        scheduler.scheduleWithFixedDelay(this::check, heartbeatMs, Math.max(1, heartbeatMs / 2), TimeUnit.MILLISECONDS);
+    }
+
+    private void ping() {
+        try {
+            String leader = clusterManager.getCurrentLeader(clusterManager.getNodeId());
+            if (leader == null || leader.equals(clusterManager.getNodeAddress())) {
+                watchedLeader = null;
+                return;
+            }
+            if (!leader.equals(watchedLeader)) {
+                detector = new PhiAccrualDetector(WINDOW_SIZE, TimeUnit.MILLISECONDS.toNanos(heartbeatMs) / 4);
+                watchedLeader = leader;
+            }
+            // Any answer, BUSY from a full queue included, shows the leader is alive
+            if (NodeClient.send(leader, "REPLICATE PING") != null) {
+                detector.heartbeat(System.nanoTime());
+            }
+        } catch (Exception ignored) {
+            // A missed heartbeat is exactly what the detector measures
+        }
+    }
+
+    private void check() {
+        String suspect = watchedLeader;
+        PhiAccrualDetector current = detector;
+        if (suspect == null || current == null) {
+            return;
+        }
+        double phi = current.phi(System.nanoTime());
+        if (phi < threshold) {
+            return;
+        }
+        try {
+            int rank = rank();
+            System.out.println("[Failover] Suspect leader " + suspect + " (phi=" + String.format("%.1f", phi) + "), rank " + rank);
+            if (rank > 0) {
+                Thread.sleep(rank * rankDelayMs);
+                if (current.phi(System.nanoTime()) < threshold) {
+                    return;
+                }
+            }
+            if (!othersAgree(suspect)) {
+                System.out.println("[Failover] Not enough replicas suspect " + suspect + ", leaving it in place");
+                return;
+            }
+            // Whatever the outcome, the next ping re-reads who leads and starts a fresh detector
+            clusterManager.seizeLeadership(suspect, replicas);
+            watchedLeader = null;
+        } catch (Exception e) {
+            System.err.println("[Failover] Election after suspecting " + suspect + " failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Whether this node currently suspects the given leader, for another replica asking before it
+     * takes over.
+     */
+    public boolean suspects(String leader) {
+        PhiAccrualDetector current = detector;
+        return leader.equals(watchedLeader) && current != null && current.phi(System.nanoTime()) >= threshold;
+    }
+
+    /**
+     * Asks the block's other replicas whether they suspect the leader too. Together with this
+     * node a majority of the replica list has to, and at least one other replica always.
+     */
+    private boolean othersAgree(String suspect) throws Exception {
+        NodeInfo block = clusterManager.getNodeMetadata().get(clusterManager.getNodeId());
+        if (block == null) {
+            return false;
+        }
+        int needed = Math.max(1, block.replicas.size() / 2);
+        int agreeing = 0;
+        for (String replica : block.replicas) {
+            if (replica.equals(clusterManager.getNodeAddress()) || replica.equals(suspect)) {
+                continue;
+            }
+            try {
+                if ("YES".equals(NodeClient.send(replica, "REPLICATE SUSPECT " + suspect)) && ++agreeing >= needed) {
+                    return true;
+                }
+            } catch (Exception e) {
+                // A replica that can't be asked doesn't count towards agreement
+            }
+        }
+        return false;
+    }
+
+    /**
+     * This node's position in the leader's replica list, so replicas don't all race at once.
+     * Nodes missing from the list go last.
+     */
+    private int rank() throws Exception {
+        NodeInfo block = clusterManager.getNodeMetadata().get(clusterManager.getNodeId());
+        if (block == null) {
+            return 0;
+        }
+        int index = block.replicas.indexOf(clusterManager.getNodeAddress());
+        return index < 0 ? block.replicas.size() : index;
+    }
+}
@@ -0,0 +1,57 @@
+package com.db.memory.failover;
+
+/**
+ * Phi accrual failure detector (Hayashibara et al.). Rather than a fixed timeout, it learns the
+ * distribution of heartbeat inter-arrival times and reports phi: how unlikely it is, on a log10
+ * scale, that a heartbeat is merely late rather than never coming. Phi 8 means a one in 10^8
+ * chance of a false suspicion under the observed distribution.
+ */
+public class PhiAccrualDetector {
+    // Intervals are kept in microseconds so the sum of squares can't overflow
+    private final long[] intervals;
+    private final double minStdDevMicros;
+    private int count;
+    private int next;
+    private long sum;
+    private long sumOfSquares;
+    private long lastHeartbeat = -1;
+
+    public PhiAccrualDetector(int windowSize, long minStdDevNanos) {
+        this.intervals = new long[windowSize];
+        this.minStdDevMicros = minStdDevNanos / 1000.0;
+    }
+
+    public synchronized void heartbeat(long nowNanos) {
+        if (lastHeartbeat >= 0) {
+            long interval = (nowNanos - lastHeartbeat) / 1000;
+            if (count == intervals.length) {
+                sum -= intervals[next];
+                sumOfSquares -= intervals[next] * intervals[next];
+            } else {
+                count++;
+            }
+            intervals[next] = interval;
+            next = (next + 1) % intervals.length;
+            sum += interval;
+            sumOfSquares += interval * interval;
+        }
+        lastHeartbeat = nowNanos;
+    }
+
+    /**
+     * Suspicion level now; zero until at least one interval has been observed.
+     */
+    public synchronized double phi(long nowNanos) {
+        if (count == 0) {
+            return 0;
+        }
+        double mean = (double) sum / count;
+        double variance = (double) sumOfSquares / count - mean * mean;
+        double stdDev = Math.max(Math.sqrt(Math.max(variance, 0)), minStdDevMicros);
+        double elapsed = (nowNanos - lastHeartbeat) / 1000.0;
+        double y = (elapsed - mean) / stdDev;
+        // Logistic approximation of the normal CDF, accurate to about 10^-4
+        double e = Math.exp(-y * (1.5976 + 0.070566 * y * y));
+        return elapsed > mean ? -Math.log10(e / (1.0 + e)) : -Math.log10(1.0 - 1.0 / (1.0 + e));
+    }
+}
@@ -0,0 +1,115 @@
+package com.db.memory.handover;
+
+import com.db.memory.antientropy.AntiEntropyService;
+import com.db.memory.cluster.ClusterManager;
+import com.db.memory.cluster.ClusterManager.NodeInfo;
+import com.db.memory.util.NodeClient;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Planned leadership transfer. Instead of waiting for a ZooKeeper session to expire, the leader
+ * stops admitting writes, waits for the ones in flight (which have already been replicated once
+ * they finish), makes sure the chosen replica holds exactly its data, and then has that replica
+ * swap the leader znode over to itself in one atomic step. Writes see a short TRYAGAIN window.
+ */
+public class LeaderHandover {
+    private static final int CATCH_UP_ATTEMPTS = 3;
+
+    private final ClusterManager clusterManager;
+    private final AntiEntropyService antiEntropy;
+    private final long drainTimeoutNanos;
+    private final AtomicBoolean inProgress = new AtomicBoolean();
+    private final AtomicInteger writesInFlight = new AtomicInteger();
+    private volatile boolean draining;
+
+    public LeaderHandover(ClusterManager clusterManager, AntiEntropyService antiEntropy) {
+        this.clusterManager = clusterManager;
+        this.antiEntropy = antiEntropy;
+        this.drainTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(Long.getLong("kv.handover.drain.timeout.ms", 5000));
+    }
+
+    /**
+     * Registers a leader write, from before its leader check until it has been replicated. Returns
+     * false while a handover is draining; the caller should answer TRYAGAIN.
+     */
+    public boolean tryStartWrite() {
+        writesInFlight.incrementAndGet();
+        if (draining) {
+            writesInFlight.decrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    public void finishWrite() {
+        writesInFlight.decrementAndGet();
+    }
+
+    /**
+     * Hands this node's leadership to the replica at the given address, or to its first replica
+     * when none is given. Returns the reply for the client.
+     */
+    public String handover(String target) throws Exception {
+        String nodeId = clusterManager.getNodeId();
+        if (!clusterManager.isLeader()) {
+            return "ERROR: Node " + nodeId + " is not the leader";
+        }
+        NodeInfo self = clusterManager.getNodeMetadata().get(nodeId);
+        List<String> replicas = self == null ? List.of() : self.replicas;
+        if (target == null) {
+            if (replicas.isEmpty()) {
+                return "ERROR: Node " + nodeId + " has no replica to hand over to";
+            }
+            target = replicas.get(0);
+        } else if (!replicas.contains(target)) {
+            return "ERROR: " + target + " is not a replica of " + nodeId;
+        }
+        if (!inProgress.compareAndSet(false, true)) {
+            return "ERROR: Handover already in progress";
+        }
+
+        long start = System.nanoTime();
+        draining = true;
+        try {
+            if (!drain()) {
+                return "ERROR: Timed out draining in-flight writes";
+            }
+            if (!antiEntropy.converge(target, CATCH_UP_ATTEMPTS)) {
+                return "ERROR: Replica " + target + " did not catch up";
+            }
+            int version = clusterManager.prepareHandover();
+            // The new leader replicates to everyone it used to share the block with, including us
+            List<String> newReplicas = new ArrayList<>(replicas);
+            newReplicas.remove(target);
+            newReplicas.add(clusterManager.getNodeAddress());
+            String reply = NodeClient.send(target, "REPLICATE PROMOTE " + version + " " + String.join(",", newReplicas));
+            if (!"OK".equals(reply)) {
+                return "ERROR: Promotion failed on " + target + ": " + reply;
+            }
+            clusterManager.leadershipMovedTo(target);
+            long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            System.out.println("[Handover] " + nodeId + " handed leadership to " + target + " in " + elapsedMs + " ms");
+            return "OK " + target + " " + elapsedMs + "ms";
+        } finally {
+            draining = false;
+            inProgress.set(false);
+        }
+    }
+
+    private boolean drain() {
+        long deadline = System.nanoTime() + drainTimeoutNanos;
+        while (writesInFlight.get() > 0) {
+            if (System.nanoTime() > deadline) {
+                return false;
+            }
+            LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(100));
+        }
+        return true;
+    }
+}
@@ -8,26 +8,56 @@ import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.util.*;
 
+/**
+ * Consistent hash ring over partition leaders. Each partition gets a number of virtual nodes
+ * proportional to its weight. A key's partition depends only on the key and the ring's members
+ * and weights, so every node that has seen the same leaders routes it the same way.
+ */
 public class HashRing {
-    private final SortedMap<Integer, String> ring = new TreeMap<>();
-    private static final int NUM_VIRTUAL_NODES = 10;
+    private static final long RING_SIZE = (long) Integer.MAX_VALUE + 1;
+
     private final ClusterManager clusterManager;
+    private final int virtualNodes;
+
+    private volatile NavigableMap<Integer, String> ring = new TreeMap<>();
+    private volatile Map<String, Double> weights = Map.of();
 
     public HashRing(ClusterManager clusterManager) {
+        this(clusterManager, Integer.getInteger("kv.ring.vnodes", 100));
+    }
+
+    public HashRing(ClusterManager clusterManager, int virtualNodes) {
         this.clusterManager = clusterManager;
+        this.virtualNodes = virtualNodes;
     }
 
     public void buildHashRing() throws KeeperException, InterruptedException {
-        ring.clear();
         List<String> leaderNodeIds = clusterManager.getZooKeeper().getChildren("/leaders", false);
+        Map<String, Double> partitionWeights = new HashMap<>();
+        for (ClusterManager.NodeInfo info : clusterManager.getNodeMetadata().values()) {
+            partitionWeights.put(info.nodeId, info.weight);
+        }
+        buildHashRing(leaderNodeIds, partitionWeights);
+    }
+
+    /**
+     * Builds the ring from explicit inputs; partitions missing from weights count as weight 1.
+     */
+    public void buildHashRing(List<String> leaderNodeIds, Map<String, Double> partitionWeights) {
+        NavigableMap<Integer, String> newRing = new TreeMap<>();
+        Map<String, Double> newWeights = new HashMap<>();
         for (String nodeId : leaderNodeIds) {
-            for (int i = 0; i < NUM_VIRTUAL_NODES; i++) {
+            double weight = partitionWeights.getOrDefault(nodeId, 1.0);
+            newWeights.put(nodeId, weight);
+            for (int i = 0; i < vnodeCount(weight); i++) {
                 String vnode = nodeId + "-vnode-" + i;
                 int hash = hash(vnode);
-                ring.put(hash, nodeId);
+                newRing.put(hash, nodeId);
             }
         }
-        System.out.println("[HashRing] Built ring with nodes: " + ring);
+        this.weights = newWeights;
+        this.ring = newRing;
+        System.out.println("[HashRing] Built ring with " + newRing.size() + " vnodes for partitions: " + newWeights);
     }
 
     public int hash(String key) {
@@ -41,16 +71,59 @@ public class HashRing {
     }
 
     public String getTargetNode(String key) {
-        int hash = hash(key);
-        SortedMap<Integer, String> tailMap = ring.tailMap(hash);
-        return tailMap.isEmpty() ? ring.get(ring.firstKey()) : tailMap.get(tailMap.firstKey());
+        NavigableMap<Integer, String> current = ring;
+        if (current.isEmpty()) {
+            return null;
+        }
+        Map.Entry<Integer, String> entry = current.ceilingEntry(hash(key));
+        return entry == null ? current.firstEntry().getValue() : entry.getValue();
     }
 
-    public List<Integer> getUniqueShardIds() {
-        Set<Integer> shardIds = new HashSet<>();
-        for (int hash : ring.keySet()) {
-            shardIds.add(hash % 10);
+    /**
+     * Immutable snapshot of the current ring; it is replaced, never modified, on rebuild.
+     */
+    public NavigableMap<Integer, String> getRing() {
+        return Collections.unmodifiableNavigableMap(ring);
+    }
+
+    public List<String> getPartitions() {
+        return new ArrayList<>(new TreeSet<>(ring.values()));
+    }
+
+    /**
+     * One line per partition: vnode count, weight, expected share of the hash space and, when
+     * leaders have published it, actual key count and share of all keys.
+     */
+    public String describeDistribution(Map<String, Long> actualLoads) {
+        NavigableMap<Integer, String> current = ring;
+        Map<String, Long> arcs = new TreeMap<>();
+        Map<String, Integer> vnodes = new HashMap<>();
+        Integer previous = current.isEmpty() ? null : current.lastKey();
+        for (Map.Entry<Integer, String> entry : current.entrySet()) {
+            // Each vnode owns the arc ending at its position (wrapping around for the first one)
+            long arc = Math.floorMod((long) entry.getKey() - previous, RING_SIZE);
+            if (arc == 0) {
+                arc = RING_SIZE;
+            }
+            arcs.merge(entry.getValue(), arc, Long::sum);
+            vnodes.merge(entry.getValue(), 1, Integer::sum);
+            previous = entry.getKey();
         }
-        return new ArrayList<>(shardIds);
+
+        long totalKeys = actualLoads.values().stream().mapToLong(Long::longValue).sum();
+        StringJoiner report = new StringJoiner(" ");
+        for (Map.Entry<String, Long> arc : arcs.entrySet()) {
+            String partition = arc.getKey();
+            long keys = actualLoads.getOrDefault(partition, 0L);
+            report.add(String.format("%s:vnodes=%d,weight=%.2f,expected=%.3f,keys=%d,actual=%.3f",
+                    partition, vnodes.get(partition), weights.getOrDefault(partition, 1.0),
+                    (double) arc.getValue() / RING_SIZE, keys,
+                    totalKeys == 0 ? 0.0 : (double) keys / totalKeys));
+        }
+        return report.length() == 0 ? "EMPTY" : report.toString();
+    }
+
+    private int vnodeCount(double weight) {
+        return Math.max(1, (int) Math.round(virtualNodes * weight));
     }
 }
@@ -0,0 +1,173 @@
+package com.db.memory.hotkeys;
+
+import com.db.memory.namespace.Namespace;
+import com.db.memory.namespace.NamespaceManager;
+import com.db.memory.storage.KVStore;
+import com.db.memory.storage.SortedSetStore;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToLongFunction;
+import java.util.function.UnaryOperator;
+
+/**
+ * BigKeySampler finds the keys holding the most memory without a heap dump. A background thread
+ * walks every namespace and the sorted sets in small batches, sizing each key from the counters
+ * the stores already keep, and keeps the top-K of each pass. A pass's result replaces the previous
+ * one when it completes, so a key that shrank or was deleted drops out within one pass.
+ */
+public class BigKeySampler {
+    private static final Comparator<BigKey> BY_SIZE = Comparator.comparingLong(BigKey::bytes);
+
+    private final NamespaceManager namespaces;
+    private final SortedSetStore sortedSets;
+    private final int topK;
+    private final int batchSize;
+
+    private final PriorityQueue<BigKey> current = new PriorityQueue<>(BY_SIZE);
+    private List<Source> sources = List.of();
+    private int sourceIndex;
+    private Iterator<String> keys = Collections.emptyIterator();
+    private long passStart;
+    private long passKeys;
+
+    private volatile List<BigKey> published;
+    private volatile long passes;
+    private volatile long lastPassKeys;
+    private volatile long lastPassMs;
+
+    /**
+     * Samples only when asked to, until {@link #start} schedules it.
+     */
+    public BigKeySampler(NamespaceManager namespaces, SortedSetStore sortedSets, int topK, int batchSize) {
+        this.namespaces = namespaces;
+        this.sortedSets = sortedSets;
+        this.topK = topK;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Examines a batch every intervalMs on a background thread. Kept out of the constructor so
+     * the thread never sees a half-constructed sampler.
+     */
+    public void start(long intervalMs) {
+        ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "bigkey-sampler");
+            t.setDaemon(true);
+            return t;
+        });
+        sampler.scheduleWithFixedDelay(this::sampleBatch, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Keeps the kv.bigkeys.topk largest keys (default 10), examining kv.bigkeys.batch keys
+     * (default 1000) every kv.bigkeys.interval.ms (default 100).
+     */
+    public static BigKeySampler fromSystemProperties(NamespaceManager namespaces, SortedSetStore sortedSets) {
+        BigKeySampler sampler = new BigKeySampler(namespaces, sortedSets,
+                Integer.getInteger("kv.bigkeys.topk", 10),
+                Integer.getInteger("kv.bigkeys.batch", 1000));
+        long intervalMs = Long.getLong("kv.bigkeys.interval.ms", 100);
+        if (intervalMs > 0) {
+            sampler.start(intervalMs);
+        }
+        return sampler;
+    }
+
+    /**
+     * Sizes the next batch of keys, starting a new pass after the last one completed.
+     */
+    public synchronized void sampleBatch() {
+        try {
+            if (sourceIndex >= sources.size() && !keys.hasNext()) {
+                startPass();
+            }
+            for (int examined = 0; examined < batchSize; ) {
+                if (!keys.hasNext()) {
+                    if (sourceIndex == sources.size()) {
+                        finishPass();
+                        return;
+                    }
+                    keys = sources.get(sourceIndex++).keys().iterator();
+                    continue;
+                }
+                Source source = sources.get(sourceIndex - 1);
+                String key = keys.next();
+                examined++;
+                passKeys++;
+                long bytes = source.usage().applyAsLong(key);
+                if (bytes > 0 && (current.size() < topK || bytes > current.peek().bytes())) {
+                    current.add(new BigKey(source.label().apply(key), source.type(), bytes));
+                    if (current.size() > topK) {
+                        current.poll();
+                    }
+                }
+            }
+        } catch (Exception e) {
+            System.err.println("[BigKeys] Sampling failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Largest keys of the last completed pass, biggest first; until the first pass completes,
+     * the largest seen so far.
+     */
+    public List<BigKey> getBigKeys() {
+        List<BigKey> result = published;
+        if (result != null) {
+            return result;
+        }
+        synchronized (this) {
+            return sorted(current);
+        }
+    }
+
+    private void startPass() {
+        List<Source> next = new ArrayList<>();
+        for (Namespace namespace : namespaces.all()) {
+            KVStore store = namespace.getStore();
+            next.add(new Source("string", store.keys(), namespace::routingKey, store::memoryUsage));
+        }
+        next.add(new Source("zset", sortedSets.keys(), key -> key, sortedSets::memoryUsage));
+        sources = next;
+        sourceIndex = 0;
+        keys = Collections.emptyIterator();
+        passStart = System.nanoTime();
+        passKeys = 0;
+    }
+
+    private void finishPass() {
+        published = sorted(current);
+        current.clear();
+        lastPassKeys = passKeys;
+        lastPassMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - passStart);
+        passes++;
+    }
+
+    private static List<BigKey> sorted(PriorityQueue<BigKey> heap) {
+        List<BigKey> keys = new ArrayList<>(heap);
+        keys.sort(BY_SIZE.reversed());
+        return List.copyOf(keys);
+    }
+
+    @Override
+    public String toString() {
+        return "bigKeyPasses=" + passes + " bigKeyPassKeys=" + lastPassKeys + " bigKeyPassMs=" + lastPassMs;
+    }
+
+    /**
+     * A key and its estimated size; non-default namespaces report keys as namespace/key.
+     */
+    public record BigKey(String key, String type, long bytes) {
+    }
+
+    private record Source(String type, Iterable<String> keys, UnaryOperator<String> label, ToLongFunction<String> usage) {
+    }
+}
@@ -0,0 +1,79 @@
+package com.db.memory.hotkeys;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-size Count-Min sketch. Estimates never undercount; overcounts are bounded by
+ * roughly total / width with probability 1 - 2^-depth.
+ *
+ * Rows need independent hashes for that bound to hold, which derivations of one 32-bit
+ * String.hashCode() are not: keys colliding there collide in every row. Each key is hashed
+ * once into two 64-bit values instead, and row i uses h1 + i * h2 (Kirsch and Mitzenmacher).
+ */
+public class CountMinSketch {
+    private final int width;
+    private final int depth;
+    private final AtomicLongArray counters;
+
+    public CountMinSketch(int width, int depth) {
+        this.width = width;
+        this.depth = depth;
+        this.counters = new AtomicLongArray(width * depth);
+    }
+
+    /**
+     * Counts one occurrence of the key and returns its updated estimate.
+     */
+    public long add(String key) {
+        long h1 = hash(key, 0x9E3779B97F4A7C15L);
+        long h2 = hash(key, 0xC2B2AE3D27D4EB4FL);
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            long count = counters.incrementAndGet(index(row, h1, h2));
+            estimate = Math.min(estimate, count);
+        }
+        return estimate;
+    }
+
+    public long estimate(String key) {
+        long h1 = hash(key, 0x9E3779B97F4A7C15L);
+        long h2 = hash(key, 0xC2B2AE3D27D4EB4FL);
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            estimate = Math.min(estimate, counters.get(index(row, h1, h2)));
+        }
+        return estimate;
+    }
+
+    /**
+     * Halves every counter so that old traffic fades and the sketch tracks recent heavy hitters.
+     * Each counter is halved with a compare-and-set, so an add() racing it is never lost.
+     */
+    public void decay() {
+        for (int i = 0; i < counters.length(); i++) {
+            counters.updateAndGet(i, count -> count >>> 1);
+        }
+    }
+
+    private int index(int row, long h1, long h2) {
+        return row * width + (int) Long.remainderUnsigned(h1 + row * h2, width);
+    }
+
+    /**
+     * 64-bit hash of the key's chars from the given seed, finished with the MurmurHash3 mixer so
+     * every input bit reaches every output bit.
+     */
+    private static long hash(String key, long seed) {
+        long h = seed;
+        for (int i = 0; i < key.length(); i++) {
+            h = (h ^ key.charAt(i)) * 0x100000001B3L;
+        }
+        h ^= key.length();
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,92 @@
+package com.db.memory.hotkeys;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * HotKeyDetector finds heavy hitters in the read stream with a Count-Min sketch and keeps the
+ * top-K of them. Counts are halved every window so keys stop being hot once traffic moves on.
+ */
+public class HotKeyDetector {
+    private final CountMinSketch sketch;
+    private final int topK;
+    private final long threshold;
+    private final Map<String, Long> hotKeys = new ConcurrentHashMap<>();
+
+    public HotKeyDetector(int topK, long threshold, long windowMs) {
+        this.sketch = new CountMinSketch(4096, 4);
+        this.topK = topK;
+        this.threshold = threshold;
+
+        ScheduledExecutorService decayer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "hotkey-decay");
+            t.setDaemon(true);
+            return t;
+        });
+        decayer.scheduleAtFixedRate(this::decay, windowMs, windowMs, TimeUnit.MILLISECONDS);
+    }
+
+    public static HotKeyDetector fromSystemProperties() {
+        return new HotKeyDetector(
+                Integer.getInteger("kv.hotkeys.topk", 32),
+                Long.getLong("kv.hotkeys.threshold", 1000),
+                Long.getLong("kv.hotkeys.window.ms", 10000));
+    }
+
+    /**
+     * Records one read of the key and returns whether it is currently a hot key.
+     */
+    public boolean record(String key) {
+        long estimate = sketch.add(key);
+        if (estimate < threshold) {
+            return false;
+        }
+        if (hotKeys.replace(key, estimate) != null) {
+            return true;
+        }
+        return promote(key, estimate);
+    }
+
+    public boolean isHot(String key) {
+        return hotKeys.containsKey(key);
+    }
+
+    /**
+     * Current hot keys with their estimated counts in this window, hottest first.
+     */
+    public List<Map.Entry<String, Long>> getHotKeys() {
+        List<Map.Entry<String, Long>> entries = new ArrayList<>(hotKeys.entrySet());
+        entries.sort(Map.Entry.<String, Long>comparingByValue().reversed());
+        return entries;
+    }
+
+    private synchronized boolean promote(String key, long estimate) {
+        if (hotKeys.size() < topK) {
+            hotKeys.put(key, estimate);
+            return true;
+        }
+        Map.Entry<String, Long> coldest = null;
+        for (Map.Entry<String, Long> entry : hotKeys.entrySet()) {
+            if (coldest == null || entry.getValue() < coldest.getValue()) {
+                coldest = entry;
+            }
+        }
+        if (coldest != null && coldest.getValue() < estimate) {
+            hotKeys.remove(coldest.getKey());
+            hotKeys.put(key, estimate);
+            return true;
+        }
+        return false;
+    }
+
+    private synchronized void decay() {
+        sketch.decay();
+        hotKeys.replaceAll((key, count) -> count >>> 1);
+        hotKeys.values().removeIf(count -> count < threshold);
+    }
+}
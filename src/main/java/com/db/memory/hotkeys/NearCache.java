@@ -0,0 +1,90 @@
+package com.db.memory.hotkeys;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Small LRU of decoded values for hot keys. Entries are invalidated when this node applies a
+ * write for the key (directly or from the replication stream) and expire after a TTL, which bounds
+ * staleness for values fetched from another block's leader.
+ *
+ * A read that fills the cache takes a {@link #stamp} before it reads the value and hands it back to
+ * {@link #put(String, String, long)}. An invalidation for the key in between, from a write that
+ * landed after the read, makes the put a no-op, so a read racing a write can't cache the value the
+ * write replaced.
+ */
+public class NearCache {
+    private static final int STRIPES = 1024;
+
+    private final long ttlMs;
+    private final Map<String, CachedValue> entries;
+    // Invalidations per key stripe, so a fill only has to check its own key's stripe
+    private final long[] invalidations = new long[STRIPES];
+
+    public NearCache(int capacity, long ttlMs) {
+        this.ttlMs = ttlMs;
+        this.entries = new LinkedHashMap<>(capacity * 2, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedValue> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    public static NearCache fromSystemProperties() {
+        return new NearCache(
+                Integer.getInteger("kv.nearcache.size", 256),
+                Long.getLong("kv.nearcache.ttl.ms", 1000));
+    }
+
+    public synchronized String get(String key) {
+        CachedValue cached = entries.get(key);
+        if (cached == null) {
+            return null;
+        }
+        if (System.currentTimeMillis() > cached.expiresAt) {
+            entries.remove(key);
+            return null;
+        }
+        return cached.value;
+    }
+
+    public synchronized void put(String key, String value) {
+        entries.put(key, new CachedValue(value, System.currentTimeMillis() + ttlMs));
+    }
+
+    /**
+     * Taken before reading a value to cache; see {@link #put(String, String, long)}.
+     */
+    public synchronized long stamp(String key) {
+        return invalidations[stripe(key)];
+    }
+
+    /**
+     * Caches the value only if the key has not been invalidated since the stamp was taken.
+     * Returns whether it was cached.
+     */
+    public synchronized boolean put(String key, String value, long stamp) {
+        if (invalidations[stripe(key)] != stamp) {
+            return false;
+        }
+        put(key, value);
+        return true;
+    }
+
+    public synchronized void invalidate(String key) {
+        entries.remove(key);
+        invalidations[stripe(key)]++;
+    }
+
+    private static int stripe(String key) {
+        return Math.floorMod(key.hashCode(), STRIPES);
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private record CachedValue(String value, long expiresAt) {
+    }
+}
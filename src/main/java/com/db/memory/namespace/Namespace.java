@@ -0,0 +1,214 @@
+package com.db.memory.namespace;
+
+import com.db.memory.storage.KVStore;
+import com.db.memory.storage.StoreListener;
+import com.db.memory.util.TokenBucket;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * One tenant's keyspace: its own {@link KVStore} (and so its own storage engine), a memory quota
+ * measured against the engine's footprint, an eviction policy for when the quota is reached, and
+ * a request-rate budget. The counters are cumulative so they can be scraped for charge-back.
+ *
+ * Quotas and evictions are enforced by the leader only; replicas apply the leader's evictions as
+ * ordinary deletes.
+ */
+public class Namespace {
+
+    public enum EvictionPolicy {
+        /** Reject writes that would add data once the quota is reached. */
+        NOEVICTION,
+        /** Evict the least recently used keys until the namespace is back under its quota. */
+        LRU
+    }
+
+    private final String name;
+    private final KVStore store;
+    private final long quotaBytes;
+    private final EvictionPolicy eviction;
+    private final TokenBucket rateBudget;
+    // Access-ordered; only maintained under LRU, guarded by itself
+    private final LinkedHashMap<String, Boolean> recency = new LinkedHashMap<>(16, 0.75f, true);
+    // Bytes granted to writes that have not been applied yet, so they don't all fit the same room
+    private final AtomicLong reservedBytes = new AtomicLong();
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder reads = new LongAdder();
+    private final LongAdder writes = new LongAdder();
+    private final LongAdder throttled = new LongAdder();
+    private final LongAdder quotaRejections = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param quotaBytes zero or less for no quota
+     * @param ratePerSecond zero or less for no rate budget
+     */
+    public Namespace(KVStore store, long quotaBytes, EvictionPolicy eviction, double ratePerSecond, double burst) {
+        this.name = store.getNamespace();
+        this.store = store;
+        this.quotaBytes = quotaBytes;
+        this.eviction = eviction;
+        this.rateBudget = ratePerSecond > 0 ? new TokenBucket(ratePerSecond, Math.max(1, burst)) : null;
+        if (eviction == EvictionPolicy.LRU) {
+            store.addListener(new StoreListener() {
+                @Override
+                public void onPut(String key, byte[] previous, byte[] encoded) {
+                    synchronized (recency) {
+                        recency.put(key, Boolean.TRUE);
+                    }
+                }
+
+                @Override
+                public void onRemove(String key, byte[] previous) {
+                    synchronized (recency) {
+                        recency.remove(key);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Reads kv.ns.&lt;name&gt;.quota.bytes, .eviction (noeviction or lru), .rate and .burst.
+     */
+    public static Namespace fromSystemProperties(KVStore store) {
+        String prefix = "kv.ns." + store.getNamespace() + ".";
+        double rate = Double.parseDouble(System.getProperty(prefix + "rate", "0"));
+        return new Namespace(store,
+                Long.getLong(prefix + "quota.bytes", 0),
+                EvictionPolicy.valueOf(System.getProperty(prefix + "eviction", "noeviction").toUpperCase()),
+                rate,
+                Double.parseDouble(System.getProperty(prefix + "burst", Double.toString(rate))));
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public KVStore getStore() {
+        return store;
+    }
+
+    public boolean isDefault() {
+        return KVStore.DEFAULT_NAMESPACE.equals(name);
+    }
+
+    /**
+     * The key the hash ring places, so the same key in two namespaces can live on different
+     * partitions and one tenant's hot range doesn't pile onto another's.
+     */
+    public String routingKey(String key) {
+        return key == null || isDefault() ? key : name + "/" + key;
+    }
+
+    /**
+     * Counts a client request against the rate budget; false means it should be turned away.
+     */
+    public boolean tryAcquire() {
+        return tryAcquire(1);
+    }
+
+    /**
+     * Counts several requests at once, such as the commands of a batch, all or none.
+     */
+    public boolean tryAcquire(int count) {
+        requests.add(count);
+        if (rateBudget != null && !rateBudget.tryAcquire(count)) {
+            throttled.increment();
+            return false;
+        }
+        return true;
+    }
+
+    public void recordRead(String key) {
+        reads.increment();
+        if (eviction == EvictionPolicy.LRU) {
+            synchronized (recency) {
+                recency.get(key);
+            }
+        }
+    }
+
+    public void recordWrite() {
+        writes.increment();
+    }
+
+    /**
+     * Makes room for a write that may add up to the given bytes and holds them for it, evicting
+     * under LRU if needed. The bytes are taken with a CAS on top of those held by other writes in
+     * flight, so concurrent writers can't all pass the check and overshoot the quota together. A
+     * granted reservation must be given back with {@link #release(long)} once the write has been
+     * applied or has failed. Evicted keys are already removed from the store, even if the write
+     * is rejected after all.
+     */
+    public Reservation reserve(long bytes) {
+        if (quotaBytes <= 0) {
+            return new Reservation(true, List.of());
+        }
+        List<String> evicted = new ArrayList<>();
+        try {
+            while (true) {
+                long reserved = reservedBytes.get();
+                // Live bytes, since evicting can't give back garbage the engine hasn't compacted yet
+                if (store.getEngine().liveBytes() + reserved + bytes <= quotaBytes) {
+                    if (reservedBytes.compareAndSet(reserved, reserved + bytes)) {
+                        return new Reservation(true, evicted);
+                    }
+                    continue;
+                }
+                if (eviction == EvictionPolicy.NOEVICTION) {
+                    quotaRejections.increment();
+                    return new Reservation(false, evicted);
+                }
+                synchronized (recency) {
+                    Iterator<String> eldest = recency.keySet().iterator();
+                    if (!eldest.hasNext()) {
+                        quotaRejections.increment();
+                        return new Reservation(false, evicted);
+                    }
+                    String victim = eldest.next();
+                    eldest.remove();
+                    store.remove(victim);
+                    evicted.add(victim);
+                }
+            }
+        } finally {
+            evictions.add(evicted.size());
+        }
+    }
+
+    /**
+     * Gives back bytes held by {@link #reserve(long)}; by now an applied write counts in live bytes.
+     */
+    public void release(long bytes) {
+        if (quotaBytes > 0) {
+            reservedBytes.addAndGet(-bytes);
+        }
+    }
+
+    public long getQuotaBytes() {
+        return quotaBytes;
+    }
+
+    /**
+     * @param evicted keys removed to make room, which the caller must propagate as deletes
+     */
+    public record Reservation(boolean granted, List<String> evicted) {
+    }
+
+    @Override
+    public String toString() {
+        return "namespace=" + name + " keys=" + store.size()
+                + " footprintBytes=" + store.getEngine().footprintBytes() + " liveBytes=" + store.getEngine().liveBytes()
+                + " quotaBytes=" + quotaBytes
+                + " eviction=" + eviction.name().toLowerCase() + " requests=" + requests.sum()
+                + " reads=" + reads.sum() + " writes=" + writes.sum() + " throttled=" + throttled.sum()
+                + " quotaRejections=" + quotaRejections.sum() + " evictions=" + evictions.sum();
+    }
+}
@@ -0,0 +1,67 @@
+package com.db.memory.namespace;
+
+import com.db.memory.storage.KVStore;
+import com.db.memory.storage.StorageEngine;
+import com.db.memory.storage.ValueCodec;
+import com.db.memory.storage.ValueLog;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * The namespaces this node serves. The default namespace wraps the node's main store; the
+ * others are listed in kv.namespaces and must be configured the same way on every node.
+ */
+public class NamespaceManager {
+    private final Map<String, Namespace> namespaces = new ConcurrentHashMap<>();
+
+    public NamespaceManager(Namespace defaultNamespace) {
+        namespaces.put(defaultNamespace.getName(), defaultNamespace);
+    }
+
+    /**
+     * kv.namespaces is a comma-separated list of extra namespaces; each gets a fresh engine named
+     * by kv.ns.&lt;name&gt;.engine (defaulting to kv.storage.engine) and the limits described in
+     * {@link Namespace#fromSystemProperties(KVStore)}.
+     */
+    public static NamespaceManager fromSystemProperties(KVStore defaultStore) {
+        NamespaceManager manager = new NamespaceManager(Namespace.fromSystemProperties(defaultStore));
+        for (String name : System.getProperty("kv.namespaces", "").split(",")) {
+            name = name.trim();
+            if (name.isEmpty() || KVStore.DEFAULT_NAMESPACE.equals(name)) {
+                continue;
+            }
+            StorageEngine engine = StorageEngine.create(System.getProperty("kv.ns." + name + ".engine",
+                    System.getProperty("kv.storage.engine", "map")));
+            manager.add(Namespace.fromSystemProperties(new KVStore(name, ValueCodec.fromSystemProperties(), engine,
+                    ValueLog.fromSystemProperties(name))));
+            System.out.println("[Namespaces] Serving namespace " + name + " on " + engine.name() + " engine");
+        }
+        return manager;
+    }
+
+    public void add(Namespace namespace) {
+        namespaces.put(namespace.getName(), namespace);
+    }
+
+    /**
+     * The named namespace, the default one for a null name, or null if it isn't configured.
+     */
+    public Namespace get(String name) {
+        return namespaces.get(name == null ? KVStore.DEFAULT_NAMESPACE : name);
+    }
+
+    public Collection<Namespace> all() {
+        return namespaces.values();
+    }
+
+    @Override
+    public String toString() {
+        return namespaces.values().stream()
+                .map(Namespace::toString)
+                .sorted()
+                .collect(Collectors.joining(" | "));
+    }
+}
@@ -0,0 +1,66 @@
+package com.db.memory.pubsub;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * One subscribed connection's event buffer. Writers only ever offer into the bounded queue, so a
+ * consumer that cannot keep up is cut off instead of making writes wait for it.
+ */
+public class Subscriber {
+    private static final String CLOSED = "";
+
+    private final BlockingQueue<String> events;
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private volatile boolean overflowed;
+
+    public Subscriber(int capacity) {
+        this.events = new ArrayBlockingQueue<>(capacity);
+    }
+
+    /**
+     * Queues an event; returns false and closes the subscriber if its buffer is full.
+     */
+    boolean offer(String event) {
+        if (closed.get()) {
+            return false;
+        }
+        if (events.offer(event)) {
+            return true;
+        }
+        overflowed = true;
+        close();
+        return false;
+    }
+
+    /**
+     * Next event, or null on timeout or once the subscriber is closed.
+     */
+    public String next(long timeoutMs) throws InterruptedException {
+        if (closed.get() && events.isEmpty()) {
+            return null;
+        }
+        String event = events.poll(timeoutMs, TimeUnit.MILLISECONDS);
+        return event == null || event == CLOSED ? null : event;
+    }
+
+    public void close() {
+        if (closed.compareAndSet(false, true)) {
+            // Wake the consumer; a full queue is dropped since an overflowed consumer gets nothing more
+            if (overflowed) {
+                events.clear();
+            }
+            events.offer(CLOSED);
+        }
+    }
+
+    public boolean isClosed() {
+        return closed.get();
+    }
+
+    public boolean isOverflowed() {
+        return overflowed;
+    }
+}
@@ -0,0 +1,143 @@
+package com.db.memory.pubsub;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Routes key change events from the write path to subscribers watching exact keys or key
+ * prefixes. Publishing never blocks: each event is offered to every matching subscriber's bounded
+ * buffer, and subscribers whose buffer is full are disconnected.
+ *
+ * Prefix subscriptions are indexed by prefix like exact keys are by key, and the lengths in use
+ * are tracked, so a publish looks up one prefix of the key per distinct length instead of
+ * scanning every subscription.
+ */
+public class SubscriptionManager {
+    private final int bufferSize;
+    private final Map<String, Set<Subscriber>> byKey = new ConcurrentHashMap<>();
+    private final Map<String, Set<Subscriber>> byPrefix = new ConcurrentHashMap<>();
+    private final Map<Integer, Integer> prefixLengths = new ConcurrentHashMap<>();
+    private final Map<Subscriber, Watched> subscribers = new ConcurrentHashMap<>();
+    private final LongAdder published = new LongAdder();
+    private final LongAdder slowDisconnects = new LongAdder();
+
+    public SubscriptionManager(int bufferSize) {
+        this.bufferSize = bufferSize;
+    }
+
+    public static SubscriptionManager fromSystemProperties() {
+        return new SubscriptionManager(Integer.getInteger("kv.watch.buffer", 1024));
+    }
+
+    /**
+     * Registers a new subscriber for the given exact keys and key prefixes.
+     */
+    public Subscriber subscribe(List<String> keys, List<String> prefixes) {
+        Subscriber subscriber = new Subscriber(bufferSize);
+        subscribers.put(subscriber, new Watched(List.copyOf(keys), List.copyOf(prefixes)));
+        for (String key : keys) {
+            byKey.compute(key, (k, set) -> {
+                Set<Subscriber> watchers = set == null ? ConcurrentHashMap.newKeySet() : set;
+                watchers.add(subscriber);
+                return watchers;
+            });
+        }
+        for (String prefix : prefixes) {
+            byPrefix.compute(prefix, (p, set) -> {
+                if (set == null) {
+                    prefixLengths.merge(p.length(), 1, Integer::sum);
+                }
+                Set<Subscriber> watchers = set == null ? ConcurrentHashMap.newKeySet() : set;
+                watchers.add(subscriber);
+                return watchers;
+            });
+        }
+        return subscriber;
+    }
+
+    public void unsubscribe(Subscriber subscriber) {
+        remove(subscriber);
+    }
+
+    private boolean remove(Subscriber subscriber) {
+        subscriber.close();
+        Watched watched = subscribers.remove(subscriber);
+        if (watched == null) {
+            return false;
+        }
+        for (String key : watched.keys()) {
+            byKey.computeIfPresent(key, (k, set) -> set.remove(subscriber) && set.isEmpty() ? null : set);
+        }
+        for (String prefix : watched.prefixes()) {
+            byPrefix.computeIfPresent(prefix, (p, set) -> {
+                if (!set.remove(subscriber) || !set.isEmpty()) {
+                    return set;
+                }
+                prefixLengths.computeIfPresent(p.length(), (length, count) -> count == 1 ? null : count - 1);
+                return null;
+            });
+        }
+        return true;
+    }
+
+    public boolean hasSubscribers() {
+        return !subscribers.isEmpty();
+    }
+
+    public void publishPut(String key, String value) {
+        if (hasSubscribers()) {
+            publish(key, "EVENT PUT " + key + " " + value);
+        }
+    }
+
+    public void publishDelete(String key) {
+        if (hasSubscribers()) {
+            publish(key, "EVENT DELETE " + key);
+        }
+    }
+
+    private void publish(String key, String event) {
+        published.increment();
+        Set<Subscriber> exact = byKey.get(key);
+        if (exact != null) {
+            for (Subscriber subscriber : exact) {
+                deliver(subscriber, event);
+            }
+        }
+        for (int length : prefixLengths.keySet()) {
+            Set<Subscriber> watchers = length <= key.length() ? byPrefix.get(key.substring(0, length)) : null;
+            if (watchers != null) {
+                for (Subscriber subscriber : watchers) {
+                    deliver(subscriber, event);
+                }
+            }
+        }
+    }
+
+    private void deliver(Subscriber subscriber, String event) {
+        if (!subscriber.offer(event) && subscriber.isOverflowed() && remove(subscriber)) {
+            slowDisconnects.increment();
+            System.err.println("[Subscriptions] Disconnected slow subscriber with " + bufferSize + " undelivered events");
+        }
+    }
+
+    public int getSubscriberCount() {
+        return subscribers.size();
+    }
+
+    public long getSlowDisconnects() {
+        return slowDisconnects.sum();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("subscribers=%d events=%d slowDisconnects=%d",
+                subscribers.size(), published.sum(), slowDisconnects.sum());
+    }
+
+    private record Watched(List<String> keys, List<String> prefixes) {
+    }
+}
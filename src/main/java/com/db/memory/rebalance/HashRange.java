@@ -0,0 +1,27 @@
+package com.db.memory.rebalance;
+
+/**
+ * A half-open arc (start, end] of the hash ring whose owner changed from one partition to another.
+ * An arc with start greater than end wraps past the top of the ring; start == end is the whole ring.
+ */
+public record HashRange(int start, int end, String from, String to) {
+
+    public boolean contains(int hash) {
+        if (start < end) {
+            return hash > start && hash <= end;
+        }
+        if (start > end) {
+            return hash > start || hash <= end;
+        }
+        return true;
+    }
+
+    public boolean sameArc(int otherStart, int otherEnd) {
+        return start == otherStart && end == otherEnd;
+    }
+
+    @Override
+    public String toString() {
+        return "(" + start + ", " + end + "] " + from + " -> " + to;
+    }
+}
@@ -0,0 +1,411 @@
+package com.db.memory.rebalance;
+
+import com.db.memory.cluster.ClusterManager;
+import com.db.memory.hashing.HashRing;
+import com.db.memory.namespace.Namespace;
+import com.db.memory.namespace.NamespaceManager;
+import com.db.memory.replication.ReplicationManager;
+import com.db.memory.storage.KVStore;
+import com.db.memory.storage.SortedSetStore;
+import com.db.memory.util.NodeClient;
+import com.db.memory.util.TokenBucket;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * MigrationManager moves data when partitions join or leave the ring. On every change to /leaders
+ * it rebuilds the ring, diffs the old and new snapshots, and the source leader streams each moved
+ * range to its new owner on a pool of throttled transfer workers.
+ *
+ * While a range is in flight the source forwards requests for its keys to the new owner, and the
+ * new owner resolves read misses from the source. Deletes on the new owner are remembered so a
+ * late chunk cannot resurrect them. Sorted sets move whole with the strings; the new owner refuses
+ * sorted-set commands for an incoming range until it has arrived, since a set cannot be merged with
+ * one built up meanwhile the way a string is kept over its older copy. Once every range of a change is acknowledged the source drops
+ * its copies in one pass over its keys. Every namespace moves with its keys placed on the ring as
+ * &lt;namespace&gt;/&lt;key&gt;.
+ *
+ * Local writes hold {@link #localWrites()} from their forwarding check until they are applied, and
+ * a range starts moving under its exclusive side, so a write to it is either in the snapshot that
+ * is transferred or forwarded to the new owner, never neither.
+ */
+public class MigrationManager {
+    private static final int CHUNK_KEYS = 500;
+    private static final int MAX_RETRIES = 3;
+    private static final int BACKOFF_MS = 500;
+
+    private final NamespaceManager namespaces;
+    private final SortedSetStore sortedSets;
+    private final HashRing hashRing;
+    private final ClusterManager clusterManager;
+    private final ReplicationManager replicationManager;
+    private final ExecutorService workers;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final TokenBucket throttle;
+    private final long rebuildDelayMs;
+
+    private final Set<HashRange> outgoing = ConcurrentHashMap.newKeySet();
+    private final Set<HashRange> incoming = ConcurrentHashMap.newKeySet();
+    // By ring key, so the same key deleted in two namespaces is remembered twice
+    private final Set<String> incomingDeletes = ConcurrentHashMap.newKeySet();
+    private final ReadWriteLock localWrites = new ReentrantReadWriteLock();
+    private ScheduledFuture<?> pendingRebuild;
+
+    public MigrationManager(NamespaceManager namespaces, SortedSetStore sortedSets, HashRing hashRing,
+                            ClusterManager clusterManager, ReplicationManager replicationManager) {
+        this.namespaces = namespaces;
+        this.sortedSets = sortedSets;
+        this.hashRing = hashRing;
+        this.clusterManager = clusterManager;
+        this.replicationManager = replicationManager;
+        this.workers = Executors.newFixedThreadPool(Integer.getInteger("kv.migration.workers", 4));
+        long bytesPerSecond = Long.getLong("kv.migration.bytes.per.sec", 32L * 1024 * 1024);
+        this.throttle = new TokenBucket(bytesPerSecond, bytesPerSecond);
+        this.rebuildDelayMs = Long.getLong("kv.ring.rebuild.delay.ms", 2000);
+    }
+
+    public void start() throws Exception {
+        clusterManager.watchLeaders(this::onTopologyChange);
+    }
+
+    /**
+     * Debounced: a leader failover deletes and recreates its znode, which must not look like a
+     * partition leaving and rejoining.
+     */
+    public synchronized void onTopologyChange() {
+        if (pendingRebuild != null) {
+            pendingRebuild.cancel(false);
+        }
+        pendingRebuild = scheduler.schedule(this::rebuild, rebuildDelayMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void rebuild() {
+        try {
+            NavigableMap<Integer, String> before = hashRing.getRing();
+            hashRing.buildHashRing();
+            NavigableMap<Integer, String> after = hashRing.getRing();
+            if (before.equals(after)) {
+                return;
+            }
+
+            String self = clusterManager.getNodeId();
+            List<HashRange> moved = RangeDiff.movedRanges(before, after);
+            List<HashRange> leaving = new ArrayList<>();
+            for (HashRange range : moved) {
+                if (range.to().equals(self)) {
+                    incoming.add(range);
+                } else if (range.from().equals(self)) {
+                    leaving.add(range);
+                }
+            }
+            System.out.println("[Migration] Ring changed: " + moved.size() + " ranges moved, "
+                    + leaving.size() + " leaving " + self);
+            if (!leaving.isEmpty() && clusterManager.isLeader()) {
+                migrateOut(leaving);
+            }
+        } catch (Exception e) {
+            System.err.println("[Migration] Failed to rebuild ring: " + e.getMessage());
+        }
+    }
+
+    private void migrateOut(List<HashRange> ranges) {
+        // Pinned before the ranges start forwarding, with no local write in progress, so the
+        // snapshots have every write that was not forwarded
+        Map<Namespace, KVStore.Snapshot> snapshots = new HashMap<>();
+        Lock exclusive = localWrites.writeLock();
+        exclusive.lock();
+        try {
+            for (Namespace namespace : namespaces.all()) {
+                snapshots.put(namespace, namespace.getStore().snapshot());
+            }
+            outgoing.addAll(ranges);
+        } finally {
+            exclusive.unlock();
+        }
+
+        // One pass over each snapshot buckets every key by the range it leaves in. Sorted sets have
+        // no snapshot, but their writes are forwarded from here on, so the ones left are final
+        Map<HashRange, List<Moving>> keysByRange = new HashMap<>();
+        snapshots.forEach((namespace, snapshot) -> snapshot.forEach((key, encoded) -> {
+            HashRange range = rangeOf(ranges, hashRing.hash(namespace.routingKey(key)));
+            if (range != null) {
+                keysByRange.computeIfAbsent(range, r -> new ArrayList<>()).add(new Moving(namespace, key, false));
+            }
+        }));
+        Namespace defaultNamespace = namespaces.get(null);
+        for (String key : sortedSets.keys()) {
+            HashRange range = rangeOf(ranges, hashRing.hash(key));
+            if (range != null) {
+                keysByRange.computeIfAbsent(range, r -> new ArrayList<>()).add(new Moving(defaultNamespace, key, true));
+            }
+        }
+        Set<HashRange> moved = ConcurrentHashMap.newKeySet();
+        List<CompletableFuture<Void>> transfers = new ArrayList<>();
+        for (HashRange range : ranges) {
+            List<Moving> keys = keysByRange.getOrDefault(range, List.of());
+            transfers.add(CompletableFuture.runAsync(() -> {
+                if (transferWithRetry(range, keys, snapshots)) {
+                    moved.add(range);
+                }
+            }, workers));
+        }
+        CompletableFuture.allOf(transfers.toArray(new CompletableFuture<?>[0])).whenComplete((r, e) -> {
+            snapshots.values().forEach(KVStore.Snapshot::close);
+            finishOutgoing(List.copyOf(moved));
+        });
+    }
+
+    /**
+     * Drops every acknowledged range here and on the replicas, then stops forwarding it.
+     */
+    private void finishOutgoing(List<HashRange> moved) {
+        if (moved.isEmpty()) {
+            return;
+        }
+        try {
+            dropRanges(moved);
+            replicationManager.replicateDropRanges(moved);
+            outgoing.removeAll(moved);
+        } catch (Exception e) {
+            // Still forwarded, so the new owner keeps serving them; the copies here are just garbage
+            System.err.println("[Migration] Failed to drop moved ranges: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Returns true once the new owner has every key of the range and has confirmed MIGRATED.
+     */
+    private boolean transferWithRetry(HashRange range, List<Moving> keys, Map<Namespace, KVStore.Snapshot> snapshots) {
+        for (int attempt = 1; attempt <= MAX_RETRIES; attempt++) {
+            try {
+                String target = clusterManager.getCurrentLeader(range.to());
+                if (target == null) {
+                    throw new IllegalStateException("no leader for " + range.to());
+                }
+                transfer(target, keys, snapshots);
+                String reply = NodeClient.send(target, "REPLICATE MIGRATED " + range.start() + " " + range.end());
+                if (!"OK".equals(reply)) {
+                    throw new IllegalStateException("target did not confirm the range: " + reply);
+                }
+                System.out.println("[Migration] Moved " + keys.size() + " keys in " + range);
+                return true;
+            } catch (Exception e) {
+                System.err.println("[Migration] Attempt " + attempt + " for " + range + " failed: " + e.getMessage());
+                try {
+                    Thread.sleep((long) BACKOFF_MS * attempt);
+                } catch (InterruptedException ignored) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+        }
+        // Keep forwarding for this range; its keys stay here until the next topology change
+        System.err.println("[Migration] Giving up on " + range + " after retries");
+        return false;
+    }
+
+    private void transfer(String target, List<Moving> keys, Map<Namespace, KVStore.Snapshot> snapshots) throws Exception {
+        try (Socket socket = NodeClient.connectToPeer(target);
+             PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream()), false);
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
+            for (int from = 0; from < keys.size(); from += CHUNK_KEYS) {
+                List<String> lines = new ArrayList<>();
+                for (Moving moving : keys.subList(from, Math.min(keys.size(), from + CHUNK_KEYS))) {
+                    String key = moving.key();
+                    if (moving.sortedSet()) {
+                        String pairs = sortedSets.format(key);
+                        if (pairs != null) {
+                            lines.add(key + " ZSET " + pairs);
+                        }
+                        continue;
+                    }
+                    byte[] encoded = snapshots.get(moving.namespace()).getEncoded(key);
+                    String value = Base64.getEncoder().encodeToString(encoded);
+                    lines.add(moving.namespace().isDefault() ? key + " " + value
+                            : key + " NS " + moving.namespace().getName() + " " + value);
+                }
+                String chunk = String.join("\n", lines);
+                throttle.acquire(chunk.length());
+                out.println("REPLICATE MIGRATE " + lines.size());
+                if (!lines.isEmpty()) {
+                    out.println(chunk);
+                }
+                out.flush();
+                String reply = in.readLine();
+                if (reply == null || !reply.startsWith("OK")) {
+                    throw new IllegalStateException("target rejected chunk: " + reply);
+                }
+            }
+        }
+    }
+
+    /**
+     * Applies MIGRATE chunks until the sender closes the connection. The first header has already
+     * been read by the caller. Each line is "key base64" for a string, "key NS name base64" for a
+     * string in another namespace or "key ZSET score member ..." for a sorted set. Keys written or
+     * deleted on this node in the meantime win over migrated values.
+     */
+    public void receive(BufferedReader reader, PrintWriter writer, int firstCount, boolean forwardToReplicas) throws Exception {
+        int count = firstCount;
+        while (true) {
+            List<String> lines = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                String line = reader.readLine();
+                if (line == null) {
+                    return;
+                }
+                lines.add(line);
+                String[] parts = line.split(" ");
+                String key = parts[0];
+                boolean sortedSet = parts.length > 2 && "ZSET".equals(parts[1]);
+                Namespace namespace = !sortedSet && parts.length == 4 && "NS".equals(parts[1])
+                        ? namespaces.get(parts[2]) : namespaces.get(null);
+                if (namespace == null || incomingDeletes.contains(namespace.routingKey(key))) {
+                    continue;
+                }
+                KVStore store = namespace.getStore();
+                if (sortedSet) {
+                    if (store.getEncoded(key) == null) {
+                        sortedSets.putIfAbsent(key, SortedSetStore.parse(parts, 2));
+                    }
+                } else if (!namespace.isDefault() || sortedSets.get(key) == null) {
+                    store.putEncodedIfAbsent(key, Base64.getDecoder().decode(parts[parts.length - 1]));
+                }
+            }
+            if (forwardToReplicas && !lines.isEmpty()) {
+                replicationManager.replicateMigrationChunk(lines);
+            }
+            writer.println("OK " + count);
+
+            String header = reader.readLine();
+            if (header == null) {
+                return;
+            }
+            String[] parts = header.split(" ");
+            count = Integer.parseInt(parts[parts.length - 1]);
+        }
+    }
+
+    public void completeIncoming(int start, int end) {
+        incoming.removeIf(range -> range.sameArc(start, end));
+        if (incoming.isEmpty()) {
+            incomingDeletes.clear();
+        }
+    }
+
+    /**
+     * Deletes the keys of the arcs (start, end], given as start/end pairs. Refuses an arc with
+     * start == end, which {@link HashRange} reads as the whole ring, and returns null without
+     * deleting anything. Returns the dropped ranges otherwise.
+     */
+    public List<HashRange> dropRanges(int[] bounds) {
+        List<HashRange> ranges = new ArrayList<>(bounds.length / 2);
+        for (int i = 0; i + 1 < bounds.length; i += 2) {
+            if (bounds[i] == bounds[i + 1]) {
+                return null;
+            }
+            ranges.add(new HashRange(bounds[i], bounds[i + 1], "", ""));
+        }
+        dropRanges(ranges);
+        return ranges;
+    }
+
+    /**
+     * One pass over the keys, hashing each once and testing it against every range.
+     */
+    private void dropRanges(List<HashRange> ranges) {
+        for (Namespace namespace : namespaces.all()) {
+            KVStore store = namespace.getStore();
+            for (String key : store.keys()) {
+                if (rangeOf(ranges, hashRing.hash(namespace.routingKey(key))) != null) {
+                    store.remove(key);
+                }
+            }
+        }
+        for (String key : sortedSets.keys()) {
+            if (rangeOf(ranges, hashRing.hash(key)) != null) {
+                sortedSets.delete(key);
+            }
+        }
+    }
+
+    /**
+     * Held shared by every local write from its {@link #forwardingTarget} check until it has been
+     * applied, so no write to a range can land here after the range's snapshot was taken.
+     */
+    public Lock localWrites() {
+        return localWrites.readLock();
+    }
+
+    /**
+     * Leader address of the new owner if this key's range is still being moved away from here.
+     */
+    public String forwardingTarget(String key) throws Exception {
+        if (outgoing.isEmpty()) {
+            return null;
+        }
+        HashRange range = rangeOf(outgoing, hashRing.hash(key));
+        return range == null ? null : clusterManager.getCurrentLeader(range.to());
+    }
+
+    /**
+     * Reads a key that has not arrived yet from the partition it is moving in from.
+     */
+    public String fetchIncoming(Namespace namespace, String key) throws Exception {
+        if (incoming.isEmpty()) {
+            return null;
+        }
+        String routingKey = namespace.routingKey(key);
+        HashRange range = rangeOf(incoming, hashRing.hash(routingKey));
+        if (range == null || incomingDeletes.contains(routingKey)) {
+            return null;
+        }
+        String source = clusterManager.getCurrentLeader(range.from());
+        if (source == null) {
+            return null;
+        }
+        String reply = NodeClient.send(source, "REPLICATE "
+                + (namespace.isDefault() ? "" : "NS " + namespace.getName() + " ") + "GET " + key);
+        return reply == null || "NULL".equals(reply) ? null : reply;
+    }
+
+    /**
+     * Whether the key's range is still moving in to this node, so its sorted set may not be here yet.
+     */
+    public boolean isIncoming(String key) {
+        return !incoming.isEmpty() && rangeOf(incoming, hashRing.hash(key)) != null;
+    }
+
+    /**
+     * Remembers a delete by the key's ring key, so a late chunk can't bring the key back.
+     */
+    public void recordDelete(String routingKey) {
+        if (!incoming.isEmpty() && rangeOf(incoming, hashRing.hash(routingKey)) != null) {
+            incomingDeletes.add(routingKey);
+        }
+    }
+
+    private static HashRange rangeOf(Collection<HashRange> ranges, int hash) {
+        for (HashRange range : ranges) {
+            if (range.contains(hash)) {
+                return range;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * A key leaving in a moving range; sorted sets are read live when sent.
+     */
+    private record Moving(Namespace namespace, String key, boolean sortedSet) {
+    }
+}
@@ -0,0 +1,47 @@
+package com.db.memory.rebalance;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeSet;
+
+/**
+ * Computes which arcs of the hash space changed owner between two ring snapshots.
+ */
+public final class RangeDiff {
+
+    private RangeDiff() {
+    }
+
+    public static List<HashRange> movedRanges(NavigableMap<Integer, String> before, NavigableMap<Integer, String> after) {
+        List<HashRange> moved = new ArrayList<>();
+        if (before.isEmpty() || after.isEmpty()) {
+            return moved;
+        }
+
+        // Between two consecutive boundary points of either ring, both rings have a single owner
+        TreeSet<Integer> points = new TreeSet<>(before.keySet());
+        points.addAll(after.keySet());
+        int previous = points.last();
+        for (int point : points) {
+            String from = owner(before, point);
+            String to = owner(after, point);
+            if (!from.equals(to)) {
+                HashRange last = moved.isEmpty() ? null : moved.get(moved.size() - 1);
+                if (last != null && last.end() == previous && last.from().equals(from) && last.to().equals(to)) {
+                    moved.set(moved.size() - 1, new HashRange(last.start(), point, from, to));
+                } else {
+                    moved.add(new HashRange(previous, point, from, to));
+                }
+            }
+            previous = point;
+        }
+        return moved;
+    }
+
+    private static String owner(NavigableMap<Integer, String> ring, int point) {
+        Map.Entry<Integer, String> entry = ring.ceilingEntry(point);
+        return entry == null ? ring.firstEntry().getValue() : entry.getValue();
+    }
+}
@@ -0,0 +1,190 @@
+package com.db.memory.replication;
+
+import com.db.memory.tracing.ReplicationEvent;
+import com.db.memory.util.NodeClient;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * One ordered connection from this chain member to each successor it forwards to. Writes go out
+ * on it in the order they are forwarded and the successor answers them in that order, so every
+ * hop applies a key's writes in the order its predecessor did; separate connections per write
+ * could overtake each other and leave a member with an older value.
+ *
+ * The link opens with "REPLICATE CHAIN" and then carries records, each a line with the number of
+ * lines in the write followed by the write itself. Writes are pipelined: a forward returns as soon
+ * as its record is sent, and completes when the successor's answer for it arrives.
+ */
+public class ChainLinks {
+    private final String owner;
+    private final int ackTimeoutMs;
+    private final Map<String, Link> links = new ConcurrentHashMap<>();
+
+    public ChainLinks(String owner, int ackTimeoutMs) {
+        this.owner = owner;
+        this.ackTimeoutMs = ackTimeoutMs;
+    }
+
+    /**
+     * Forwards a write to the first successor that acknowledges it. A successor that can't be
+     * reached, answers anything but an acknowledgement or doesn't answer in time is skipped for
+     * the one after it. Completes normally either way; when no successor took the write it is
+     * left for anti-entropy.
+     */
+    public CompletableFuture<Void> forward(List<String> successors, String command, String description) {
+        return forward(successors, 0, command, description);
+    }
+
+    private CompletableFuture<Void> forward(List<String> successors, int index, String command, String description) {
+        if (index == successors.size()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        String successor = successors.get(index);
+        ReplicationEvent event = new ReplicationEvent();
+        event.begin();
+        return links.computeIfAbsent(successor, Link::new).send(command).handle((reply, error) -> {
+            boolean delivered = error == null && ReplicationManager.isAcknowledgement(reply);
+            event.end();
+            if (event.shouldCommit()) {
+                event.replica = successor;
+                event.operation = description;
+                event.bytes = command.length();
+                event.attempts = 1;
+                event.delivered = delivered;
+                event.commit();
+            }
+            if (delivered) {
+                return CompletableFuture.<Void>completedFuture(null);
+            }
+            System.err.println("[" + owner + "] Chain successor " + successor + " failed ("
+                    + (error == null ? reply : error.getMessage()) + "), skipping it for " + description);
+            return forward(successors, index + 1, command, description);
+        }).thenCompose(next -> next);
+    }
+
+    public void close() {
+        for (Link link : links.values()) {
+            link.close();
+        }
+    }
+
+    private final class Link {
+        private final String address;
+        private final ArrayDeque<CompletableFuture<String>> pending = new ArrayDeque<>();
+        private Socket socket;
+        private PrintWriter out;
+
+        Link(String address) {
+            this.address = address;
+        }
+
+        CompletableFuture<String> send(String command) {
+            CompletableFuture<String> reply = new CompletableFuture<>();
+            Socket current;
+            synchronized (this) {
+                try {
+                    if (socket == null) {
+                        connect();
+                    }
+                    current = socket;
+                    out.print(command.split("\n", -1).length + "\n" + command + "\n");
+                    out.flush();
+                    if (out.checkError()) {
+                        throw new IOException("Connection to " + address + " lost");
+                    }
+                    pending.add(reply);
+                } catch (IOException e) {
+                    fail(socket, e);
+                    reply.completeExceptionally(e);
+                    return reply;
+                }
+            }
+            // A successor that stops answering holds up every write behind this one, so the whole
+            // link is dropped and they all move on to the next successor, still in order
+            reply.orTimeout(ackTimeoutMs, TimeUnit.MILLISECONDS).whenComplete((ack, error) -> {
+                if (error instanceof TimeoutException) {
+                    fail(current, new IOException("No answer from " + address + " in " + ackTimeoutMs + "ms"));
+                }
+            });
+            return reply;
+        }
+
+        private void connect() throws IOException {
+            Socket opened = NodeClient.connectToPeer(address);
+            socket = opened;
+            out = new PrintWriter(new OutputStreamWriter(opened.getOutputStream(), StandardCharsets.UTF_8), false);
+            out.print("REPLICATE CHAIN\n");
+            BufferedReader in = new BufferedReader(new InputStreamReader(opened.getInputStream(), StandardCharsets.UTF_8));
+            Thread reader = new Thread(() -> readAcks(opened, in), "chain-acks-" + address);
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        private void readAcks(Socket current, BufferedReader in) {
+            try {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    CompletableFuture<String> next;
+                    synchronized (this) {
+                        if (socket != current) {
+                            return;
+                        }
+                        next = pending.poll();
+                    }
+                    if (next != null) {
+                        next.complete(line);
+                    }
+                }
+                fail(current, new IOException("Connection closed by " + address));
+            } catch (IOException e) {
+                fail(current, e);
+            }
+        }
+
+        void close() {
+            Socket current;
+            synchronized (this) {
+                current = socket;
+            }
+            fail(current, new IOException("Chain links closed"));
+        }
+
+        /**
+         * Drops the connection if it is still the current one and fails everything waiting on it,
+         * oldest first, so the writes are re-forwarded in their original order.
+         */
+        void fail(Socket current, IOException cause) {
+            List<CompletableFuture<String>> failed;
+            synchronized (this) {
+                if (current == null || socket != current) {
+                    return;
+                }
+                try {
+                    socket.close();
+                } catch (IOException ignored) {
+                }
+                socket = null;
+                out = null;
+                failed = new ArrayList<>(pending);
+                pending.clear();
+            }
+            for (CompletableFuture<String> reply : failed) {
+                reply.completeExceptionally(cause);
+            }
+        }
+    }
+}
@@ -1,65 +1,377 @@
 package com.db.memory.replication;
 
+import com.db.memory.antientropy.AntiEntropyService;
 import com.db.memory.cluster.ClusterManager;
 import com.db.memory.cluster.ClusterManager.NodeInfo;
+import com.db.memory.rebalance.HashRange;
+import com.db.memory.storage.KVStore;
+import com.db.memory.storage.SortedSet;
+import com.db.memory.storage.ValueCodec;
+import com.db.memory.tracing.ReplicationEvent;
+import com.db.memory.util.NodeClient;
 
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
+/**
+ * Sends the leader's writes to the rest of its block. By default the leader fans each write out
+ * to every replica. With kv.replication.mode=chain the block forms a chain instead: the leader
+ * (head) sends to its first live replica only, every member applies a write and passes it on to
+ * its successor before answering, and the tail answers last. A write acknowledged to the client
+ * has therefore reached the tail, which serves the block's consistent reads.
+ *
+ * Each member forwards over one ordered link per successor ({@link ChainLinks}), and the head
+ * applies and forwards writes to the same key one at a time, so every member sees a key's writes
+ * in the head's order. A member that joins, or rejoins with an empty store, takes writes at once
+ * but is only read from after {@link #catchUp()}.
+ */
 public class ReplicationManager {
     private final String nodeId;
     private final ClusterManager clusterManager;
+    private final boolean chained;
+    private final int ackTimeoutMs;
     private static final int MAX_RETRIES = 3;
     private static final int BACKOFF_MS = 500;
+    private static final int ORDER_STRIPES = 1024;
+    private static final int CATCH_UP_PASSES = 3;
+    private static final ThreadLocal<List<CompletableFuture<Void>>> DEFERRED = new ThreadLocal<>();
+    private final ChainLinks links;
+    private final Lock[] orderLocks = new Lock[ORDER_STRIPES];
 
     public ReplicationManager(String nodeId, ClusterManager clusterManager) {
         this.nodeId = nodeId;
         this.clusterManager = clusterManager;
+        this.chained = "chain".equals(System.getProperty("kv.replication.mode", "fanout"));
+        this.ackTimeoutMs = Integer.getInteger("kv.replication.ack.timeout.ms", 5000);
+        this.links = new ChainLinks(nodeId, Integer.getInteger("kv.replication.chain.ack.timeout.ms", 10000));
+        for (int i = 0; i < ORDER_STRIPES; i++) {
+            orderLocks[i] = new ReentrantLock();
+        }
     }
 
-    public void replicatePut(String key, String value) {
-        try {
-            NodeInfo self = clusterManager.getNodeMetadata().get(nodeId);
-            for (String replica : self.replicas) {
-                sendWithRetry(replica, "REPLICATE PUT " + key + " " + value);
+    public boolean isChained() {
+        return chained;
+    }
+
+    /**
+     * This block's chain in order: the leader, then the replicas from its metadata whose chain
+     * znode is alive. Members that have failed drop out as soon as ZooKeeper notices.
+     */
+    public List<String> chain() throws Exception {
+        NodeInfo block = clusterManager.getNodeMetadata().get(nodeId);
+        return chainOrder(clusterManager.getCurrentLeader(nodeId),
+                block == null ? List.of() : block.replicas, clusterManager.getChainMembers());
+    }
+
+    public static List<String> chainOrder(String head, List<String> replicas, Set<String> live) {
+        List<String> chain = new ArrayList<>();
+        if (head != null) {
+            chain.add(head);
+        }
+        for (String replica : replicas) {
+            if (live.contains(replica) && !replica.equals(head)) {
+                chain.add(replica);
+            }
+        }
+        return chain;
+    }
+
+    /**
+     * Where a client read for this block should be served in chain mode: the last member in
+     * chain order that has caught up, or null if that is this node or there is no chain. The
+     * head always holds every acknowledged write; a member that has not caught up may not.
+     */
+    public String chainReadTarget() throws Exception {
+        String head = clusterManager.getCurrentLeader(nodeId);
+        Set<String> readers = clusterManager.getChainReaders();
+        List<String> chain = chain();
+        for (int i = chain.size() - 1; i >= 0; i--) {
+            String member = chain.get(i);
+            if (member.equals(head) || readers.contains(member)) {
+                return member.equals(clusterManager.getNodeAddress()) ? null : member;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Chain mode, on a member that has just joined: asks the head to repair this node until its
+     * data matches, then marks it caught up so reads may be routed to it. It has been receiving
+     * the block's writes since it joined, so once a repair pass finds nothing left to fix it holds
+     * every write the block has acknowledged. Retries until that happens.
+     */
+    public void catchUp() {
+        while (true) {
+            try {
+                String head = clusterManager.getCurrentLeader(nodeId);
+                if (clusterManager.getNodeAddress().equals(head) || (head != null
+                        && "OK".equals(NodeClient.send(head, "REPLICATE CATCHUP " + clusterManager.getNodeAddress())))) {
+                    clusterManager.markCaughtUp();
+                    return;
+                }
+            } catch (Exception e) {
+                System.err.println("[" + nodeId + "] Catching up with the chain failed: " + e.getMessage());
             }
+            try {
+                Thread.sleep(BACKOFF_MS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Head side of {@link #catchUp()}: repairs a member of this block until its Merkle root
+     * matches, allowing a few passes since writes keep arriving meanwhile.
+     */
+    public boolean repairMember(String member, AntiEntropyService antiEntropy) throws Exception {
+        NodeInfo block = clusterManager.getNodeMetadata().get(nodeId);
+        return chained && clusterManager.isLeader() && block != null && block.replicas.contains(member)
+                && antiEntropy.converge(member, CATCH_UP_PASSES);
+    }
+
+    /**
+     * Chain mode, on the head: locks that a client write must hold from applying itself until it
+     * is acknowledged, one per stripe its keys fall in, in stripe order. Two writes to the same
+     * key can then not be forwarded in the opposite order to the one they were applied in.
+     * Outside chain mode there is nothing to order and the list is empty.
+     */
+    public List<Lock> orderLocks(Collection<String> keys) {
+        if (!chained) {
+            return List.of();
+        }
+        TreeMap<Integer, Lock> stripes = new TreeMap<>();
+        for (String key : keys) {
+            int stripe = Math.floorMod(key.hashCode(), ORDER_STRIPES);
+            stripes.put(stripe, orderLocks[stripe]);
+        }
+        return List.copyOf(stripes.values());
+    }
+
+    /**
+     * Chain mode, on a member: applies one write that arrived down the chain, collecting the
+     * forwards it makes instead of waiting on them, so the next write can be applied while this
+     * one is still travelling. The reply completes once every forward has been acknowledged.
+     */
+    public CompletableFuture<String> applyFromChain(Callable<String> apply) {
+        List<CompletableFuture<Void>> forwards = new ArrayList<>();
+        DEFERRED.set(forwards);
+        String reply;
+        try {
+            reply = apply.call();
         } catch (Exception e) {
-            e.printStackTrace();
-            System.err.println("[" + nodeId + "] Failed to replicate PUT: " + e.getMessage());
+            reply = "ERROR: " + e.getMessage();
+        } finally {
+            DEFERRED.remove();
         }
+        String result = reply;
+        return CompletableFuture.allOf(forwards.toArray(new CompletableFuture<?>[0])).thenApply(done -> result);
+    }
+
+    /**
+     * Ships the value exactly as the leader stored it. Compressed values travel as base64 under
+     * PUTZ so replicas store the same bytes without recompressing; small values stay readable.
+     */
+    public void replicatePut(String key, byte[] encoded) {
+        replicatePut(KVStore.DEFAULT_NAMESPACE, key, encoded);
+    }
+
+    public void replicatePut(String namespace, String key, byte[] encoded) {
+        String command = ValueCodec.isCompressed(encoded)
+                ? prefix(namespace) + "PUTZ " + key + " " + Base64.getEncoder().encodeToString(encoded)
+                : prefix(namespace) + "PUT " + key + " " + ValueCodec.rawString(encoded);
+        replicate(command, "PUT");
     }
 
     public void replicateDelete(String key) {
+        replicateDelete(KVStore.DEFAULT_NAMESPACE, key);
+    }
+
+    public void replicateDelete(String namespace, String key) {
+        replicate(prefix(namespace) + "DELETE " + key, "DELETE");
+    }
+
+    /**
+     * Writes outside the default namespace carry it as NS &lt;name&gt; right after REPLICATE.
+     */
+    private static String prefix(String namespace) {
+        return KVStore.DEFAULT_NAMESPACE.equals(namespace) ? "REPLICATE " : "REPLICATE NS " + namespace + " ";
+    }
+
+    /**
+     * Ships an atomic batch as one record so replicas apply it in a single step too. Every value
+     * travels base64-encoded exactly as stored; a null encoding is a delete.
+     */
+    public void replicateBatch(List<String> keys, List<byte[]> encoded) {
+        StringBuilder command = new StringBuilder("REPLICATE BATCH " + keys.size());
+        for (int i = 0; i < keys.size(); i++) {
+            command.append('\n');
+            if (encoded.get(i) == null) {
+                command.append("DELETE ").append(keys.get(i));
+            } else {
+                command.append("PUTZ ").append(keys.get(i)).append(' ')
+                        .append(Base64.getEncoder().encodeToString(encoded.get(i)));
+            }
+        }
+        replicate(command.toString(), "BATCH");
+    }
+
+    /**
+     * Ships only the sorted-set members that changed, never the whole set.
+     */
+    public void replicateZAdd(String key, List<SortedSet.Entry> entries) {
+        StringBuilder command = new StringBuilder("REPLICATE ZADD " + key);
+        for (SortedSet.Entry entry : entries) {
+            command.append(' ').append(SortedSet.formatScore(entry.score())).append(' ').append(entry.member());
+        }
+        replicate(command.toString(), "ZADD");
+    }
+
+    public void replicateZRem(String key, List<String> members) {
+        replicate("REPLICATE ZREM " + key + " " + String.join(" ", members), "ZREM");
+    }
+
+    /**
+     * Forwards a chunk of migrated entries (one "key base64" line each) as a single frame.
+     */
+    public void replicateMigrationChunk(List<String> lines) {
+        replicate("REPLICATE MIGRATE " + lines.size() + "\n" + String.join("\n", lines), "MIGRATE chunk");
+    }
+
+    /**
+     * Forwards a bulk-load chunk (one "key base64" line each) exactly as the leader received it.
+     */
+    public void replicateBulkChunk(List<String> lines) {
+        replicate("REPLICATE BULK " + lines.size() + "\n" + String.join("\n", lines), "BULK chunk");
+    }
+
+    /**
+     * Has the replicas drop all the ranges in one pass over their keys.
+     */
+    public void replicateDropRanges(List<HashRange> ranges) {
+        StringBuilder command = new StringBuilder("REPLICATE DROPRANGE");
+        for (HashRange range : ranges) {
+            command.append(' ').append(range.start()).append(' ').append(range.end());
+        }
+        replicate(command.toString(), "DROPRANGE");
+    }
+
+    private void replicate(String command, String description) {
         try {
+            if (chained) {
+                CompletableFuture<Void> forwarded = passDownChain(command, description);
+                List<CompletableFuture<Void>> deferred = DEFERRED.get();
+                if (deferred != null) {
+                    deferred.add(forwarded);
+                } else {
+                    forwarded.join();
+                }
+                return;
+            }
             NodeInfo self = clusterManager.getNodeMetadata().get(nodeId);
             for (String replica : self.replicas) {
-                sendWithRetry(replica, "REPLICATE DELETE " + key);
+                sendWithRetry(replica, command, description, MAX_RETRIES);
             }
         } catch (Exception e) {
-            System.err.println("[" + nodeId + "] Failed to replicate DELETE: " + e.getMessage());
+            System.err.println("[" + nodeId + "] Failed to replicate " + description + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Sends the write to this node's successor, completing on its answer, which only comes once
+     * the rest of the chain has applied it. A successor that can't be reached or doesn't answer is
+     * skipped for the one after it without waiting for ZooKeeper to drop it; every replicated
+     * write is idempotent, so a member that did apply it before failing to answer is harmless.
+     * Members skipped this way are brought back in line by anti-entropy.
+     */
+    private CompletableFuture<Void> passDownChain(String command, String description) throws Exception {
+        List<String> chain = chain();
+        int self = chain.indexOf(clusterManager.getNodeAddress());
+        if (self < 0) {
+            return CompletableFuture.completedFuture(null);
         }
+        return links.forward(chain.subList(self + 1, chain.size()), command, description);
     }
 
-    private void sendWithRetry(String replica, String command) {
+    private boolean sendWithRetry(String replica, String command, String description, int attempts) {
+        ReplicationEvent event = new ReplicationEvent();
+        event.begin();
+        try {
+            event.delivered = send(replica, command, event, attempts);
+            return event.delivered;
+        } finally {
+            event.end();
+            if (event.shouldCommit()) {
+                event.replica = replica;
+                event.operation = description;
+                event.bytes = command.length();
+                event.commit();
+            }
+        }
+    }
+
+    /**
+     * Sends the write and waits for the replica's answer; anything but an acknowledgement, or no
+     * answer in time, is retried like a failed connection.
+     */
+    private boolean send(String replica, String command, ReplicationEvent event, int attempts) {
         int attempt = 0;
-        String[] split = replica.split(":");
-        String host = split[0];
-        int port = Integer.parseInt(split[1]);
-        while (attempt < MAX_RETRIES) {
-            try (Socket socket = new Socket(host, port);
-                 PrintWriter writer = new PrintWriter(new OutputStreamWriter(socket.getOutputStream()), true)) {
+        while (attempt < attempts) {
+            event.attempts = attempt + 1;
+            try (Socket socket = NodeClient.connectToPeer(replica);
+                 PrintWriter writer = new PrintWriter(new OutputStreamWriter(socket.getOutputStream()), true);
+                 BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
+                socket.setSoTimeout(ackTimeoutMs);
                 writer.println(command);
-                return;
+                String ack = reader.readLine();
+                if (isAcknowledgement(ack)) {
+                    return true;
+                }
+                throw new IllegalStateException("no acknowledgement: " + ack);
             } catch (Exception e) {
                 attempt++;
-                System.err.println("[" + nodeId + "] Retry " + attempt + " failed to host " + host + " and port " + port + ": " + e.getMessage());
-                try {
-                    Thread.sleep(BACKOFF_MS);
-                } catch (InterruptedException ignored) {
+                System.err.println("[" + nodeId + "] Retry " + attempt + " failed to " + replica + ": " + e.getMessage());
+                if (attempt < attempts) {
+                    try {
+                        Thread.sleep(BACKOFF_MS);
+                    } catch (InterruptedException ignored) {
+                    }
                 }
             }
         }
-        System.err.println("[" + nodeId + "] Final failure sending to port " + port + " after retries.");
+        System.err.println("[" + nodeId + "] Final failure sending to " + replica + " after retries.");
+        return false;
+    }
+
+    /**
+     * Only an explicit success counts: OK, or OK &lt;n&gt; for chunks. Anything else, BUSY from a
+     * successor's admission control included, means the write was not applied.
+     */
+    public static boolean isAcknowledgement(String reply) {
+        if ("OK".equals(reply)) {
+            return true;
+        }
+        if (reply == null || !reply.startsWith("OK ") || reply.length() == 3) {
+            return false;
+        }
+        for (int i = 3; i < reply.length(); i++) {
+            if (!Character.isDigit(reply.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
     }
 }
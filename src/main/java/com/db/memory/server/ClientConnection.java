@@ -0,0 +1,399 @@
+package com.db.memory.server;
+
+import com.db.memory.storage.KVStore;
+import com.db.memory.storage.ValueCodec;
+import com.db.memory.tracing.RequestTrace;
+import com.db.memory.tracing.Stage;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.io.SequenceInputStream;
+import java.io.Writer;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Request-scoped I/O for a client connection. Each worker thread owns one instance and rebinds it
+ * to every connection it serves, so the request line is read into the same buffer and replies are
+ * encoded into the same buffer every time, instead of allocating a reader, a writer and their
+ * decoders per connection.
+ *
+ * The request line is tokenized in place: tokens are offsets into the read buffer, command names
+ * resolve to shared constants, and only the tokens a command asks for become Strings. Replies are
+ * UTF-8-encoded straight into the write buffer, and stored values are copied or decompressed into
+ * it without becoming Strings at all, so a GET hit allocates nothing beyond its key. Commands that
+ * read further lines (MULTI, BATCH, MIGRATE, ...) get an ordinary {@link BufferedReader} that picks
+ * up right after the request line.
+ */
+public final class ClientConnection {
+    private static final ThreadLocal<ClientConnection> POOL = ThreadLocal.withInitial(ClientConnection::new);
+    private static final int BUFFER_BYTES = 8 * 1024;
+    // A worker drops a buffer grown for one large request rather than holding on to it
+    private static final int MAX_RETAINED_BYTES = 64 * 1024;
+    private static final String[] COMMANDS = {
+            "REPLICATE", "NS", "GET", "PUT", "PUTZ", "DELETE", "INCR", "DECR", "CAS", "APPEND",
+            "ZADD", "ZREM", "ZRANGE", "ZRANK", "MULTI", "BATCH", "MIGRATE", "LOAD", "BULK", "MIGRATED",
+            "DROPRANGE", "MERKLE", "SYNCMARK", "SYNCLEAF", "CHAIN", "CATCHUP", "ANTIENTROPY", "PING", "SUSPECT", "HANDOVER",
+            "PROMOTE", "WATCH", "SUBSCRIBE", "STATS", "NSSTATS", "HOTKEYS", "MEMORY", "RING"};
+
+    private byte[] in = new byte[BUFFER_BYTES];
+    private ByteBuffer inView = ByteBuffer.wrap(in);
+    private int filled;
+    private int lineLength;
+    private int bodyStart;
+    private int[] tokenStarts = new int[16];
+    private int[] tokenEnds = new int[16];
+    private int tokens;
+    private byte[] scratch = new byte[0];
+
+    private final ReplyWriter replies = new ReplyWriter();
+    private final Replies writer = new Replies(replies);
+    private ReadableByteChannel input;
+    private WritableByteChannel output;
+    private BufferedReader reader;
+    private RequestTrace trace;
+
+    private ClientConnection() {
+    }
+
+    /**
+     * Binds this thread's connection to an accepted socket until {@link #close()}.
+     */
+    public static ClientConnection open(Socket socket, RequestTrace trace) throws IOException {
+        if (socket.getChannel() != null) {
+            return open(socket.getChannel(), socket.getChannel(), trace);
+        }
+        return open(Channels.newChannel(socket.getInputStream()), Channels.newChannel(socket.getOutputStream()), trace);
+    }
+
+    public static ClientConnection open(ReadableByteChannel input, WritableByteChannel output, RequestTrace trace) {
+        ClientConnection connection = POOL.get();
+        connection.input = input;
+        connection.output = output;
+        connection.trace = trace;
+        connection.reader = null;
+        connection.filled = 0;
+        connection.tokens = 0;
+        connection.replies.reset();
+        connection.writer.clearError();
+        return connection;
+    }
+
+    /**
+     * Reads and tokenizes the request line; false if the client sent nothing. Tokens are split on
+     * single spaces exactly as {@code line.split(" ")} would.
+     */
+    public boolean readRequest() throws IOException {
+        int scanned = 0;
+        int newline = -1;
+        while (newline < 0) {
+            for (; scanned < filled; scanned++) {
+                if (in[scanned] == '\n') {
+                    newline = scanned;
+                    break;
+                }
+            }
+            if (newline >= 0) {
+                break;
+            }
+            if (filled == in.length) {
+                in = Arrays.copyOf(in, in.length * 2);
+                inView = ByteBuffer.wrap(in);
+            }
+            inView.limit(in.length).position(filled);
+            int read = input.read(inView);
+            if (read < 0) {
+                if (filled == 0) {
+                    return false;
+                }
+                newline = filled;
+            } else {
+                filled += read;
+            }
+        }
+        bodyStart = Math.min(newline + 1, filled);
+        lineLength = newline > 0 && in[newline - 1] == '\r' ? newline - 1 : newline;
+        tokenize();
+        return true;
+    }
+
+    private void tokenize() {
+        tokens = 0;
+        int start = 0;
+        for (int i = 0; i <= lineLength; i++) {
+            if (i == lineLength || in[i] == ' ') {
+                addToken(start, i);
+                start = i + 1;
+            }
+        }
+        // split() keeps a lone empty line but drops trailing empty tokens
+        if (lineLength > 0) {
+            while (tokens > 0 && tokenStarts[tokens - 1] == tokenEnds[tokens - 1]) {
+                tokens--;
+            }
+        }
+    }
+
+    private void addToken(int start, int end) {
+        if (tokens == tokenStarts.length) {
+            tokenStarts = Arrays.copyOf(tokenStarts, tokens * 2);
+            tokenEnds = Arrays.copyOf(tokenEnds, tokens * 2);
+        }
+        tokenStarts[tokens] = start;
+        tokenEnds[tokens] = end;
+        tokens++;
+    }
+
+    public int size() {
+        return tokens;
+    }
+
+    /**
+     * Whether token i is the given upper-case word, ignoring case, compared in place.
+     */
+    public boolean is(int i, String word) {
+        int start = tokenStarts[i];
+        if (tokenEnds[i] - start != word.length()) {
+            return false;
+        }
+        for (int j = 0; j < word.length(); j++) {
+            int b = in[start + j];
+            if ((b >= 'a' && b <= 'z' ? b - ('a' - 'A') : b) != word.charAt(j)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Token i as a command name: the shared upper-case constant for known commands, so resolving
+     * one allocates nothing, or the token as sent for anything else.
+     */
+    public String command(int i) {
+        for (String command : COMMANDS) {
+            if (is(i, command)) {
+                return command;
+            }
+        }
+        return token(i);
+    }
+
+    public String token(int i) {
+        return new String(in, tokenStarts[i], tokenEnds[i] - tokenStarts[i], StandardCharsets.UTF_8);
+    }
+
+    /**
+     * All tokens as Strings, for the few commands that take a variable number of arguments.
+     */
+    public String[] tokens() {
+        String[] parts = new String[tokens];
+        for (int i = 0; i < tokens; i++) {
+            parts[i] = token(i);
+        }
+        return parts;
+    }
+
+    public String line() {
+        return new String(in, 0, lineLength, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Lines after the request line, for commands that stream their payload.
+     */
+    public BufferedReader reader() {
+        if (reader == null) {
+            InputStream rest = Channels.newInputStream(input);
+            if (bodyStart < filled) {
+                rest = new SequenceInputStream(new ByteArrayInputStream(in, bodyStart, filled - bodyStart), rest);
+            }
+            reader = new BufferedReader(new InputStreamReader(rest, StandardCharsets.UTF_8));
+        }
+        return reader;
+    }
+
+    /**
+     * The reply writer. Every reply ends with println(), which is where the socket write happens.
+     */
+    public PrintWriter writer() {
+        return writer;
+    }
+
+    /**
+     * Replies with a value from the store as one line, without decoding it to a String.
+     */
+    public void printValue(KVStore source, byte[] encoded) {
+        writer.printValue(source, encoded);
+    }
+
+    /**
+     * Flushes what is left of the reply and lets go of the connection. The socket itself is the
+     * caller's to close.
+     */
+    public void close() {
+        writer.flush();
+        input = null;
+        output = null;
+        reader = null;
+        trace = null;
+        if (in.length > MAX_RETAINED_BYTES) {
+            in = new byte[BUFFER_BYTES];
+            inView = ByteBuffer.wrap(in);
+        }
+        if (scratch.length > MAX_RETAINED_BYTES) {
+            scratch = new byte[0];
+        }
+    }
+
+    private final class Replies extends PrintWriter {
+        Replies(ReplyWriter out) {
+            super(out, true);
+        }
+
+        @Override
+        public void println() {
+            if (trace != null) {
+                trace.enter(Stage.RESPONSE);
+            }
+            super.println();
+        }
+
+        @Override
+        protected void clearError() {
+            super.clearError();
+        }
+
+        void printValue(KVStore source, byte[] encoded) {
+            synchronized (lock) {
+                try {
+                    replies.writeValue(source, encoded);
+                } catch (IOException e) {
+                    setError();
+                }
+            }
+            println();
+        }
+    }
+
+    /**
+     * Encodes characters as UTF-8 into a fixed buffer that is written to the channel whenever it
+     * fills up and on every flush, so a reply of any size goes out without growing it.
+     */
+    private final class ReplyWriter extends Writer {
+        private final byte[] out = new byte[BUFFER_BYTES];
+        private final ByteBuffer outView = ByteBuffer.wrap(out);
+        private int count;
+        private char highSurrogate;
+
+        void reset() {
+            count = 0;
+            highSurrogate = 0;
+        }
+
+        @Override
+        public void write(int c) throws IOException {
+            encode((char) c);
+        }
+
+        @Override
+        public void write(char[] chars, int off, int len) throws IOException {
+            for (int i = off; i < off + len; i++) {
+                encode(chars[i]);
+            }
+        }
+
+        @Override
+        public void write(String s, int off, int len) throws IOException {
+            for (int i = off; i < off + len; i++) {
+                encode(s.charAt(i));
+            }
+        }
+
+        private void encode(char c) throws IOException {
+            if (count > out.length - 4) {
+                drain();
+            }
+            if (highSurrogate != 0) {
+                char high = highSurrogate;
+                highSurrogate = 0;
+                if (Character.isLowSurrogate(c)) {
+                    int codePoint = Character.toCodePoint(high, c);
+                    out[count++] = (byte) (0xF0 | codePoint >> 18);
+                    out[count++] = (byte) (0x80 | codePoint >> 12 & 0x3F);
+                    out[count++] = (byte) (0x80 | codePoint >> 6 & 0x3F);
+                    out[count++] = (byte) (0x80 | codePoint & 0x3F);
+                    return;
+                }
+                // An unpaired surrogate becomes '?', as String.getBytes would make it
+                out[count++] = '?';
+                encode(c);
+                return;
+            }
+            if (c < 0x80) {
+                out[count++] = (byte) c;
+            } else if (c < 0x800) {
+                out[count++] = (byte) (0xC0 | c >> 6);
+                out[count++] = (byte) (0x80 | c & 0x3F);
+            } else if (Character.isHighSurrogate(c)) {
+                highSurrogate = c;
+            } else if (Character.isLowSurrogate(c)) {
+                out[count++] = '?';
+            } else {
+                out[count++] = (byte) (0xE0 | c >> 12);
+                out[count++] = (byte) (0x80 | c >> 6 & 0x3F);
+                out[count++] = (byte) (0x80 | c & 0x3F);
+            }
+        }
+
+        void writeValue(KVStore source, byte[] encoded) throws IOException {
+            int length = ValueCodec.rawLength(encoded);
+            if (length > out.length - count) {
+                drain();
+            }
+            if (length <= out.length) {
+                count += source.decodeInto(encoded, out, count);
+                return;
+            }
+            if (scratch.length < length) {
+                scratch = new byte[length];
+            }
+            source.decodeInto(encoded, scratch, 0);
+            send(ByteBuffer.wrap(scratch, 0, length));
+        }
+
+        private void drain() throws IOException {
+            outView.limit(count).position(0);
+            send(outView);
+            count = 0;
+        }
+
+        private void send(ByteBuffer bytes) throws IOException {
+            if (output == null) {
+                throw new IOException("Connection is closed");
+            }
+            while (bytes.hasRemaining()) {
+                output.write(bytes);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (count > 0) {
+                drain();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+}
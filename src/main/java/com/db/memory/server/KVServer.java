@@ -1,93 +1,1332 @@
 package com.db.memory.server;
 
+import com.db.memory.admission.AdmissionController;
+import com.db.memory.antientropy.AntiEntropyService;
+import com.db.memory.bulkload.BulkLoader;
+import com.db.memory.cache.BackingStoreCache;
 import com.db.memory.cluster.ClusterManager;
+import com.db.memory.failover.LeaderFailureDetector;
+import com.db.memory.handover.LeaderHandover;
 import com.db.memory.hashing.HashRing;
+import com.db.memory.hotkeys.BigKeySampler;
+import com.db.memory.hotkeys.HotKeyDetector;
+import com.db.memory.hotkeys.NearCache;
+import com.db.memory.namespace.Namespace;
+import com.db.memory.namespace.NamespaceManager;
+import com.db.memory.pubsub.Subscriber;
+import com.db.memory.pubsub.SubscriptionManager;
+import com.db.memory.rebalance.HashRange;
+import com.db.memory.rebalance.MigrationManager;
 import com.db.memory.replication.ReplicationManager;
+import com.db.memory.storage.KVStore;
+import com.db.memory.storage.Keyspace;
+import com.db.memory.storage.SortedSet;
+import com.db.memory.storage.SortedSetStore;
+import com.db.memory.tracing.RequestTrace;
+import com.db.memory.tracing.Stage;
+import com.db.memory.util.NodeClient;
+import org.apache.zookeeper.KeeperException;
 
 import java.io.BufferedReader;
-import java.io.InputStreamReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.PrintWriter;
-import java.net.ServerSocket;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.stream.Collectors;
 
 public class KVServer implements Runnable {
     private final int port;
-    private final Map<String, String> store;
+    private final KVStore store;
     private final ReplicationManager replicationManager;
     private final ClusterManager clusterManager;
     private final HashRing hashRing;
+    private final LeaderFailureDetector failureDetector;
+    private final HotKeyDetector hotKeys = HotKeyDetector.fromSystemProperties();
+    private final NearCache nearCache = NearCache.fromSystemProperties();
+    private final SubscriptionManager subscriptions = SubscriptionManager.fromSystemProperties();
+    private final AdmissionController admission = AdmissionController.fromSystemProperties();
+    private final SortedSetStore sortedSets = new SortedSetStore();
+    private final Keyspace keyspace;
+    private final MigrationManager migrationManager;
+    private final AntiEntropyService antiEntropy;
+    private final LeaderHandover handover;
+    private final NamespaceManager namespaces;
+    private final BulkLoader bulkLoader;
+    private final BackingStoreCache backingCache;
+    private final BigKeySampler bigKeys;
+    private final int maxBatchCommands = Integer.getInteger("kv.multi.max.commands", 1000);
+    private final AdmissionController peerAdmission = AdmissionController.forPeers();
+    private final ExecutorService subscriberThreads = Executors.newCachedThreadPool(named("kv-subscriber-"));
+    private final Semaphore subscriberSlots = new Semaphore(Integer.getInteger("kv.watch.max.subscribers", 1024));
 
-    public KVServer(int port, Map<String, String> store, ReplicationManager replicationManager,
-                    ClusterManager clusterManager, HashRing hashRing) {
+    public KVServer(int port, KVStore store, ReplicationManager replicationManager, ClusterManager clusterManager,
+                    HashRing hashRing, LeaderFailureDetector failureDetector) throws ReflectiveOperationException {
         this.port = port;
         this.store = store;
         this.replicationManager = replicationManager;
         this.clusterManager = clusterManager;
         this.hashRing = hashRing;
+        this.failureDetector = failureDetector;
+        this.keyspace = new Keyspace(store, sortedSets);
+        this.namespaces = NamespaceManager.fromSystemProperties(store);
+        this.migrationManager = new MigrationManager(namespaces, sortedSets, hashRing, clusterManager, replicationManager);
+        this.antiEntropy = new AntiEntropyService(namespaces, sortedSets, clusterManager);
+        this.handover = new LeaderHandover(clusterManager, antiEntropy);
+        this.bulkLoader = new BulkLoader(store, hashRing, clusterManager, replicationManager, migrationManager, handover);
+        this.backingCache = BackingStoreCache.fromSystemProperties();
+        this.bigKeys = BigKeySampler.fromSystemProperties(namespaces, sortedSets);
     }
 
     @Override
     public void run() {
-        try (ServerSocket serverSocket = new ServerSocket(port)) {
+        // Connections are channels underneath, so large logged values can be sent with transferTo
+        try (ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+            serverChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            serverChannel.bind(new InetSocketAddress(port));
+            migrationManager.start();
+            antiEntropy.start();
+            if (replicationManager.isChained()) {
+                Thread catchUp = new Thread(replicationManager::catchUp, "chain-catch-up");
+                catchUp.setDaemon(true);
+                catchUp.start();
+            }
+            Thread peerAcceptor = new Thread(this::acceptPeers, "kv-peer-acceptor");
+            peerAcceptor.setDaemon(true);
+            peerAcceptor.start();
             System.out.println("[KVServer] Listening on port " + port);
             while (true) {
-                Socket socket = serverSocket.accept();
-                new Thread(() -> handleClient(socket)).start();
+                admission.admit(serverChannel.accept().socket(), this::handleClient);
             }
         } catch (Exception e) {
             e.printStackTrace();
         }
     }
 
+    /**
+     * Node-to-node traffic has a port and threads of its own, so replication, failure detection
+     * and repair never wait behind clients in the admission queue or get turned away as BUSY.
+     * It is admitted once, by the node the client talked to, so only the peer port's own
+     * connection cap and queue apply here, and only to connections from known nodes.
+     */
+    private void acceptPeers() {
+        int peerPort = NodeClient.peerPort(port);
+        try (ServerSocketChannel peerChannel = ServerSocketChannel.open()) {
+            peerChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            peerChannel.bind(new InetSocketAddress(peerPort));
+            System.out.println("[KVServer] Listening for other nodes on port " + peerPort);
+            while (true) {
+                peerAdmission.admit(peerChannel.accept().socket(), this::handlePeer);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Serves a peer connection, unless it comes from an address no node in the cluster has.
+     */
+    private void handlePeer(Socket socket) {
+        boolean known;
+        try {
+            known = clusterManager.isKnownPeer(socket.getInetAddress());
+        } catch (Exception e) {
+            e.printStackTrace();
+            known = false;
+        }
+        if (!known) {
+            try (socket) {
+                socket.getOutputStream().write("ERROR: Unknown peer\n".getBytes(StandardCharsets.UTF_8));
+            } catch (IOException ignored) {
+                // Nothing more to tell a connection that is already gone
+            }
+            return;
+        }
+        handleRequest(socket, null, null, true);
+    }
+
     private void handleClient(Socket socket) {
-        try (BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-             PrintWriter writer = new PrintWriter(socket.getOutputStream(), true)) {
+        handleRequest(socket, null, null, false);
+    }
+
+    /**
+     * Serves one client request from the input channel, replying on the output, exactly as for an
+     * accepted connection. Lets the request path be driven in-process, e.g. by benchmarks.
+     */
+    public void serve(ReadableByteChannel input, WritableByteChannel output) {
+        handleRequest(null, input, output, false);
+    }
 
-            String line = reader.readLine();
-            if (line == null) return;
+    /**
+     * Serves one request, from an accepted socket or, with a null socket, from a write that
+     * arrived down the chain with its reply captured. Node-to-node commands are only accepted from
+     * peers, and client commands only from clients.
+     */
+    private void handleRequest(Socket socket, ReadableByteChannel input, WritableByteChannel output, boolean fromPeer) {
+        boolean admitted = false;
+        long admittedAt = 0;
+        boolean writing = false;
+        boolean handedOff = false;
+        List<Lock> ordered = List.of();
+        HeldLocks applyLocks = new HeldLocks();
+        RequestTrace trace = RequestTrace.begin();
+        ClientConnection connection = null;
+        try {
+            connection = socket != null ? ClientConnection.open(socket, trace) : ClientConnection.open(input, output, trace);
+            if (!connection.readRequest()) return;
+            PrintWriter writer = connection.writer();
+            trace.enter(Stage.PARSE);
 
-            String[] parts = line.split(" ");
-            boolean isReplication = "REPLICATE".equalsIgnoreCase(parts[0]);
+            // Tokens stay in the connection's buffer; only the ones used below become Strings
+            boolean isReplication = connection.size() > 0 && connection.is(0, "REPLICATE");
             int offset = isReplication ? 1 : 0;
-            String command = parts[offset];
-            String key = parts.length > offset + 1 ? parts[offset + 1] : null;
-            String value = parts.length > offset + 2 ? parts[offset + 2] : null;
+            // An optional NS <name> prefix selects a namespace; without it requests use the default one
+            String namespaceName = null;
+            if (connection.size() > offset + 2 && connection.is(offset, "NS")) {
+                namespaceName = connection.token(offset + 1);
+                offset += 2;
+            }
+            if (connection.size() <= offset || isReplication != fromPeer) {
+                writer.println("ERROR: Unknown command");
+                return;
+            }
+            String command = connection.command(offset);
+            String key = connection.size() > offset + 1 ? connection.token(offset + 1) : null;
+            String value = connection.size() > offset + 2 ? connection.token(offset + 2) : null;
+            String extra = connection.size() > offset + 3 ? connection.token(offset + 3) : null;
+            trace.identify(command, key);
 
-            if (!isReplication) {
-                String expectedOwner = hashRing.getTargetNode(key);
+            // Node-to-node traffic and long-lived subscriptions bypass request admission
+            if (!isReplication && !isAdmissionExempt(command)) {
+                trace.enter(Stage.ADMISSION);
+                // A request served without a socket has no client address to rate-limit
+                if (socket != null && !admission.allowClient(socket.getInetAddress())) {
+                    writer.println("BUSY rate limit");
+                    return;
+                }
+                // A batch takes its slot once EXEC arrives, not while the client is still sending it
+                if (!"MULTI".equals(command)) {
+                    if (!admission.tryStartRequest()) {
+                        writer.println("BUSY concurrency limit");
+                        return;
+                    }
+                    admitted = true;
+                    admittedAt = System.nanoTime();
+                }
+            }
+
+            Namespace namespace = namespaces.get(namespaceName);
+            if (namespace == null) {
+                writer.println("ERROR: Unknown namespace " + namespaceName);
+                return;
+            }
+            if (!isReplication && !isAdmissionExempt(command) && !namespace.tryAcquire()) {
+                writer.println("BUSY namespace rate limit");
+                return;
+            }
+            String routingKey = namespace.routingKey(key);
+            // In chain mode replicas pass replicated writes on to their successor too
+            boolean propagate = !isReplication || replicationManager.isChained();
+
+            if (!isReplication && key != null && "GET".equalsIgnoreCase(command) && replicationManager.isChained()
+                    && backingCache == null && clusterManager.getNodeId().equals(hashRing.getTargetNode(routingKey))) {
+                // Only the tail is guaranteed to have every acknowledged write; in cache mode the
+                // head serves reads itself, since only it can load misses
+                String tail = replicationManager.chainReadTarget();
+                String reply = tail == null ? null : NodeClient.send(tail, "REPLICATE "
+                        + (namespace.isDefault() ? "" : "NS " + namespace.getName() + " ") + "GET " + key);
+                if (reply != null) {
+                    writer.println(reply);
+                    return;
+                }
+            }
+
+            if (!isReplication && key != null && (isWriteCommand(command) || "GET".equalsIgnoreCase(command))) {
+                trace.enter(Stage.RING_LOOKUP);
+                // A write checked here and applied locally must land before its range can start moving
+                if (isWriteCommand(command)) {
+                    applyLocks.lock(List.of(migrationManager.localWrites()));
+                }
+                // Keys in a range still being handed off are served by their new owner
+                String newOwner = migrationManager.forwardingTarget(routingKey);
+                if (newOwner != null) {
+                    applyLocks.release();
+                    writer.println(NodeClient.send(newOwner, connection.line()));
+                    return;
+                }
+            }
+            if (!isReplication && key != null && isSortedSetCommand(command) && migrationManager.isIncoming(key)) {
+                writer.println("ERROR: TRYAGAIN Key " + key + " is being migrated");
+                return;
+            }
+
+            if (!isReplication && isWriteCommand(command)) {
+                if (!handover.tryStartWrite()) {
+                    writer.println("ERROR: TRYAGAIN Leadership handover in progress");
+                    return;
+                }
+                writing = true;
+                trace.enter(Stage.RING_LOOKUP);
+                String expectedOwner = hashRing.getTargetNode(routingKey);
+                trace.enter(Stage.LEADER_CHECK);
                 String currentLeader = clusterManager.getCurrentLeader(expectedOwner);
                 boolean isLeader = clusterManager.getNodeAddress().equals(currentLeader);
 
-                if (("PUT".equalsIgnoreCase(command) || "DELETE".equalsIgnoreCase(command)) && !isLeader) {
+                if (!isLeader) {
                     writer.println("ERROR: Node " + clusterManager.getNodeId() + " is not the leader for key " + key);
                     return;
                 }
+                ordered = replicationManager.orderLocks(List.of(routingKey));
+                ordered.forEach(Lock::lock);
+                // Like the migration lock, held only until the local apply, never across replication
+                if (namespace.isDefault()) {
+                    applyLocks.lock(keyspace.locks(List.of(key)));
+                }
+                String wrongType = namespace.isDefault() ? wrongType(command, key) : null;
+                if (wrongType != null) {
+                    writer.println(wrongType);
+                    return;
+                }
+                if (addsData(command) && !reserve(writer, namespace, connection.line().length(), applyLocks)) {
+                    return;
+                }
+                namespace.recordWrite();
+            }
+            if ("GET".equalsIgnoreCase(command) && key != null) {
+                namespace.recordRead(key);
             }
 
+            trace.enter(Stage.STORE);
+            // String commands run against the namespace's store; the near-cache, pub/sub and the
+            // backing store only know the default namespace
+            KVStore target = namespace.getStore();
+            boolean isDefault = namespace.isDefault();
+            if (!isDefault && !isNamespaced(command)) {
+                writer.println("ERROR: " + command.toUpperCase() + " is not supported in namespace " + namespace.getName());
+                return;
+            }
             switch (command.toUpperCase()) {
                 case "PUT" -> {
-                    store.put(key, value);
+                    if (value == null) {
+                        writer.println("ERROR: Missing value for key " + key);
+                        return;
+                    }
+                    if (!isReplication && isDefault && backingCache != null) {
+                        backingCache.written(key, value);
+                    }
+                    byte[] encoded = target.put(key, value);
+                    applyLocks.release();
+                    if (isDefault) {
+                        nearCache.invalidate(key);
+                        subscriptions.publishPut(key, value);
+                    }
+                    if (propagate) {
+                        trace.enter(Stage.REPLICATION);
+                        replicationManager.replicatePut(namespace.getName(), key, encoded);
+                    }
+                    writer.println("OK");
+                }
+                case "PUTZ" -> {
+                    // Compressed values only arrive from a leader, never from clients
                     if (!isReplication) {
-                        replicationManager.replicatePut(key, value);
+                        writer.println("ERROR: Unknown command");
+                        return;
+                    }
+                    byte[] encoded = Base64.getDecoder().decode(value);
+                    target.putEncoded(key, encoded);
+                    if (isDefault) {
+                        nearCache.invalidate(key);
+                        if (subscriptions.hasSubscribers()) {
+                            subscriptions.publishPut(key, target.get(key));
+                        }
+                    }
+                    if (propagate) {
+                        replicationManager.replicatePut(namespace.getName(), key, encoded);
                     }
                     writer.println("OK");
                 }
                 case "GET" -> {
-                    String result = store.getOrDefault(key, "NULL");
-                    writer.println(result);
+                    boolean hot = isDefault && hotKeys.record(key);
+                    if (!hot && sendLogged(target, key, socket, writer, trace)) {
+                        return;
+                    }
+                    String result = hot ? nearCache.get(key) : null;
+                    if (result == null) {
+                        // Taken before the read, so a write that lands after it keeps the value out of the cache
+                        long stamp = hot ? nearCache.stamp(key) : 0;
+                        byte[] encoded = target.getEncoded(key);
+                        if (encoded != null && !hot) {
+                            // Plain hits are copied out of the stored bytes without becoming a String
+                            connection.printValue(target, encoded);
+                            return;
+                        }
+                        result = encoded == null ? null : target.get(key);
+                        if (result == null && !isReplication) {
+                            result = migrationManager.fetchIncoming(namespace, key);
+                        }
+                        if (result == null && isDefault && backingCache != null && leads(key)) {
+                            result = readThrough(key, trace);
+                        }
+                        if (result == null && hot && !isReplication) {
+                            result = fetchFromOwner(key);
+                        }
+                        if (result != null && hot) {
+                            nearCache.put(key, result, stamp);
+                        }
+                    }
+                    writer.println(result == null ? "NULL" : result);
                 }
                 case "DELETE" -> {
-                    store.remove(key);
+                    if (!isReplication && isDefault && backingCache != null) {
+                        backingCache.written(key, null);
+                    }
+                    target.remove(key);
+                    if (isDefault) {
+                        // A key holds a string or a sorted set, and DELETE removes either
+                        sortedSets.delete(key);
+                        nearCache.invalidate(key);
+                        subscriptions.publishDelete(key);
+                    }
+                    migrationManager.recordDelete(routingKey);
+                    if (propagate) {
+                        trace.enter(Stage.REPLICATION);
+                        replicationManager.replicateDelete(namespace.getName(), key);
+                    }
+                    writer.println("OK");
+                }
+                case "INCR", "DECR" -> {
+                    long delta;
+                    try {
+                        delta = value == null ? 1 : Long.parseLong(value);
+                    } catch (NumberFormatException e) {
+                        writer.println("ERROR: Increment is not an integer");
+                        return;
+                    }
+                    boolean decrement = "DECR".equalsIgnoreCase(command);
+                    warm(namespace, key, trace);
+                    KVStore.Update update;
+                    try {
+                        // Subtracted rather than negated, which would overflow for Long.MIN_VALUE
+                        update = target.update(key, current -> increment(current, delta, decrement));
+                    } catch (NumberFormatException | ArithmeticException e) {
+                        writer.println("ERROR: Value for key " + key + " is not an integer or would overflow");
+                        return;
+                    }
+                    applyLocks.release();
+                    applied(namespace, key, update, trace);
+                    writer.println(update.value());
+                }
+                case "CAS" -> {
+                    if (extra == null) {
+                        writer.println("ERROR: Usage CAS <key> <expected|NULL> <new>");
+                        return;
+                    }
+                    String expected = "NULL".equals(value) ? null : value;
+                    warm(namespace, key, trace);
+                    KVStore.Update update = target.compareAndSet(key, expected, extra);
+                    applyLocks.release();
+                    if (update == null) {
+                        String current = target.get(key);
+                        writer.println("CONFLICT " + (current == null ? "NULL" : current));
+                        return;
+                    }
+                    applied(namespace, key, update, trace);
+                    writer.println("OK");
+                }
+                case "APPEND" -> {
+                    if (value == null) {
+                        writer.println("ERROR: Missing value for key " + key);
+                        return;
+                    }
+                    warm(namespace, key, trace);
+                    KVStore.Update update = target.update(key, current -> current == null ? value : current + value);
+                    applyLocks.release();
+                    applied(namespace, key, update, trace);
+                    writer.println(update.value().length());
+                }
+                case "ZADD" -> {
+                    List<SortedSet.Entry> entries = parseScoredMembers(connection.tokens(), offset + 2);
+                    if (entries == null) {
+                        writer.println("ERROR: Usage ZADD <key> <score> <member> [<score> <member> ...]");
+                        return;
+                    }
+                    SortedSetStore.AddResult result = sortedSets.add(key, entries);
+                    applyLocks.release();
+                    if (!isReplication && !result.changed().isEmpty()) {
+                        trace.enter(Stage.REPLICATION);
+                        replicationManager.replicateZAdd(key, result.changed());
+                    } else if (isReplication && propagate) {
+                        replicationManager.replicateZAdd(key, entries);
+                    }
+                    // A chain predecessor only takes an exact OK as an acknowledgement
+                    writer.println(isReplication ? "OK" : Integer.toString(result.added()));
+                }
+                case "ZREM" -> {
+                    if (value == null) {
+                        writer.println("ERROR: Usage ZREM <key> <member> [<member> ...]");
+                        return;
+                    }
+                    String[] parts = connection.tokens();
+                    List<String> members = Arrays.asList(parts).subList(offset + 2, parts.length);
+                    List<String> removed = sortedSets.remove(key, members);
+                    if (!isReplication && !removed.isEmpty()) {
+                        trace.enter(Stage.REPLICATION);
+                        replicationManager.replicateZRem(key, removed);
+                    } else if (isReplication && propagate) {
+                        replicationManager.replicateZRem(key, members);
+                    }
+                    writer.println(isReplication ? "OK" : Integer.toString(removed.size()));
+                }
+                case "ZRANGE" -> {
+                    long start;
+                    long stop;
+                    try {
+                        start = Long.parseLong(value);
+                        stop = Long.parseLong(extra);
+                    } catch (NumberFormatException e) {
+                        writer.println("ERROR: Usage ZRANGE <key> <start> <stop> [WITHSCORES]");
+                        return;
+                    }
+                    boolean withScores = connection.size() > offset + 4 && connection.is(offset + 4, "WITHSCORES");
+                    SortedSet set = sortedSets.get(key);
+                    List<SortedSet.Entry> entries = set == null ? List.of() : set.range(start, stop);
+                    writer.println(entries.isEmpty() ? "EMPTY" : entries.stream()
+                            .map(entry -> withScores ? entry.member() + " " + SortedSet.formatScore(entry.score()) : entry.member())
+                            .collect(Collectors.joining(" ")));
+                }
+                case "ZRANK" -> {
+                    if (value == null) {
+                        writer.println("ERROR: Usage ZRANK <key> <member>");
+                        return;
+                    }
+                    SortedSet set = sortedSets.get(key);
+                    int rank = set == null ? -1 : set.rank(value);
+                    writer.println(rank < 0 ? "NULL" : Integer.toString(rank));
+                }
+                case "MULTI" -> {
+                    if (isReplication) {
+                        writer.println("ERROR: Unknown command");
+                        return;
+                    }
+                    handleMulti(connection.reader(), writer, namespace, trace);
+                }
+                case "BATCH" -> {
                     if (!isReplication) {
-                        replicationManager.replicateDelete(key);
+                        writer.println("ERROR: Unknown command");
+                        return;
+                    }
+                    applyReplicatedBatch(connection.reader(), Integer.parseInt(key));
+                    writer.println("OK");
+                }
+                case "MIGRATE" -> {
+                    // Chunks come from the range's old owner, or from this node's leader passing them on
+                    if (!isReplication) {
+                        writer.println("ERROR: Unknown command");
+                        return;
+                    }
+                    migrationManager.receive(connection.reader(), writer, Integer.parseInt(key),
+                            propagate || clusterManager.isLeader());
+                }
+                case "LOAD" -> {
+                    if (isReplication || key == null) {
+                        writer.println("ERROR: Usage LOAD <path>");
+                        return;
+                    }
+                    writer.println(bulkLoader.load(key));
+                }
+                case "BULK" -> {
+                    // Chunks come from a loading node, addressed to this partition, or from its leader
+                    if (!isReplication) {
+                        writer.println("ERROR: Unknown command");
+                        return;
+                    }
+                    bulkLoader.receive(connection.reader(), writer, Integer.parseInt(key), value == null, nearCache::invalidate);
+                }
+                case "MIGRATED" -> {
+                    if (!isReplication) {
+                        writer.println("ERROR: Unknown command");
+                        return;
+                    }
+                    migrationManager.completeIncoming(Integer.parseInt(key), Integer.parseInt(value));
+                    writer.println("OK");
+                }
+                case "DROPRANGE" -> {
+                    if (!isReplication) {
+                        writer.println("ERROR: Unknown command");
+                        return;
+                    }
+                    // One or more start/end pairs, dropped in a single pass
+                    int[] bounds = new int[connection.size() - offset - 1];
+                    for (int i = 0; i < bounds.length; i++) {
+                        bounds[i] = Integer.parseInt(connection.token(offset + 1 + i));
+                    }
+                    if (bounds.length == 0 || bounds.length % 2 != 0) {
+                        writer.println("ERROR: Usage DROPRANGE <start> <end> [<start> <end> ...]");
+                        return;
+                    }
+                    List<HashRange> dropped = migrationManager.dropRanges(bounds);
+                    if (dropped == null) {
+                        writer.println("ERROR: DROPRANGE needs a range narrower than the whole ring");
+                        return;
+                    }
+                    if (propagate) {
+                        replicationManager.replicateDropRanges(dropped);
                     }
                     writer.println("OK");
                 }
+                case "MERKLE" -> {
+                    if (!isReplication) {
+                        writer.println("ERROR: Unknown command");
+                        return;
+                    }
+                    writer.println(antiEntropy.describe(key, value));
+                }
+                case "SYNCLEAF" -> {
+                    if (!isReplication) {
+                        writer.println("ERROR: Unknown command");
+                        return;
+                    }
+                    writer.println(antiEntropy.applyLeaves(connection.reader(), Long.parseLong(key), Integer.parseInt(value))
+                            ? "OK" : "ERROR: Sync mark " + key + " expired");
+                }
+                case "SYNCMARK" -> {
+                    if (!isReplication) {
+                        writer.println("ERROR: Unknown command");
+                        return;
+                    }
+                    writer.println(antiEntropy.mark());
+                }
+                case "CHAIN" -> {
+                    if (!isReplication) {
+                        writer.println("ERROR: Unknown command");
+                        return;
+                    }
+                    trace.discard();
+                    applyChain(connection.reader(), writer);
+                }
+                case "CATCHUP" -> {
+                    if (!isReplication || key == null) {
+                        writer.println("ERROR: Unknown command");
+                        return;
+                    }
+                    writer.println(replicationManager.repairMember(key, antiEntropy) ? "OK" : "ERROR: TRYAGAIN " + key + " has not caught up");
+                }
+                case "ANTIENTROPY" -> writer.println("REPAIRED " + antiEntropy.runRound());
+                case "PING" -> writer.println("PONG");
+                case "SUSPECT" -> {
+                    if (!isReplication || key == null) {
+                        writer.println("ERROR: Unknown command");
+                        return;
+                    }
+                    writer.println(failureDetector.suspects(key) ? "YES" : "NO");
+                }
+                case "HANDOVER" -> {
+                    if (isReplication) {
+                        writer.println("ERROR: Unknown command");
+                        return;
+                    }
+                    writer.println(handover.handover(key));
+                }
+                case "PROMOTE" -> {
+                    // Sent by a leader handing its leadership to this replica, never by clients
+                    if (!isReplication || value == null) {
+                        writer.println("ERROR: Unknown command");
+                        return;
+                    }
+                    try {
+                        clusterManager.takeOverLeadership(Integer.parseInt(key), Arrays.asList(value.split(",")));
+                        writer.println("OK");
+                    } catch (KeeperException e) {
+                        writer.println("ERROR: " + e.getMessage());
+                    }
+                }
+                case "WATCH", "SUBSCRIBE" -> {
+                    if (isReplication) {
+                        writer.println("ERROR: Unknown command");
+                        return;
+                    }
+                    if (key == null) {
+                        writer.println("ERROR: Usage " + command.toUpperCase() + " <key|prefix> [...]");
+                        return;
+                    }
+                    String[] parts = connection.tokens();
+                    List<String> patterns = Arrays.asList(parts).subList(offset + 1, parts.length);
+                    boolean prefixes = "SUBSCRIBE".equalsIgnoreCase(command);
+                    if (!subscriberSlots.tryAcquire()) {
+                        writer.println("BUSY too many subscribers");
+                        return;
+                    }
+                    trace.discard();
+                    // The subscription moves to a thread of its own and this worker goes back to serving requests
+                    Subscriber subscriber = subscriptions.subscribe(prefixes ? List.of() : patterns, prefixes ? patterns : List.of());
+                    handedOff = true;
+                    subscriberThreads.execute(() -> stream(socket, subscriber));
+                }
+                case "STATS" -> writer.println(store.getCompressionStats() + " " + store.getVersionStats()
+                        + " engine=" + store.getEngine().name() + " footprintBytes=" + store.getEngine().footprintBytes()
+                        + " " + sortedSets + " " + subscriptions + " " + admission + " peers[" + peerAdmission + "]"
+                        + (store.getValueLog() == null ? "" : " " + store.getValueLog())
+                        + (backingCache == null ? "" : " " + backingCache));
+                case "NSSTATS" -> {
+                    Namespace described = key == null ? null : namespaces.get(key);
+                    writer.println(key == null ? namespaces.toString()
+                            : described == null ? "ERROR: Unknown namespace " + key : described.toString());
+                }
+                case "HOTKEYS" -> writer.println(formatHotKeys());
+                case "MEMORY" -> writer.println(memory(namespace, key, value));
+                case "RING" -> writer.println(hashRing.describeDistribution(clusterManager.getPartitionLoads()));
                 default -> writer.println("ERROR: Unknown command");
             }
         } catch (Exception e) {
             e.printStackTrace();
+        } finally {
+            if (connection != null) {
+                connection.close();
+            }
+            try {
+                if (socket != null && !handedOff) {
+                    socket.close();
+                }
+            } catch (IOException ignored) {
+            }
+            applyLocks.release();
+            ordered.forEach(Lock::unlock);
+            if (writing) {
+                handover.finishWrite();
+            }
+            trace.end();
+            if (admitted) {
+                admission.finishRequest(System.nanoTime() - admittedAt);
+            }
         }
     }
+
+    /**
+     * Member side of a chain link: applies the writes its predecessor forwards, one at a time in
+     * the order they arrive, and answers each in that order once its own successors have
+     * acknowledged it. Writes are applied on a thread of their own, which has its own connection
+     * buffers, while this one keeps reading the link.
+     */
+    private void applyChain(BufferedReader reader, PrintWriter writer) throws Exception {
+        ExecutorService applier = Executors.newSingleThreadExecutor(r -> new Thread(r, "chain-apply"));
+        CompletableFuture<Void> answered = CompletableFuture.completedFuture(null);
+        try {
+            String header;
+            while ((header = reader.readLine()) != null) {
+                int lines = Integer.parseInt(header.trim());
+                StringBuilder record = new StringBuilder();
+                for (int i = 0; i < lines; i++) {
+                    String line = reader.readLine();
+                    if (line == null) {
+                        return;
+                    }
+                    record.append(line).append('\n');
+                }
+                byte[] command = record.toString().getBytes(StandardCharsets.UTF_8);
+                CompletableFuture<String> reply = applier.submit(() -> replicationManager.applyFromChain(() -> {
+                    ByteArrayOutputStream out = new ByteArrayOutputStream();
+                    handleRequest(null, Channels.newChannel(new ByteArrayInputStream(command)), Channels.newChannel(out), true);
+                    return out.toString(StandardCharsets.UTF_8).trim();
+                })).get();
+                answered = answered.thenCombine(reply, (previous, ack) -> {
+                    writer.println(ack);
+                    return null;
+                });
+            }
+        } finally {
+            applier.shutdown();
+            answered.join();
+        }
+    }
+
+    /**
+     * A key the leader evicted to keep its namespace under quota; replicas see an ordinary delete.
+     */
+    private void evicted(Namespace namespace, String key) {
+        if (namespace.isDefault()) {
+            nearCache.invalidate(key);
+            subscriptions.publishDelete(key);
+        }
+        migrationManager.recordDelete(namespace.routingKey(key));
+        replicationManager.replicateDelete(namespace.getName(), key);
+    }
+
+    /**
+     * Read-modify-write commands only run on the leader; replicas receive the resulting value
+     * as a plain PUT, never the operation itself.
+     */
+    private void applied(Namespace namespace, String key, KVStore.Update update, RequestTrace trace) {
+        if (namespace.isDefault()) {
+            if (backingCache != null) {
+                backingCache.written(key, update.value());
+            }
+            nearCache.invalidate(key);
+            subscriptions.publishPut(key, update.value());
+        }
+        trace.enter(Stage.REPLICATION);
+        replicationManager.replicatePut(namespace.getName(), key, update.encoded());
+    }
+
+    /**
+     * Cache mode: resolves a miss on this partition's leader from the backing store, installing
+     * the value locally and on the replicas. Replicas never load on their own; they get the
+     * leader's value, so every member of the block agrees on what was loaded.
+     */
+    private String readThrough(String key, RequestTrace trace) throws Exception {
+        trace.enter(Stage.BACKING_STORE);
+        BackingStoreCache.Load load = backingCache.load(key, store::putIfAbsent);
+        if (load.installed() != null) {
+            nearCache.invalidate(key);
+            trace.enter(Stage.REPLICATION);
+            replicationManager.replicatePut(key, load.installed());
+        }
+        return load.value();
+    }
+
+    /**
+     * Cache mode: makes sure a read-modify-write on the leader starts from the backing store's
+     * value rather than from nothing when the key isn't cached.
+     */
+    private void warm(Namespace namespace, String key, RequestTrace trace) throws Exception {
+        if (namespace.isDefault() && backingCache != null && store.getEncoded(key) == null) {
+            readThrough(key, trace);
+            trace.enter(Stage.STORE);
+        }
+    }
+
+    private boolean leads(String key) throws Exception {
+        return clusterManager.getNodeId().equals(hashRing.getTargetNode(key)) && clusterManager.isLeader();
+    }
+
+    /**
+     * Score/member pairs from the given position to the end of the request, or null if there are
+     * none, one is unpaired, or a score is not a number.
+     */
+    private static List<SortedSet.Entry> parseScoredMembers(String[] parts, int from) {
+        if (parts.length <= from || (parts.length - from) % 2 != 0) {
+            return null;
+        }
+        List<SortedSet.Entry> entries = new ArrayList<>((parts.length - from) / 2);
+        for (int i = from; i < parts.length; i += 2) {
+            double score;
+            try {
+                score = Double.parseDouble(parts[i]);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+            if (Double.isNaN(score)) {
+                return null;
+            }
+            entries.add(new SortedSet.Entry(parts[i + 1], score));
+        }
+        return entries;
+    }
+
+    /**
+     * Queues commands until EXEC, then applies them as one atomic batch. Every key must map to the
+     * same partition, which this node must lead. Nothing is applied if the batch is rejected, the
+     * client disconnects before EXEC, or any command fails. Replies with one result per command.
+     *
+     * The batch is admitted when EXEC arrives, so a client slow to send it holds no concurrency
+     * slot, and each of its commands counts against the namespace's rate budget and quota like
+     * the same command sent on its own.
+     */
+    private void handleMulti(BufferedReader reader, PrintWriter writer, Namespace namespace, RequestTrace trace) throws Exception {
+        List<String[]> commands = new ArrayList<>();
+        String line;
+        while ((line = reader.readLine()) != null && !"EXEC".equalsIgnoreCase(line.trim())) {
+            if ("DISCARD".equalsIgnoreCase(line.trim())) {
+                writer.println("OK");
+                return;
+            }
+            if (commands.size() == maxBatchCommands) {
+                writer.println("ERROR: Batch exceeds " + maxBatchCommands + " commands");
+                return;
+            }
+            commands.add(line.trim().split(" "));
+        }
+        if (line == null) {
+            return;
+        }
+
+        trace.enter(Stage.RING_LOOKUP);
+        List<KVStore.BatchOp> ops = new ArrayList<>(commands.size());
+        String partition = null;
+        for (String[] command : commands) {
+            KVStore.BatchOp op = toBatchOp(command);
+            if (op == null) {
+                writer.println("ERROR: Cannot batch " + String.join(" ", command));
+                return;
+            }
+            String owner = hashRing.getTargetNode(op.key());
+            if (partition != null && !partition.equals(owner)) {
+                writer.println("ERROR: CROSSSLOT Keys in a batch must map to the same partition");
+                return;
+            }
+            partition = owner;
+            ops.add(op);
+        }
+        if (ops.isEmpty()) {
+            writer.println("OK");
+            return;
+        }
+        // MULTI itself already counted as one request
+        if (ops.size() > 1 && !namespace.tryAcquire(ops.size() - 1)) {
+            writer.println("BUSY namespace rate limit");
+            return;
+        }
+        trace.enter(Stage.ADMISSION);
+        if (!admission.tryStartRequest()) {
+            writer.println("BUSY concurrency limit");
+            return;
+        }
+        long admittedAt = System.nanoTime();
+        try {
+            if (!handover.tryStartWrite()) {
+                writer.println("ERROR: TRYAGAIN Leadership handover in progress");
+                return;
+            }
+            List<String> keys = ops.stream().map(KVStore.BatchOp::key).toList();
+            HeldLocks applyLocks = new HeldLocks();
+            List<Lock> ordered = List.of();
+            try {
+                // Checked again now that no range can start moving before the batch is applied
+                applyLocks.lock(List.of(migrationManager.localWrites()));
+                for (String key : keys) {
+                    if (migrationManager.forwardingTarget(key) != null) {
+                        writer.println("ERROR: TRYAGAIN Key " + key + " is being migrated");
+                        return;
+                    }
+                }
+                ordered = replicationManager.orderLocks(keys);
+                ordered.forEach(Lock::lock);
+                applyLocks.lock(keyspace.locks(keys));
+                applyMulti(writer, namespace, trace, commands, ops, partition, applyLocks);
+            } finally {
+                applyLocks.release();
+                ordered.forEach(Lock::unlock);
+                handover.finishWrite();
+            }
+        } finally {
+            admission.finishRequest(System.nanoTime() - admittedAt);
+        }
+    }
+
+    private void applyMulti(PrintWriter writer, Namespace namespace, RequestTrace trace, List<String[]> commands,
+                            List<KVStore.BatchOp> ops, String partition, HeldLocks applyLocks) throws Exception {
+        trace.enter(Stage.LEADER_CHECK);
+        if (!clusterManager.getNodeAddress().equals(clusterManager.getCurrentLeader(partition))) {
+            writer.println("ERROR: Node " + clusterManager.getNodeId() + " is not the leader for partition " + partition);
+            return;
+        }
+        for (int i = 0; i < ops.size(); i++) {
+            String wrongType = wrongType(commands.get(i)[0], ops.get(i).key());
+            if (wrongType != null) {
+                writer.println(wrongType);
+                return;
+            }
+        }
+        long bytes = commands.stream().filter(command -> addsData(command[0]))
+                .mapToLong(command -> String.join(" ", command).length()).sum();
+        if (bytes > 0 && !reserve(writer, namespace, bytes, applyLocks)) {
+            return;
+        }
+        for (int i = 0; i < ops.size(); i++) {
+            namespace.recordWrite();
+        }
+
+        trace.enter(Stage.STORE);
+        for (KVStore.BatchOp op : ops) {
+            warm(namespace, op.key(), trace);
+        }
+        List<KVStore.Update> updates;
+        try {
+            updates = store.applyBatch(ops);
+        } catch (NumberFormatException | ArithmeticException e) {
+            writer.println("ERROR: Batch aborted, a value is not an integer or would overflow");
+            return;
+        }
+        for (int i = 0; i < ops.size(); i++) {
+            if (updates.get(i).value() == null) {
+                sortedSets.delete(ops.get(i).key());
+            }
+        }
+        applyLocks.release();
+
+        List<String> keys = new ArrayList<>(ops.size());
+        List<byte[]> encoded = new ArrayList<>(ops.size());
+        List<String> results = new ArrayList<>(ops.size());
+        for (int i = 0; i < ops.size(); i++) {
+            String key = ops.get(i).key();
+            KVStore.Update update = updates.get(i);
+            keys.add(key);
+            encoded.add(update.encoded());
+            if (backingCache != null) {
+                backingCache.written(key, update.value());
+            }
+            batchApplied(key, update.value());
+            results.add(switch (commands.get(i)[0].toUpperCase()) {
+                case "INCR", "DECR" -> update.value();
+                case "APPEND" -> Integer.toString(update.value().length());
+                default -> "OK";
+            });
+        }
+        trace.enter(Stage.REPLICATION);
+        replicationManager.replicateBatch(keys, encoded);
+        writer.println(String.join(" ", results));
+    }
+
+    /**
+     * The commands allowed inside MULTI, as functions of the key's value within the batch.
+     * Returns null for anything else or for a malformed command.
+     */
+    private static KVStore.BatchOp toBatchOp(String[] command) {
+        if (command.length < 2) {
+            return null;
+        }
+        String key = command[1];
+        String value = command.length > 2 ? command[2] : null;
+        switch (command[0].toUpperCase()) {
+            case "PUT":
+                return value == null ? null : new KVStore.BatchOp(key, current -> value);
+            case "DELETE":
+                return new KVStore.BatchOp(key, current -> null);
+            case "APPEND":
+                return value == null ? null : new KVStore.BatchOp(key, current -> current == null ? value : current + value);
+            case "INCR":
+            case "DECR":
+                long delta;
+                try {
+                    delta = value == null ? 1 : Long.parseLong(value);
+                } catch (NumberFormatException e) {
+                    return null;
+                }
+                boolean decrement = "DECR".equalsIgnoreCase(command[0]);
+                return new KVStore.BatchOp(key, current -> increment(current, delta, decrement));
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * INCR/DECR on a stored value, absent counting as 0. Throws NumberFormatException for a value
+     * that isn't an integer and ArithmeticException if the result would overflow.
+     */
+    private static String increment(String current, long delta, boolean decrement) {
+        long value = current == null ? 0 : Long.parseLong(current);
+        return Long.toString(decrement ? Math.subtractExact(value, delta) : Math.addExact(value, delta));
+    }
+
+    /**
+     * Replica side of MULTI: the leader's batch arrives as one record and is applied in one step.
+     */
+    private void applyReplicatedBatch(BufferedReader reader, int count) throws Exception {
+        List<String> keys = new ArrayList<>(count);
+        List<byte[]> encoded = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String[] entry = reader.readLine().split(" ");
+            keys.add(entry[1]);
+            encoded.add("DELETE".equals(entry[0]) ? null : Base64.getDecoder().decode(entry[2]));
+        }
+        store.putEncodedBatch(keys, encoded);
+        for (int i = 0; i < count; i++) {
+            if (encoded.get(i) == null) {
+                sortedSets.delete(keys.get(i));
+            }
+        }
+        if (replicationManager.isChained()) {
+            replicationManager.replicateBatch(keys, encoded);
+        }
+        for (int i = 0; i < count; i++) {
+            String key = keys.get(i);
+            if (encoded.get(i) == null) {
+                batchApplied(key, null);
+            } else {
+                nearCache.invalidate(key);
+                if (subscriptions.hasSubscribers()) {
+                    subscriptions.publishPut(key, store.get(key));
+                }
+            }
+        }
+    }
+
+    /**
+     * Per-key side effects of a batch entry on this node; a null value is a delete.
+     */
+    private void batchApplied(String key, String value) {
+        nearCache.invalidate(key);
+        if (value == null) {
+            subscriptions.publishDelete(key);
+            migrationManager.recordDelete(key);
+        } else {
+            subscriptions.publishPut(key, value);
+        }
+    }
+
+    /**
+     * Keeps a subscribed connection open on a subscriber thread, writing events as they arrive.
+     * Writers only ever enqueue into the subscriber's bounded buffer; if it overflows the
+     * subscriber is closed and told why. A client that went away is noticed on the next event
+     * written to it.
+     */
+    private void stream(Socket socket, Subscriber subscriber) {
+        ClientConnection connection = null;
+        try (socket) {
+            RequestTrace trace = RequestTrace.begin();
+            trace.discard();
+            connection = ClientConnection.open(socket, trace);
+            PrintWriter writer = connection.writer();
+            writer.println("SUBSCRIBED");
+            // A write only fails once the client is gone, so while no events match, each idle
+            // second reads ahead instead: EOF means the client hung up and frees the slot now
+            InputStream readAhead = socket.getInputStream();
+            socket.setSoTimeout(1);
+            while (!writer.checkError()) {
+                String event = subscriber.next(1000);
+                if (event != null) {
+                    writer.println(event);
+                } else if (subscriber.isClosed()) {
+                    if (subscriber.isOverflowed()) {
+                        writer.println("ERROR: Slow consumer disconnected");
+                    }
+                    return;
+                } else if (hungUp(readAhead)) {
+                    return;
+                }
+            }
+        } catch (Exception e) {
+            // The subscriber went away or the thread was stopped; either way the stream is over
+        } finally {
+            if (connection != null) {
+                connection.close();
+            }
+            subscriptions.unsubscribe(subscriber);
+            subscriberSlots.release();
+        }
+    }
+
+    /**
+     * Whether the subscriber closed its end, read without waiting more than the socket timeout.
+     * Anything it sent is discarded, since nothing is read from a subscription once it starts.
+     */
+    private static boolean hungUp(InputStream input) throws IOException {
+        try {
+            return input.read(new byte[256]) < 0;
+        } catch (SocketTimeoutException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Reads a hot key this node does not hold from its owning leader so the near-cache can
+     * absorb repeat reads. Sent as REPLICATE so the owner never forwards it again.
+     */
+    private String fetchFromOwner(String key) throws Exception {
+        String owner = hashRing.getTargetNode(key);
+        if (owner == null || owner.equals(clusterManager.getNodeId())) {
+            return null;
+        }
+        String leader = clusterManager.getCurrentLeader(owner);
+        if (leader == null) {
+            return null;
+        }
+        String reply = NodeClient.send(leader, "REPLICATE GET " + key);
+        return reply == null || "NULL".equals(reply) ? null : reply;
+    }
+
+    /**
+     * Sends a value kept uncompressed in the value log from its file straight to the socket,
+     * without building a String or copying it through the writer. Returns false, having sent
+     * nothing, when the value has to be read the normal way.
+     */
+    private boolean sendLogged(KVStore source, String key, Socket socket, PrintWriter writer, RequestTrace trace) throws IOException {
+        SocketChannel channel = socket == null ? null : socket.getChannel();
+        if (channel == null || source.getValueLog() == null) {
+            return false;
+        }
+        writer.flush();
+        trace.enter(Stage.RESPONSE);
+        if (!source.transferTo(key, channel)) {
+            return false;
+        }
+        writer.println();
+        return true;
+    }
+
+    /**
+     * MEMORY USAGE &lt;key&gt; sizes one key of the namespace on this node, MEMORY STATS breaks down
+     * the node's memory, and MEMORY BIGKEYS lists the largest keys found by the sampler.
+     */
+    private String memory(Namespace namespace, String subcommand, String key) {
+        switch (subcommand == null ? "" : subcommand.toUpperCase()) {
+            case "USAGE" -> {
+                if (key == null) {
+                    return "ERROR: Usage MEMORY USAGE <key>";
+                }
+                long bytes = namespace.getStore().memoryUsage(key) + (namespace.isDefault() ? sortedSets.memoryUsage(key) : 0);
+                return bytes == 0 ? "NULL" : Long.toString(bytes);
+            }
+            case "STATS" -> {
+                long used = sortedSets.memoryBytes();
+                List<String> perNamespace = new ArrayList<>();
+                for (Namespace ns : namespaces.all()) {
+                    KVStore nsStore = ns.getStore();
+                    used += nsStore.memoryBytes();
+                    perNamespace.add("namespace=" + ns.getName() + " keys=" + nsStore.size()
+                            + " engineBytes=" + nsStore.getEngine().footprintBytes() + " historyBytes=" + nsStore.historyBytes()
+                            + (nsStore.getValueLog() == null ? "" : " " + nsStore.getValueLog()));
+                }
+                Runtime runtime = Runtime.getRuntime();
+                return "usedBytes=" + used + " sortedSetBytes=" + sortedSets.memoryBytes()
+                        + " heapUsedBytes=" + (runtime.totalMemory() - runtime.freeMemory())
+                        + " heapMaxBytes=" + runtime.maxMemory() + " " + bigKeys
+                        + " | " + String.join(" | ", perNamespace);
+            }
+            case "BIGKEYS" -> {
+                List<BigKeySampler.BigKey> big = bigKeys.getBigKeys();
+                return big.isEmpty() ? "NONE" : big.stream()
+                        .map(bigKey -> bigKey.key() + "=" + bigKey.bytes() + "(" + bigKey.type() + ")")
+                        .collect(Collectors.joining(" "));
+            }
+            default -> {
+                return "ERROR: Usage MEMORY USAGE <key> | MEMORY STATS | MEMORY BIGKEYS";
+            }
+        }
+    }
+
+    private String formatHotKeys() {
+        List<Map.Entry<String, Long>> hot = hotKeys.getHotKeys();
+        if (hot.isEmpty()) {
+            return "NONE";
+        }
+        return hot.stream()
+                .map(entry -> entry.getKey() + "=" + entry.getValue())
+                .collect(Collectors.joining(" "));
+    }
+
+    /**
+     * Makes room in the namespace for a write of about the given bytes, holding them in applyLocks
+     * until the write is applied. Evictions are propagated either way. Returns false, having
+     * answered OOM, if the namespace is full.
+     */
+    private boolean reserve(PrintWriter writer, Namespace namespace, long bytes, HeldLocks applyLocks) {
+        Namespace.Reservation reservation = namespace.reserve(bytes);
+        for (String victim : reservation.evicted()) {
+            evicted(namespace, victim);
+        }
+        if (!reservation.granted()) {
+            writer.println("ERROR: OOM Namespace " + namespace.getName() + " is over its memory quota");
+            return false;
+        }
+        applyLocks.onRelease(() -> namespace.release(bytes));
+        return true;
+    }
+
+    /**
+     * Locks, and quota a write has reserved, that a request holds for only part of its work,
+     * released as soon as that part is done or, at the latest, when the request ends.
+     */
+    private static final class HeldLocks {
+        private final List<Runnable> releases = new ArrayList<>();
+
+        void lock(List<Lock> toLock) {
+            for (Lock lock : toLock) {
+                lock.lock();
+                releases.add(lock::unlock);
+            }
+        }
+
+        void onRelease(Runnable release) {
+            releases.add(release);
+        }
+
+        void release() {
+            releases.forEach(Runnable::run);
+            releases.clear();
+        }
+    }
+
+    private static ThreadFactory named(String prefix) {
+        AtomicInteger ids = new AtomicInteger();
+        return r -> new Thread(r, prefix + ids.incrementAndGet());
+    }
+
+    /**
+     * Why the command can't write the key in the default namespace, or null if it can: a key holds
+     * either a string or a sorted set, never both. The caller holds the key's keyspace stripe.
+     */
+    private String wrongType(String command, String key) {
+        if ("ZADD".equalsIgnoreCase(command)) {
+            return keyspace.holdsString(key) ? "ERROR: WRONGTYPE Key " + key + " holds a string value" : null;
+        }
+        return addsData(command) && keyspace.holdsSortedSet(key) ? "ERROR: WRONGTYPE Key " + key + " holds a sorted set" : null;
+    }
+
+    /**
+     * Commands a non-default namespace supports: plain string commands and MEMORY.
+     */
+    private static boolean isNamespaced(String command) {
+        return switch (command.toUpperCase()) {
+            case "PUT", "PUTZ", "GET", "DELETE", "INCR", "DECR", "CAS", "APPEND", "MEMORY" -> true;
+            default -> false;
+        };
+    }
+
+    private static boolean isAdmissionExempt(String command) {
+        return switch (command.toUpperCase()) {
+            case "WATCH", "SUBSCRIBE" -> true;
+            default -> false;
+        };
+    }
+
+    /**
+     * Writes that can grow a namespace's footprint and so are subject to its quota. A MULTI is
+     * held to the quota when any of its commands is.
+     */
+    private static boolean addsData(String command) {
+        return switch (command.toUpperCase()) {
+            case "PUT", "INCR", "DECR", "CAS", "APPEND" -> true;
+            default -> false;
+        };
+    }
+
+    private static boolean isSortedSetCommand(String command) {
+        return switch (command.toUpperCase()) {
+            case "ZADD", "ZREM", "ZRANGE", "ZRANK" -> true;
+            default -> false;
+        };
+    }
+
+    /**
+     * Single-key writes. MULTI writes too, but its keys are only known once EXEC arrives, so
+     * {@link #handleMulti} does the same leader check, quota and write accounting itself.
+     */
+    private static boolean isWriteCommand(String command) {
+        return switch (command.toUpperCase()) {
+            case "PUT", "DELETE", "INCR", "DECR", "CAS", "APPEND", "ZADD", "ZREM" -> true;
+            default -> false;
+        };
+    }
 }
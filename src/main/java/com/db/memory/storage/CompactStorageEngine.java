@@ -0,0 +1,470 @@
+package com.db.memory.storage;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.UnaryOperator;
+
+/**
+ * Memory-compact engine. Keys and values are packed as records into large shared byte[] pages,
+ * found through a primitive open-addressing table of hashes and page references. An entry costs
+ * a 16-byte record header and an 8-byte table slot instead of several objects.
+ *
+ * The key space is split into stripes, each with its own lock, table and pages. A table that
+ * fills up is resized incrementally: a new table is allocated and each write moves a few slots
+ * across while lookups check both, so there is never a whole-table rehash pause. Overwritten and
+ * deleted records are garbage in their page until the stripe is compacted, which happens once
+ * garbage outweighs live data.
+ */
+public class CompactStorageEngine implements StorageEngine {
+    private static final VarHandle INT = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.nativeOrder());
+    private static final VarHandle LONG = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    // A reference is the page index in the high 16 bits and the offset in the low 16 bits
+    private static final int EMPTY = -1;
+    private static final int DELETED = -2;
+    private static final int MAX_PAGES = Short.MAX_VALUE;
+    // Record layout: key length, value length (-1 for a tombstone), version, key bytes, value bytes
+    private static final int HEADER = 16;
+    // A table slot is a hash and a reference
+    private static final int SLOT_BYTES = Integer.BYTES + Integer.BYTES;
+    private static final int FIRST_PAGE = 4 * 1024;
+    private static final int MAX_PAGE = 64 * 1024;
+    private static final int INITIAL_SLOTS = 16;
+    private static final int MIGRATE_PER_WRITE = 16;
+    private static final int MIN_GARBAGE_TO_COMPACT = 64 * 1024;
+
+    private final Stripe[] stripes;
+    private final int stripeShift;
+    private final int stripeMask;
+
+    public CompactStorageEngine(int stripeCount) {
+        int count = Integer.highestOneBit(Math.max(1, stripeCount));
+        this.stripes = new Stripe[count];
+        for (int i = 0; i < count; i++) {
+            stripes[i] = new Stripe();
+        }
+        this.stripeShift = 32 - Integer.numberOfTrailingZeros(count);
+        this.stripeMask = count - 1;
+    }
+
+    @Override
+    public VersionedValue get(String key) {
+        int h = hash(key);
+        return stripeOf(h).get(key.getBytes(StandardCharsets.UTF_8), h);
+    }
+
+    @Override
+    public VersionedValue compute(String key, UnaryOperator<VersionedValue> function) {
+        int h = hash(key);
+        return stripeOf(h).compute(key.getBytes(StandardCharsets.UTF_8), h, function);
+    }
+
+    /**
+     * Walks stripe by stripe, copying one stripe's keys at a time under its read lock.
+     */
+    @Override
+    public Iterator<String> keyIterator() {
+        return new Iterator<>() {
+            private int stripe;
+            private Iterator<String> current = Collections.emptyIterator();
+
+            @Override
+            public boolean hasNext() {
+                while (!current.hasNext() && stripe < stripes.length) {
+                    current = stripes[stripe++].keys().iterator();
+                }
+                return current.hasNext();
+            }
+
+            @Override
+            public String next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return current.next();
+            }
+        };
+    }
+
+    @Override
+    public long size() {
+        long size = 0;
+        for (Stripe stripe : stripes) {
+            size += stripe.records();
+        }
+        return size;
+    }
+
+    @Override
+    public long footprintBytes() {
+        long bytes = 0;
+        for (Stripe stripe : stripes) {
+            bytes += stripe.footprint();
+        }
+        return bytes;
+    }
+
+    /**
+     * Every key's record plus its table slot, without the garbage pages still hold.
+     */
+    @Override
+    public long liveBytes() {
+        long bytes = 0;
+        for (Stripe stripe : stripes) {
+            bytes += stripe.live();
+        }
+        return bytes;
+    }
+
+    /**
+     * The key's record plus its table slot; garbage left in pages by earlier versions is not counted.
+     */
+    @Override
+    public long entryBytes(String key) {
+        int h = hash(key);
+        return stripeOf(h).entryBytes(key.getBytes(StandardCharsets.UTF_8), h);
+    }
+
+    @Override
+    public String name() {
+        return "compact";
+    }
+
+    private Stripe stripeOf(int h) {
+        return stripes[(h >>> stripeShift) & stripeMask];
+    }
+
+    private static int hash(String key) {
+        int h = key.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private static final class Stripe {
+        private final StampedLock lock = new StampedLock();
+        private int[] hashes = new int[INITIAL_SLOTS];
+        private int[] refs = emptyRefs(INITIAL_SLOTS);
+        private int used;
+
+        // Previous table while an incremental resize is in progress
+        private int[] oldHashes;
+        private int[] oldRefs;
+        private int migrated;
+
+        private final List<byte[]> pages = new ArrayList<>();
+        private int pageOffset;
+        private int nextPageSize = FIRST_PAGE;
+        private long pageBytes;
+        private long liveBytes;
+        private long garbageBytes;
+        private long records;
+
+        VersionedValue get(byte[] key, int h) {
+            long stamp = lock.readLock();
+            try {
+                int slot = find(hashes, refs, h, key);
+                if (slot >= 0) {
+                    return materialize(refs[slot]);
+                }
+                if (oldRefs != null) {
+                    slot = find(oldHashes, oldRefs, h, key);
+                    if (slot >= 0) {
+                        return materialize(oldRefs[slot]);
+                    }
+                }
+                return null;
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        long entryBytes(byte[] key, int h) {
+            long stamp = lock.readLock();
+            try {
+                int slot = find(hashes, refs, h, key);
+                if (slot >= 0) {
+                    return recordLength(refs[slot]) + SLOT_BYTES;
+                }
+                if (oldRefs != null) {
+                    slot = find(oldHashes, oldRefs, h, key);
+                    if (slot >= 0) {
+                        return recordLength(oldRefs[slot]) + SLOT_BYTES;
+                    }
+                }
+                return 0;
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        VersionedValue compute(byte[] key, int h, UnaryOperator<VersionedValue> function) {
+            long stamp = lock.writeLock();
+            try {
+                migrateStep();
+                boolean inOld = false;
+                int slot = find(hashes, refs, h, key);
+                if (slot < 0 && oldRefs != null) {
+                    slot = find(oldHashes, oldRefs, h, key);
+                    inOld = slot >= 0;
+                }
+                int ref = slot < 0 ? EMPTY : inOld ? oldRefs[slot] : refs[slot];
+                VersionedValue current = slot < 0 ? null : materialize(ref);
+                VersionedValue next = function.apply(current);
+                if (next == current) {
+                    return current;
+                }
+
+                if (slot >= 0) {
+                    int length = recordLength(ref);
+                    liveBytes -= length;
+                    garbageBytes += length;
+                    if (inOld) {
+                        oldRefs[slot] = DELETED;
+                    } else {
+                        refs[slot] = DELETED;
+                    }
+                }
+                if (next == null) {
+                    if (slot >= 0) {
+                        records--;
+                    }
+                } else {
+                    int newRef = append(key, next);
+                    if (slot >= 0 && !inOld) {
+                        refs[slot] = newRef;
+                    } else {
+                        insert(h, newRef);
+                        if (slot < 0) {
+                            records++;
+                        }
+                    }
+                    maybeResize();
+                }
+                maybeCompact();
+                return next;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        List<String> keys() {
+            long stamp = lock.readLock();
+            try {
+                List<String> keys = new ArrayList<>((int) records);
+                collectKeys(refs, keys);
+                if (oldRefs != null) {
+                    collectKeys(oldRefs, keys);
+                }
+                return keys;
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        long records() {
+            long stamp = lock.readLock();
+            try {
+                return records;
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        long footprint() {
+            long stamp = lock.readLock();
+            try {
+                int slots = refs.length + (oldRefs == null ? 0 : oldRefs.length);
+                return pageBytes + (long) slots * SLOT_BYTES;
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        long live() {
+            long stamp = lock.readLock();
+            try {
+                return liveBytes + records * SLOT_BYTES;
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        private int find(int[] hs, int[] rs, int h, byte[] key) {
+            int mask = rs.length - 1;
+            for (int i = h & mask; ; i = (i + 1) & mask) {
+                int r = rs[i];
+                if (r == EMPTY) {
+                    return -1;
+                }
+                if (r != DELETED && hs[i] == h && keyEquals(r, key)) {
+                    return i;
+                }
+            }
+        }
+
+        /**
+         * Puts a ref for a key known to be absent into the current table, reusing a deleted slot.
+         */
+        private void insert(int h, int ref) {
+            int mask = refs.length - 1;
+            int i = h & mask;
+            while (refs[i] >= 0) {
+                i = (i + 1) & mask;
+            }
+            if (refs[i] == EMPTY) {
+                used++;
+            }
+            hashes[i] = h;
+            refs[i] = ref;
+        }
+
+        private void maybeResize() {
+            if (oldRefs != null || used <= refs.length / 4 * 3) {
+                return;
+            }
+            // Mostly deleted slots only need a same-size rebuild to clear them out
+            int capacity = records > refs.length / 2 ? refs.length * 2 : refs.length;
+            oldHashes = hashes;
+            oldRefs = refs;
+            migrated = 0;
+            hashes = new int[capacity];
+            refs = emptyRefs(capacity);
+            used = 0;
+        }
+
+        private void migrateStep() {
+            if (oldRefs == null) {
+                return;
+            }
+            int end = Math.min(oldRefs.length, migrated + MIGRATE_PER_WRITE);
+            for (int i = migrated; i < end; i++) {
+                if (oldRefs[i] >= 0) {
+                    insert(oldHashes[i], oldRefs[i]);
+                    // Deleted rather than empty, so probes for keys not yet moved still pass through
+                    oldRefs[i] = DELETED;
+                }
+            }
+            migrated = end;
+            if (migrated == oldRefs.length) {
+                oldHashes = null;
+                oldRefs = null;
+            }
+        }
+
+        private void maybeCompact() {
+            if (garbageBytes < MIN_GARBAGE_TO_COMPACT || garbageBytes < liveBytes) {
+                return;
+            }
+            List<byte[]> previous = new ArrayList<>(pages);
+            pages.clear();
+            pageOffset = 0;
+            pageBytes = 0;
+            liveBytes = 0;
+            garbageBytes = 0;
+            nextPageSize = (int) Math.max(FIRST_PAGE, Math.min(MAX_PAGE, records * 64));
+            relocate(refs, previous);
+            if (oldRefs != null) {
+                relocate(oldRefs, previous);
+            }
+        }
+
+        private void relocate(int[] rs, List<byte[]> previous) {
+            for (int i = 0; i < rs.length; i++) {
+                if (rs[i] >= 0) {
+                    byte[] page = previous.get(rs[i] >>> 16);
+                    int offset = rs[i] & 0xFFFF;
+                    int length = recordLength(page, offset);
+                    int ref = allocate(length);
+                    System.arraycopy(page, offset, pages.get(pages.size() - 1), ref & 0xFFFF, length);
+                    rs[i] = ref;
+                }
+            }
+        }
+
+        private int append(byte[] key, VersionedValue state) {
+            byte[] value = state.value();
+            int ref = allocate(HEADER + key.length + (value == null ? 0 : value.length));
+            byte[] page = pages.get(pages.size() - 1);
+            int offset = ref & 0xFFFF;
+            INT.set(page, offset, key.length);
+            INT.set(page, offset + 4, value == null ? -1 : value.length);
+            LONG.set(page, offset + 8, state.version());
+            System.arraycopy(key, 0, page, offset + HEADER, key.length);
+            if (value != null) {
+                System.arraycopy(value, 0, page, offset + HEADER + key.length, value.length);
+            }
+            return ref;
+        }
+
+        /**
+         * Reserves space at the end of the last page, starting a new page if it doesn't fit.
+         */
+        private int allocate(int length) {
+            if (pages.isEmpty() || pageOffset + length > pages.get(pages.size() - 1).length) {
+                if (pages.size() == MAX_PAGES) {
+                    throw new IllegalStateException("Storage stripe is full; raise kv.storage.compact.stripes");
+                }
+                int size = Math.max(nextPageSize, length);
+                pages.add(new byte[size]);
+                pageBytes += size;
+                pageOffset = 0;
+                nextPageSize = Math.min(MAX_PAGE, nextPageSize * 2);
+            }
+            int ref = ((pages.size() - 1) << 16) | pageOffset;
+            pageOffset += length;
+            liveBytes += length;
+            return ref;
+        }
+
+        private VersionedValue materialize(int ref) {
+            byte[] page = pages.get(ref >>> 16);
+            int offset = ref & 0xFFFF;
+            int keyLength = (int) INT.get(page, offset);
+            int valueLength = (int) INT.get(page, offset + 4);
+            long version = (long) LONG.get(page, offset + 8);
+            int valueStart = offset + HEADER + keyLength;
+            byte[] value = valueLength < 0 ? null : Arrays.copyOfRange(page, valueStart, valueStart + valueLength);
+            return new VersionedValue(value, version);
+        }
+
+        private boolean keyEquals(int ref, byte[] key) {
+            byte[] page = pages.get(ref >>> 16);
+            int offset = ref & 0xFFFF;
+            int keyLength = (int) INT.get(page, offset);
+            return keyLength == key.length
+                    && Arrays.equals(page, offset + HEADER, offset + HEADER + keyLength, key, 0, keyLength);
+        }
+
+        private void collectKeys(int[] rs, List<String> keys) {
+            for (int r : rs) {
+                if (r >= 0) {
+                    byte[] page = pages.get(r >>> 16);
+                    int offset = r & 0xFFFF;
+                    keys.add(new String(page, offset + HEADER, (int) INT.get(page, offset), StandardCharsets.UTF_8));
+                }
+            }
+        }
+
+        private int recordLength(int ref) {
+            return recordLength(pages.get(ref >>> 16), ref & 0xFFFF);
+        }
+
+        private static int recordLength(byte[] page, int offset) {
+            return HEADER + (int) INT.get(page, offset) + Math.max(0, (int) INT.get(page, offset + 4));
+        }
+
+        private static int[] emptyRefs(int capacity) {
+            int[] rs = new int[capacity];
+            Arrays.fill(rs, EMPTY);
+            return rs;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.db.memory.storage;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per-namespace compression counters. Byte counts describe the values currently resident in the
+ * store; CPU time is cumulative since startup.
+ */
+public class CompressionStats {
+    private final String namespace;
+    private final LongAdder rawBytes = new LongAdder();
+    private final LongAdder storedBytes = new LongAdder();
+    private final LongAdder compressedValues = new LongAdder();
+    private final LongAdder compressNanos = new LongAdder();
+    private final LongAdder compressCalls = new LongAdder();
+    private final LongAdder decompressNanos = new LongAdder();
+    private final LongAdder decompressCalls = new LongAdder();
+
+    public CompressionStats(String namespace) {
+        this.namespace = namespace;
+    }
+
+    void recordCompress(long nanos) {
+        compressNanos.add(nanos);
+        compressCalls.increment();
+    }
+
+    void recordDecompress(long nanos) {
+        decompressNanos.add(nanos);
+        decompressCalls.increment();
+    }
+
+    void onStored(byte[] encoded) {
+        rawBytes.add(ValueCodec.rawLength(encoded));
+        storedBytes.add(encoded.length);
+        if (ValueCodec.isCompressed(encoded)) {
+            compressedValues.increment();
+        }
+    }
+
+    void onReleased(byte[] encoded) {
+        rawBytes.add(-ValueCodec.rawLength(encoded));
+        storedBytes.add(-encoded.length);
+        if (ValueCodec.isCompressed(encoded)) {
+            compressedValues.decrement();
+        }
+    }
+
+    public double getRatio() {
+        long stored = storedBytes.sum();
+        return stored == 0 ? 1.0 : (double) rawBytes.sum() / stored;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("namespace=%s compressed=%d raw=%d stored=%d ratio=%.2f compressCalls=%d compressMs=%d decompressCalls=%d decompressMs=%d",
+                namespace, compressedValues.sum(), rawBytes.sum(), storedBytes.sum(), getRatio(),
+                compressCalls.sum(), TimeUnit.NANOSECONDS.toMillis(compressNanos.sum()),
+                decompressCalls.sum(), TimeUnit.NANOSECONDS.toMillis(decompressNanos.sum()));
+    }
+}
@@ -0,0 +1,821 @@
+package com.db.memory.storage;
+
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.BiConsumer;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+
+/**
+ * KVStore holds one namespace's data as encoded values (see {@link ValueCodec}).
+ * Reads decode on the way out; replication and other node-to-node transfers use the
+ * encoded bytes directly so compressed values are never re-compressed.
+ *
+ * Every write is stamped with a version from its key's stripe clock, so writers to different
+ * stripes never contend on one counter. {@link #snapshot()} pins a version no earlier write
+ * exceeds and moves every stripe clock up to it, so later writes are stamped above it. Until
+ * the snapshot is closed, overwritten and deleted values are kept in a side history so the
+ * snapshot keeps seeing the store as it was. Nothing is retained while no snapshot is pinned,
+ * and history is collected in the background once the snapshots that needed it are closed.
+ *
+ * The current state of each key lives in a {@link StorageEngine}, which only decides the memory
+ * layout; everything above (versions, history, stats, listeners) is shared by all engines.
+ *
+ * With a {@link ValueLog}, large encoded values are kept in the log and the engine only holds a
+ * pointer to them. Pointers never leave the store: every read resolves them back to the encoded
+ * bytes, so listeners, snapshots and replicas see the same values either way.
+ */
+public class KVStore {
+    public static final String DEFAULT_NAMESPACE = "default";
+
+    private static final ExecutorService GC_EXECUTOR = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "mvcc-gc");
+        t.setDaemon(true);
+        return t;
+    });
+    private static final VersionedValue NOT_APPLIED = new VersionedValue(null, -1);
+    // History node 24, the retained state record 24 and its value array header 16
+    private static final int HISTORY_OVERHEAD = 64;
+    private static final int PIN_STRIPES = 64;
+    // Stripe clocks sit 128 bytes apart so writers on neighbouring stripes don't share a cache line
+    private static final int CLOCK_STRIDE = 16;
+
+    private final String namespace;
+    private final ValueCodec codec;
+    private final CompressionStats compressionStats;
+    private final VersionStats versionStats = new VersionStats();
+    private final StorageEngine entries;
+    private final ValueLog valueLog;
+    private final Map<String, History> history = new ConcurrentHashMap<>();
+    // Keys whose head is a tombstone, so collection doesn't have to scan the whole engine
+    private final Set<String> tombstones = ConcurrentHashMap.newKeySet();
+    private final List<StoreListener> listeners = new CopyOnWriteArrayList<>();
+    private final LongAdder liveKeys = new LongAdder();
+
+    private final ConcurrentSkipListMap<Long, Integer> pins = new ConcurrentSkipListMap<>();
+    // Striped by key. Writers share their key's stripe and a batch holds its keys' stripes
+    // exclusively; pinning holds every stripe exclusively for an instant so no write straddles a pin
+    private final StampedLock[] pinLocks = new StampedLock[PIN_STRIPES];
+    private final AtomicLongArray clocks = new AtomicLongArray(PIN_STRIPES * CLOCK_STRIDE);
+
+    public KVStore(String namespace, ValueCodec codec) {
+        this(namespace, codec, new MapStorageEngine());
+    }
+
+    public KVStore(String namespace, ValueCodec codec, StorageEngine engine) {
+        this(namespace, codec, engine, null);
+    }
+
+    /**
+     * @param valueLog where large values are kept, or null to keep every value in the engine
+     */
+    public KVStore(String namespace, ValueCodec codec, StorageEngine engine, ValueLog valueLog) {
+        this.namespace = namespace;
+        this.codec = codec;
+        this.entries = engine;
+        this.valueLog = valueLog;
+        this.compressionStats = new CompressionStats(namespace);
+        for (int i = 0; i < PIN_STRIPES; i++) {
+            pinLocks[i] = new StampedLock();
+        }
+        if (valueLog != null) {
+            valueLog.attach(new ValueLog.Relocator() {
+                @Override
+                public boolean pointsAt(String key, byte[] pointer) {
+                    VersionedValue head = entries.get(key);
+                    return head != null && Arrays.equals(head.value(), pointer);
+                }
+
+                @Override
+                public boolean relocate(String key, byte[] from, byte[] to) {
+                    boolean[] moved = {false};
+                    // Same version, same bytes: only the location changes, so nobody is notified
+                    entries.compute(key, head -> {
+                        if (head == null || !Arrays.equals(head.value(), from)) {
+                            return head;
+                        }
+                        moved[0] = true;
+                        return new VersionedValue(to, head.version());
+                    });
+                    return moved[0];
+                }
+            });
+        }
+    }
+
+    public void addListener(StoreListener listener) {
+        listeners.add(listener);
+    }
+
+    public String get(String key) {
+        byte[] encoded = getEncoded(key);
+        return encoded == null ? null : codec.decode(encoded, compressionStats);
+    }
+
+    /**
+     * Lock-free unless a batch writing this key is being applied, in which case the read waits
+     * for it so a batch is never observed half-applied.
+     */
+    public byte[] getEncoded(String key) {
+        VersionedValue head = head(key);
+        return head == null ? null : resolve(key, head);
+    }
+
+    /**
+     * Decodes a value read with {@link #getEncoded(String)} straight into target; see
+     * {@link ValueCodec#decodeInto(byte[], byte[], int, CompressionStats)}.
+     */
+    public int decodeInto(byte[] encoded, byte[] target, int offset) {
+        return codec.decodeInto(encoded, target, offset, compressionStats);
+    }
+
+    /**
+     * Streams the key's value to the channel straight from the value log, provided it is logged
+     * there uncompressed. Returns false, having written nothing, otherwise; callers then fall back
+     * to {@link #get(String)}.
+     */
+    public boolean transferTo(String key, WritableByteChannel target) throws IOException {
+        if (valueLog == null) {
+            return false;
+        }
+        while (true) {
+            VersionedValue head = head(key);
+            if (head == null || !ValueLog.isPointer(head.value())) {
+                return false;
+            }
+            switch (valueLog.transferRaw(head.value(), target)) {
+                case SENT -> {
+                    return true;
+                }
+                case COMPRESSED -> {
+                    return false;
+                }
+                case MOVED -> {
+                    // Compaction moved it or a write replaced it; look again
+                }
+            }
+        }
+    }
+
+    private VersionedValue head(String key) {
+        StampedLock pinLock = pinLock(key);
+        long stamp = pinLock.tryOptimisticRead();
+        VersionedValue head = entries.get(key);
+        if (!pinLock.validate(stamp)) {
+            stamp = pinLock.readLock();
+            try {
+                head = entries.get(key);
+            } finally {
+                pinLock.unlockRead(stamp);
+            }
+        }
+        return head;
+    }
+
+    private StampedLock pinLock(String key) {
+        return pinLocks[stripe(key)];
+    }
+
+    private static int stripe(String key) {
+        return Math.floorMod(key.hashCode(), PIN_STRIPES);
+    }
+
+    /**
+     * The next version for a write to the key; the caller holds the key's stripe.
+     */
+    private long tick(String key) {
+        return clocks.incrementAndGet(stripe(key) * CLOCK_STRIDE);
+    }
+
+    /**
+     * Takes the stripes of all the given keys exclusively, in stripe order so two batches never
+     * deadlock. Returns the stamps by stripe, 0 for stripes not taken.
+     */
+    private long[] lockStripes(Collection<String> keys) {
+        boolean[] wanted = new boolean[PIN_STRIPES];
+        for (String key : keys) {
+            wanted[stripe(key)] = true;
+        }
+        long[] stamps = new long[PIN_STRIPES];
+        for (int i = 0; i < PIN_STRIPES; i++) {
+            if (wanted[i]) {
+                stamps[i] = pinLocks[i].writeLock();
+            }
+        }
+        return stamps;
+    }
+
+    private void unlockStripes(long[] stamps) {
+        for (int i = PIN_STRIPES - 1; i >= 0; i--) {
+            if (stamps[i] != 0) {
+                pinLocks[i].unlockWrite(stamps[i]);
+            }
+        }
+    }
+
+    /**
+     * The encoded bytes of a state, reading them from the value log if they are kept there.
+     */
+    private byte[] resolve(String key, VersionedValue state) {
+        byte[] value = state.value();
+        while (ValueLog.isPointer(value)) {
+            byte[] logged = valueLog.read(value);
+            if (logged != null) {
+                return logged;
+            }
+            // Its segment is gone, so the key has moved on since; the head has the current value
+            VersionedValue head = entries.get(key);
+            value = head == null ? null : head.value();
+        }
+        return value;
+    }
+
+    /**
+     * Moves a large value into the value log, returning what the engine should hold for it.
+     */
+    private byte[] stow(String key, byte[] encoded) {
+        if (valueLog == null || !valueLog.accepts(encoded)) {
+            return encoded;
+        }
+        try {
+            return valueLog.append(key, encoded);
+        } catch (IOException e) {
+            System.err.println("[ValueLog] Keeping " + key + " on the heap: " + e.getMessage());
+            return encoded;
+        }
+    }
+
+    private void released(byte[] stored) {
+        if (ValueLog.isPointer(stored)) {
+            valueLog.release(stored);
+        }
+    }
+
+    /**
+     * Encodes and stores the value, returning the encoded form so callers can replicate it as-is.
+     */
+    public byte[] put(String key, String value) {
+        byte[] encoded = codec.encode(value, compressionStats);
+        putEncoded(key, encoded);
+        return encoded;
+    }
+
+    public void putEncoded(String key, byte[] encoded) {
+        write(key, encoded, head -> true);
+    }
+
+    /**
+     * Stores the value only if the key is absent, so data copied in from elsewhere never
+     * overwrites a newer local write.
+     */
+    public boolean putEncodedIfAbsent(String key, byte[] encoded) {
+        return write(key, encoded, head -> head == null || head.isTombstone()) != NOT_APPLIED;
+    }
+
+    /**
+     * Installs the encoded value (null deletes) only if the key still holds seen, what the caller
+     * last read with {@link #getEncoded(String)} (null meaning absent), so a repair copied in from
+     * elsewhere never overwrites a write that landed after the caller looked.
+     */
+    public boolean replaceEncoded(String key, byte[] seen, byte[] encoded) {
+        while (true) {
+            VersionedValue current = head(key);
+            if (!Arrays.equals(current == null ? null : resolve(key, current), seen)) {
+                return false;
+            }
+            if (write(key, encoded, head -> VersionedValue.sameWrite(head, current)) != NOT_APPLIED) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Encodes and stores the value only if the key is absent. Returns the encoded form, or null if
+     * the key already had a value.
+     */
+    public byte[] putIfAbsent(String key, String value) {
+        byte[] encoded = codec.encode(value, compressionStats);
+        return putEncodedIfAbsent(key, encoded) ? encoded : null;
+    }
+
+    /**
+     * Atomic read-modify-write without locking: the new value is computed from a snapshot of the
+     * entry and installed only if the entry is still that same write, otherwise it retries.
+     * The function receives null for an absent key and may be invoked more than once.
+     */
+    public Update update(String key, UnaryOperator<String> function) {
+        while (true) {
+            VersionedValue current = entries.get(key);
+            String next = function.apply(decode(key, current));
+            byte[] encoded = codec.encode(next, compressionStats);
+            if (write(key, encoded, head -> VersionedValue.sameWrite(head, current)) != NOT_APPLIED) {
+                return new Update(next, encoded);
+            }
+        }
+    }
+
+    /**
+     * Sets the key to newValue only if its current value equals expected (null meaning absent).
+     * Returns the installed update, or null if the current value did not match.
+     */
+    public Update compareAndSet(String key, String expected, String newValue) {
+        byte[] encoded = codec.encode(newValue, compressionStats);
+        while (true) {
+            VersionedValue current = entries.get(key);
+            String currentValue = decode(key, current);
+            if (expected == null ? currentValue != null : !expected.equals(currentValue)) {
+                return null;
+            }
+            if (write(key, encoded, head -> VersionedValue.sameWrite(head, current)) != NOT_APPLIED) {
+                return new Update(newValue, encoded);
+            }
+        }
+    }
+
+    public void remove(String key) {
+        write(key, null, head -> true);
+    }
+
+    /**
+     * Applies the operations in order as one atomic step: each function sees the value left by
+     * the operations before it (null for absent) and returns the new value, or null to delete.
+     * If any function throws, nothing is applied. Neither readers nor snapshots can observe the
+     * batch half-applied. Returns one update per operation; deletes have a null value and encoding.
+     *
+     * Like {@link #update}, the new values are computed and encoded without holding any lock and
+     * installed only if none of the batch's keys changed meanwhile, otherwise the batch is
+     * recomputed, so the functions may be invoked more than once. Only the batch's keys' stripes
+     * are held while it is installed.
+     */
+    public List<Update> applyBatch(List<BatchOp> ops) {
+        List<String> keys = ops.stream().map(BatchOp::key).toList();
+        while (true) {
+            Map<String, VersionedValue> read = new HashMap<>();
+            Map<String, String> pending = new HashMap<>();
+            List<Update> updates = new ArrayList<>(ops.size());
+            for (BatchOp op : ops) {
+                String key = op.key();
+                if (!pending.containsKey(key)) {
+                    VersionedValue head = head(key);
+                    read.put(key, head);
+                    pending.put(key, decode(key, head));
+                }
+                String next = op.function().apply(pending.get(key));
+                pending.put(key, next);
+                updates.add(new Update(next, next == null ? null : codec.encode(next, compressionStats)));
+            }
+            // Logged before taking the locks, as in write(), and given back if the batch is recomputed
+            List<byte[]> encoded = updates.stream().map(Update::encoded).toList();
+            List<byte[]> stored = new ArrayList<>(encoded.size());
+            for (int i = 0; i < encoded.size(); i++) {
+                stored.add(stow(keys.get(i), encoded.get(i)));
+            }
+            long[] stamps = lockStripes(keys);
+            boolean unchanged = true;
+            for (Map.Entry<String, VersionedValue> entry : read.entrySet()) {
+                unchanged &= VersionedValue.sameWrite(entries.get(entry.getKey()), entry.getValue());
+            }
+            if (!unchanged) {
+                unlockStripes(stamps);
+                stored.forEach(this::released);
+                continue;
+            }
+            installBatch(keys, encoded, stored, stamps);
+            return updates;
+        }
+    }
+
+    /**
+     * Replica side of {@link #applyBatch}: installs already-encoded values (null deletes) atomically.
+     */
+    public void putEncodedBatch(List<String> keys, List<byte[]> encoded) {
+        List<byte[]> stored = new ArrayList<>(encoded.size());
+        for (int i = 0; i < encoded.size(); i++) {
+            stored.add(stow(keys.get(i), encoded.get(i)));
+        }
+        installBatch(keys, encoded, stored, lockStripes(keys));
+    }
+
+    private void installBatch(List<String> keys, List<byte[]> encoded, List<byte[]> stored, long[] stamps) {
+        List<VersionedValue> replaced = new ArrayList<>(keys.size());
+        try {
+            boolean retain = !pins.isEmpty();
+            for (int i = 0; i < keys.size(); i++) {
+                replaced.add(install(keys.get(i), stored.get(i), head -> true, retain));
+            }
+        } finally {
+            unlockStripes(stamps);
+        }
+        for (int i = 0; i < keys.size(); i++) {
+            onWritten(keys.get(i), previousValue(replaced.get(i)), encoded.get(i));
+        }
+    }
+
+    /**
+     * Installs a new head for the key (null encoded meaning delete) if the condition holds for the
+     * current head. Returns the replaced head, or NOT_APPLIED.
+     */
+    private VersionedValue write(String key, byte[] encoded, Predicate<VersionedValue> condition) {
+        // Logged before taking the lock, so copying a large value never holds up a pin
+        byte[] stored = stow(key, encoded);
+        VersionedValue previousHead;
+        StampedLock pinLock = pinLock(key);
+        long stamp = pinLock.readLock();
+        try {
+            // Pins are only added under every stripe's exclusive lock, so this cannot go stale while we write
+            previousHead = install(key, stored, condition, !pins.isEmpty());
+        } finally {
+            pinLock.unlockRead(stamp);
+        }
+        if (previousHead != NOT_APPLIED) {
+            onWritten(key, previousValue(previousHead), encoded);
+        } else {
+            released(stored);
+        }
+        return previousHead;
+    }
+
+    /**
+     * The encoded value a write replaced, for listeners. A logged one was released by the write,
+     * but its segment outlives the write by at least a compaction pass, so it can still be read.
+     */
+    private byte[] previousValue(VersionedValue previousHead) {
+        if (previousHead == null) {
+            return null;
+        }
+        byte[] value = previousHead.value();
+        return ValueLog.isPointer(value) ? valueLog.read(value) : value;
+    }
+
+    /**
+     * Swaps the head inside the engine's per-key compute; the caller holds the pin lock.
+     */
+    private VersionedValue install(String key, byte[] encoded, Predicate<VersionedValue> condition, boolean retain) {
+        VersionedValue[] replaced = {NOT_APPLIED};
+        entries.compute(key, head -> {
+            if (!condition.test(head)) {
+                return head;
+            }
+            replaced[0] = head;
+            if (!retain) {
+                dropHistory(key);
+                if (head != null) {
+                    released(head.value());
+                }
+                tombstones.remove(key);
+                return encoded == null ? null : new VersionedValue(encoded, tick(key));
+            }
+            if (encoded == null && (head == null || head.isTombstone())) {
+                return head;
+            }
+            // The old head is in history before the new one becomes visible
+            if (head != null) {
+                history.compute(key, (hk, newer) -> new History(head, newer));
+                versionStats.onRetained(head.value());
+            }
+            // A delete leaves a tombstone so pinned snapshots still find the key's history
+            if (encoded == null) {
+                tombstones.add(key);
+            } else {
+                tombstones.remove(key);
+            }
+            return new VersionedValue(encoded, tick(key));
+        });
+        return replaced[0];
+    }
+
+    private void onWritten(String key, byte[] previous, byte[] encoded) {
+        if (previous != null) {
+            compressionStats.onReleased(previous);
+            liveKeys.decrement();
+        }
+        if (encoded != null) {
+            compressionStats.onStored(encoded);
+            liveKeys.increment();
+            for (StoreListener listener : listeners) {
+                listener.onPut(key, previous, encoded);
+            }
+        } else if (previous != null) {
+            for (StoreListener listener : listeners) {
+                listener.onRemove(key, previous);
+            }
+        }
+    }
+
+    /**
+     * Pins the current version. The cost is one brief exclusive hold of every pin lock stripe,
+     * which only waits for writes already in progress; reads never wait.
+     */
+    public Snapshot snapshot() {
+        long start = System.nanoTime();
+        long version;
+        long[] stamps = new long[PIN_STRIPES];
+        for (int i = 0; i < PIN_STRIPES; i++) {
+            stamps[i] = pinLocks[i].writeLock();
+        }
+        try {
+            version = 0;
+            for (int i = 0; i < PIN_STRIPES; i++) {
+                version = Math.max(version, clocks.get(i * CLOCK_STRIDE));
+            }
+            // Every write so far is at or below the pin and every later one lands above it
+            for (int i = 0; i < PIN_STRIPES; i++) {
+                clocks.set(i * CLOCK_STRIDE, version);
+            }
+            pins.merge(version, 1, Integer::sum);
+        } finally {
+            unlockStripes(stamps);
+        }
+        versionStats.recordPin(System.nanoTime() - start);
+        return new Snapshot(version);
+    }
+
+    private void release(long version) {
+        pins.computeIfPresent(version, (v, count) -> count == 1 ? null : count - 1);
+        versionStats.recordRelease();
+        GC_EXECUTOR.execute(this::collectGarbage);
+    }
+
+    /**
+     * Drops history no pinned snapshot can reach any more and removes tombstones every snapshot
+     * already sees. Each key is pruned inside its own compute so it never races that key's
+     * writers, and under its own pin lock stripe, shared, so no pin can be taken between reading
+     * the oldest pin and pruning the key; writers and other stripes' snapshots are never held up.
+     */
+    void collectGarbage() {
+        for (String key : history.keySet()) {
+            StampedLock pinLock = pinLock(key);
+            long stamp = pinLock.readLock();
+            try {
+                long oldest = oldestPin();
+                entries.compute(key, head -> {
+                    if (head == null || head.version() <= oldest) {
+                        dropHistory(key);
+                    } else {
+                        History chain = history.get(key);
+                        if (chain != null) {
+                            truncate(chain, oldest);
+                        }
+                    }
+                    return head;
+                });
+            } finally {
+                pinLock.unlockRead(stamp);
+            }
+        }
+        for (String key : tombstones) {
+            StampedLock pinLock = pinLock(key);
+            long stamp = pinLock.readLock();
+            try {
+                long oldest = oldestPin();
+                entries.compute(key, head -> {
+                    if (head != null && head.isTombstone() && head.version() > oldest) {
+                        return head;
+                    }
+                    tombstones.remove(key);
+                    return head == null || head.isTombstone() ? null : head;
+                });
+            } finally {
+                pinLock.unlockRead(stamp);
+            }
+        }
+    }
+
+    private long oldestPin() {
+        Map.Entry<Long, Integer> oldestPin = pins.firstEntry();
+        return oldestPin == null ? Long.MAX_VALUE : oldestPin.getKey();
+    }
+
+    private void dropHistory(String key) {
+        History dropped = history.remove(key);
+        for (History node = dropped; node != null; node = node.older) {
+            versionStats.onDropped(node.state.value());
+            released(node.state.value());
+        }
+    }
+
+    /**
+     * Keeps the chain down to the first state visible at the oldest pin and cuts off the rest.
+     */
+    private void truncate(History chain, long oldest) {
+        History node = chain;
+        while (node != null && node.state.version() > oldest) {
+            node = node.older;
+        }
+        if (node != null) {
+            History cut = node.older;
+            node.older = null;
+            for (; cut != null; cut = cut.older) {
+                versionStats.onDropped(cut.state.value());
+                released(cut.state.value());
+            }
+        }
+    }
+
+    private String decode(String key, VersionedValue state) {
+        return state == null || state.isTombstone() ? null : codec.decode(resolve(key, state), compressionStats);
+    }
+
+    /**
+     * Keys with a live value. Iteration is weakly consistent with concurrent writes; use a
+     * {@link Snapshot} when a consistent view is needed.
+     */
+    public Iterable<String> keys() {
+        return () -> new Iterator<>() {
+            private final Iterator<String> it = entries.keyIterator();
+            private String next = advance();
+
+            private String advance() {
+                while (it.hasNext()) {
+                    String key = it.next();
+                    if (!tombstones.contains(key)) {
+                        return key;
+                    }
+                }
+                return null;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public String next() {
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+                String current = next;
+                next = advance();
+                return current;
+            }
+        };
+    }
+
+    public int size() {
+        return (int) liveKeys.sum();
+    }
+
+    /**
+     * Approximate bytes held for the key: its current state in the engine plus any superseded
+     * versions retained for snapshots, including values kept in the value log. 0 if it has neither.
+     */
+    public long memoryUsage(String key) {
+        long bytes = entries.entryBytes(key);
+        VersionedValue head = entries.get(key);
+        if (head != null && ValueLog.isPointer(head.value())) {
+            bytes += ValueLog.length(head.value());
+        }
+        for (History node = history.get(key); node != null; node = node.older) {
+            byte[] value = node.state.value();
+            bytes += HISTORY_OVERHEAD + (value == null ? 0 : value.length)
+                    + (ValueLog.isPointer(value) ? ValueLog.length(value) : 0);
+        }
+        return bytes;
+    }
+
+    /**
+     * Approximate heap bytes held by versions retained for snapshots, across all keys.
+     */
+    public long historyBytes() {
+        return versionStats.getHistoryVersions() * HISTORY_OVERHEAD + versionStats.getHistoryBytes();
+    }
+
+    /**
+     * Approximate heap bytes held by the namespace: the engine's footprint plus retained history.
+     * Both are maintained incrementally as keys are written and removed, so this is cheap to call.
+     */
+    public long memoryBytes() {
+        return entries.footprintBytes() + historyBytes();
+    }
+
+    public String getNamespace() {
+        return namespace;
+    }
+
+    public CompressionStats getCompressionStats() {
+        return compressionStats;
+    }
+
+    public VersionStats getVersionStats() {
+        return versionStats;
+    }
+
+    public StorageEngine getEngine() {
+        return entries;
+    }
+
+    /**
+     * The log large values are kept in, or null if every value is kept in the engine.
+     */
+    public ValueLog getValueLog() {
+        return valueLog;
+    }
+
+    /**
+     * A consistent, read-only view of the store as of one version. Reading through it never
+     * blocks writers. Close it so the history it holds on to can be collected.
+     */
+    public final class Snapshot implements AutoCloseable {
+        private final long version;
+        private boolean closed;
+
+        private Snapshot(long version) {
+            this.version = version;
+        }
+
+        public long getVersion() {
+            return version;
+        }
+
+        public byte[] getEncoded(String key) {
+            while (true) {
+                VersionedValue visible = visible(key);
+                byte[] value = visible == null ? null : visible.value();
+                if (!ValueLog.isPointer(value)) {
+                    return value;
+                }
+                byte[] logged = valueLog.read(value);
+                // Only heads move; history keeps its segments alive until it is collected
+                if (logged != null) {
+                    return logged;
+                }
+            }
+        }
+
+        private VersionedValue visible(String key) {
+            VersionedValue head = entries.get(key);
+            if (head != null && head.version() <= version) {
+                return head;
+            }
+            for (History node = history.get(key); node != null; node = node.older) {
+                if (node.state.version() <= version) {
+                    return node.state;
+                }
+            }
+            return null;
+        }
+
+        public String get(String key) {
+            byte[] encoded = getEncoded(key);
+            return encoded == null ? null : codec.decode(encoded, compressionStats);
+        }
+
+        /**
+         * Visits every key that had a value at this snapshot's version, with that value.
+         */
+        public void forEach(BiConsumer<String, byte[]> action) {
+            for (Iterator<String> it = entries.keyIterator(); it.hasNext(); ) {
+                String key = it.next();
+                byte[] encoded = getEncoded(key);
+                if (encoded != null) {
+                    action.accept(key, encoded);
+                }
+            }
+        }
+
+        @Override
+        public synchronized void close() {
+            if (!closed) {
+                closed = true;
+                release(version);
+            }
+        }
+    }
+
+    public record Update(String value, byte[] encoded) {
+    }
+
+    public record BatchOp(String key, UnaryOperator<String> function) {
+    }
+
+    /**
+     * Superseded states of one key, newest first.
+     */
+    private static final class History {
+        final VersionedValue state;
+        volatile History older;
+
+        History(VersionedValue state, History older) {
+            this.state = state;
+            this.older = older;
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.db.memory.storage;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The default namespace's keys across both value types: strings live in a {@link KVStore} and
+ * sorted sets in a {@link SortedSetStore}, and a key may hold only one of them. Checking one store
+ * and writing the other is only safe as one step, so every write that can create a key of either
+ * type holds the key's stripe here from the type check until it is applied.
+ */
+public class Keyspace {
+    private static final int STRIPES = 1024;
+
+    private final KVStore strings;
+    private final SortedSetStore sortedSets;
+    private final Lock[] stripes = new Lock[STRIPES];
+
+    public Keyspace(KVStore strings, SortedSetStore sortedSets) {
+        this.strings = strings;
+        this.sortedSets = sortedSets;
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * One lock per stripe the keys fall in, in stripe order so two writers never deadlock.
+     */
+    public List<Lock> locks(Collection<String> keys) {
+        TreeMap<Integer, Lock> held = new TreeMap<>();
+        for (String key : keys) {
+            int stripe = Math.floorMod(key.hashCode(), STRIPES);
+            held.put(stripe, stripes[stripe]);
+        }
+        return List.copyOf(held.values());
+    }
+
+    public boolean holdsString(String key) {
+        return strings.getEncoded(key) != null;
+    }
+
+    public boolean holdsSortedSet(String key) {
+        return sortedSets.get(key) != null;
+    }
+}
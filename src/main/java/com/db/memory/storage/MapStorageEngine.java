@@ -0,0 +1,69 @@
+package com.db.memory.storage;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.UnaryOperator;
+
+/**
+ * Default engine: a ConcurrentHashMap of String keys to value objects. Fast and simple, but every
+ * entry costs a map node, a String, and a value record and array on top of the payload.
+ */
+public class MapStorageEngine implements StorageEngine {
+    // Map node 32, table slot 8, String 24 plus array header 16, record 24, value array header 16
+    static final int ENTRY_OVERHEAD = 120;
+
+    private final Map<String, VersionedValue> entries = new ConcurrentHashMap<>();
+    private final LongAdder payloadBytes = new LongAdder();
+
+    @Override
+    public VersionedValue get(String key) {
+        return entries.get(key);
+    }
+
+    @Override
+    public VersionedValue compute(String key, UnaryOperator<VersionedValue> function) {
+        return entries.compute(key, (k, current) -> {
+            VersionedValue next = function.apply(current);
+            if (next != current) {
+                payloadBytes.add(payload(k, next) - payload(k, current));
+            }
+            return next;
+        });
+    }
+
+    @Override
+    public Iterator<String> keyIterator() {
+        return entries.keySet().iterator();
+    }
+
+    @Override
+    public long size() {
+        return entries.size();
+    }
+
+    @Override
+    public long footprintBytes() {
+        return entries.size() * (long) ENTRY_OVERHEAD + payloadBytes.sum();
+    }
+
+    @Override
+    public long entryBytes(String key) {
+        VersionedValue state = entries.get(key);
+        return state == null ? 0 : ENTRY_OVERHEAD + payload(key, state);
+    }
+
+    @Override
+    public String name() {
+        return "map";
+    }
+
+    static long payload(String key, VersionedValue state) {
+        if (state == null) {
+            return 0;
+        }
+        // Keys are assumed Latin-1, which is how the JVM stores ASCII strings
+        return key.length() + (state.value() == null ? 0 : state.value().length);
+    }
+}
@@ -0,0 +1,207 @@
+package com.db.memory.storage;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+
+/**
+ * Thread-per-core engine: the key space is split into shards, each a plain HashMap owned by one
+ * event-loop thread, so a shard's entries are only ever touched by the core running that thread
+ * and nothing is locked. Connection threads hand every read and write to the owning shard through
+ * its lock-free multi-producer queue and wait for the answer; a shard drains its queue in a tight
+ * loop and only parks once it has been idle for a while.
+ */
+public class ShardedStorageEngine implements StorageEngine {
+    // Spinning only pays off when the producer and the shard can run at the same time
+    private static final int SPINS = Runtime.getRuntime().availableProcessors() > 1 ? 200 : 0;
+
+    private final Shard[] shards;
+
+    public ShardedStorageEngine(int shardCount) {
+        this.shards = new Shard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new Shard(i);
+        }
+    }
+
+    @Override
+    public VersionedValue get(String key) {
+        return shardOf(key).call(map -> map.get(key));
+    }
+
+    @Override
+    public VersionedValue compute(String key, UnaryOperator<VersionedValue> function) {
+        Shard shard = shardOf(key);
+        return shard.call(map -> {
+            VersionedValue current = map.get(key);
+            VersionedValue next = function.apply(current);
+            if (next != current) {
+                if (next == null) {
+                    map.remove(key);
+                } else {
+                    map.put(key, next);
+                }
+                // Single writer, so plain read-then-write of the volatile counters is safe
+                shard.payloadBytes += MapStorageEngine.payload(key, next) - MapStorageEngine.payload(key, current);
+                shard.size = map.size();
+            }
+            return next;
+        });
+    }
+
+    /**
+     * Copies one shard's keys at a time, so iteration never holds up a shard for long.
+     */
+    @Override
+    public Iterator<String> keyIterator() {
+        return new Iterator<>() {
+            private int next;
+            private Iterator<String> current = List.<String>of().iterator();
+
+            @Override
+            public boolean hasNext() {
+                while (!current.hasNext() && next < shards.length) {
+                    current = shards[next++].call(map -> new ArrayList<>(map.keySet())).iterator();
+                }
+                return current.hasNext();
+            }
+
+            @Override
+            public String next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return current.next();
+            }
+        };
+    }
+
+    @Override
+    public long size() {
+        long size = 0;
+        for (Shard shard : shards) {
+            size += shard.size;
+        }
+        return size;
+    }
+
+    @Override
+    public long footprintBytes() {
+        long bytes = 0;
+        for (Shard shard : shards) {
+            bytes += shard.size * (long) MapStorageEngine.ENTRY_OVERHEAD + shard.payloadBytes;
+        }
+        return bytes;
+    }
+
+    @Override
+    public long entryBytes(String key) {
+        VersionedValue state = get(key);
+        return state == null ? 0 : MapStorageEngine.ENTRY_OVERHEAD + MapStorageEngine.payload(key, state);
+    }
+
+    @Override
+    public String name() {
+        return "sharded";
+    }
+
+    private Shard shardOf(String key) {
+        int h = key.hashCode() * 0x9E3779B9;
+        return shards[Math.floorMod(h ^ (h >>> 16), shards.length)];
+    }
+
+    /**
+     * One request handed to a shard; the caller waits on it until the shard has run it.
+     */
+    private static final class Task {
+        private final Function<Map<String, VersionedValue>, Object> operation;
+        private final Thread caller = Thread.currentThread();
+        private Object result;
+        private Throwable failure;
+        private volatile boolean done;
+
+        Task(Function<Map<String, VersionedValue>, Object> operation) {
+            this.operation = operation;
+        }
+    }
+
+    private static final class Shard implements Runnable {
+        private final Map<String, VersionedValue> map = new HashMap<>();
+        private final Queue<Task> queue = new ConcurrentLinkedQueue<>();
+        private final Thread thread;
+        private volatile boolean parked;
+        private volatile long size;
+        private volatile long payloadBytes;
+
+        Shard(int index) {
+            this.thread = new Thread(this, "shard-" + index);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        @SuppressWarnings("unchecked")
+        <T> T call(Function<Map<String, VersionedValue>, T> operation) {
+            if (Thread.currentThread() == thread) {
+                // Re-entered from an operation already running on this shard
+                return operation.apply(map);
+            }
+            Task task = new Task((Function<Map<String, VersionedValue>, Object>) operation);
+            queue.offer(task);
+            if (parked) {
+                LockSupport.unpark(thread);
+            }
+            for (int i = 0; i < SPINS && !task.done; i++) {
+                Thread.onSpinWait();
+            }
+            while (!task.done) {
+                LockSupport.park(this);
+            }
+            if (task.failure instanceof RuntimeException e) {
+                throw e;
+            }
+            if (task.failure instanceof Error e) {
+                throw e;
+            }
+            return (T) task.result;
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                Task task = queue.poll();
+                for (int i = 0; task == null && i < SPINS; i++) {
+                    Thread.onSpinWait();
+                    task = queue.poll();
+                }
+                if (task == null) {
+                    // Publish the intent to park before the last look, so an offer can't slip past unnoticed
+                    parked = true;
+                    task = queue.poll();
+                    if (task == null) {
+                        LockSupport.park(this);
+                        parked = false;
+                        continue;
+                    }
+                    parked = false;
+                }
+                // Whatever the operation throws goes back to its caller, who would otherwise wait
+                // forever, and the shard carries on with the next task
+                try {
+                    task.result = task.operation.apply(map);
+                } catch (Throwable e) {
+                    task.failure = e;
+                }
+                task.done = true;
+                LockSupport.unpark(task.caller);
+            }
+        }
+    }
+}
@@ -0,0 +1,272 @@
+package com.db.memory.storage;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Members ordered by score (ties broken by member), as a skip list plus a member-to-score map.
+ * Every link in the skip list records how many members it jumps over, so a member's rank and the
+ * member at a given rank are both found in O(log n), not just lookups by score. Reads share a
+ * lock and run concurrently; updates take it exclusively.
+ */
+public class SortedSet {
+    private static final int MAX_LEVEL = 32;
+    // Member String 24 plus array header 16, node 32, next and span array headers 32, HashMap node
+    // 32 and table slot 8, boxed score 16; each skip-list level adds a link and a span on top
+    private static final int MEMBER_OVERHEAD = 160;
+    private static final int LEVEL_BYTES = 8;
+    // The set, its HashMap and a head node with all MAX_LEVEL levels
+    private static final int SET_OVERHEAD = 128 + MAX_LEVEL * LEVEL_BYTES;
+
+    private final Map<String, Double> scores = new HashMap<>();
+    private final Node head = new Node(null, 0, MAX_LEVEL);
+    private final StampedLock lock = new StampedLock();
+    private int level = 1;
+    private int length;
+    private long memberBytes;
+
+    /**
+     * Adds the member or moves it to a new score. Returns its previous score, or null if it is new.
+     */
+    public Double add(String member, double score) {
+        long stamp = lock.writeLock();
+        try {
+            Double previous = scores.put(member, score);
+            if (previous != null) {
+                if (previous == score) {
+                    return previous;
+                }
+                delete(member, previous);
+            }
+            insert(member, score);
+            return previous;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public boolean remove(String member) {
+        long stamp = lock.writeLock();
+        try {
+            Double score = scores.remove(member);
+            if (score == null) {
+                return false;
+            }
+            delete(member, score);
+            return true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public Double score(String member) {
+        long stamp = lock.readLock();
+        try {
+            return scores.get(member);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Zero-based position of the member in score order, or -1 if it is not in the set.
+     */
+    public int rank(String member) {
+        long stamp = lock.readLock();
+        try {
+            Double score = scores.get(member);
+            if (score == null) {
+                return -1;
+            }
+            int rank = 0;
+            Node x = head;
+            for (int i = level - 1; i >= 0; i--) {
+                while (x.next[i] != null && !after(x.next[i], member, score)) {
+                    rank += x.span[i];
+                    x = x.next[i];
+                }
+            }
+            return rank - 1;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Members from rank start to stop inclusive. Negative ranks count back from the highest score,
+     * so 0 -1 is the whole set.
+     */
+    public List<Entry> range(long start, long stop) {
+        long stamp = lock.readLock();
+        try {
+            if (start < 0) {
+                start += length;
+            }
+            if (stop < 0) {
+                stop += length;
+            }
+            start = Math.max(0, start);
+            stop = Math.min(stop, length - 1);
+            if (start > stop) {
+                return List.of();
+            }
+            List<Entry> entries = new ArrayList<>((int) (stop - start + 1));
+            for (Node x = nodeAt(start + 1); entries.size() <= stop - start; x = x.next[0]) {
+                entries.add(new Entry(x.member, x.score));
+            }
+            return entries;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    public int size() {
+        long stamp = lock.readLock();
+        try {
+            return length;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Approximate heap bytes held by the set, kept up to date by every add and remove.
+     */
+    public long memoryBytes() {
+        long stamp = lock.readLock();
+        try {
+            return SET_OVERHEAD + memberBytes;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    private void insert(String member, double score) {
+        Node[] update = new Node[MAX_LEVEL];
+        int[] rank = new int[MAX_LEVEL];
+        Node x = head;
+        for (int i = level - 1; i >= 0; i--) {
+            rank[i] = i == level - 1 ? 0 : rank[i + 1];
+            while (x.next[i] != null && before(x.next[i], member, score)) {
+                rank[i] += x.span[i];
+                x = x.next[i];
+            }
+            update[i] = x;
+        }
+        int nodeLevel = randomLevel();
+        if (nodeLevel > level) {
+            for (int i = level; i < nodeLevel; i++) {
+                rank[i] = 0;
+                update[i] = head;
+                head.span[i] = length;
+            }
+            level = nodeLevel;
+        }
+        x = new Node(member, score, nodeLevel);
+        for (int i = 0; i < nodeLevel; i++) {
+            x.next[i] = update[i].next[i];
+            update[i].next[i] = x;
+            x.span[i] = update[i].span[i] - (rank[0] - rank[i]);
+            update[i].span[i] = rank[0] - rank[i] + 1;
+        }
+        // Links above the new node now jump over one more member
+        for (int i = nodeLevel; i < level; i++) {
+            update[i].span[i]++;
+        }
+        length++;
+        memberBytes += nodeBytes(x);
+    }
+
+    private void delete(String member, double score) {
+        Node[] update = new Node[MAX_LEVEL];
+        Node x = head;
+        for (int i = level - 1; i >= 0; i--) {
+            while (x.next[i] != null && before(x.next[i], member, score)) {
+                x = x.next[i];
+            }
+            update[i] = x;
+        }
+        x = x.next[0];
+        for (int i = 0; i < level; i++) {
+            if (update[i].next[i] == x) {
+                update[i].span[i] += x.span[i] - 1;
+                update[i].next[i] = x.next[i];
+            } else {
+                update[i].span[i]--;
+            }
+        }
+        while (level > 1 && head.next[level - 1] == null) {
+            level--;
+        }
+        length--;
+        memberBytes -= nodeBytes(x);
+    }
+
+    /**
+     * The node at a one-based rank, which must be within the set.
+     */
+    private Node nodeAt(long rank) {
+        long traversed = 0;
+        Node x = head;
+        for (int i = level - 1; i >= 0; i--) {
+            while (x.next[i] != null && traversed + x.span[i] <= rank) {
+                traversed += x.span[i];
+                x = x.next[i];
+            }
+            if (traversed == rank) {
+                return x;
+            }
+        }
+        throw new IllegalStateException("Rank " + rank + " out of range");
+    }
+
+    private static boolean before(Node node, String member, double score) {
+        return node.score < score || (node.score == score && node.member.compareTo(member) < 0);
+    }
+
+    private static boolean after(Node node, String member, double score) {
+        return node.score > score || (node.score == score && node.member.compareTo(member) > 0);
+    }
+
+    private static long nodeBytes(Node node) {
+        // Members are assumed Latin-1, like keys
+        return MEMBER_OVERHEAD + node.member.length() + (long) node.next.length * LEVEL_BYTES;
+    }
+
+    private static int randomLevel() {
+        int level = 1;
+        while (level < MAX_LEVEL && ThreadLocalRandom.current().nextInt(4) == 0) {
+            level++;
+        }
+        return level;
+    }
+
+    /**
+     * Scores print as integers when they are whole, so "ZADD board 10 alice" reads back as 10.
+     */
+    public static String formatScore(double score) {
+        return score == Math.rint(score) && Math.abs(score) < 1e15 ? Long.toString((long) score) : Double.toString(score);
+    }
+
+    public record Entry(String member, double score) {
+    }
+
+    private static final class Node {
+        final String member;
+        final double score;
+        final Node[] next;
+        // span[i] is how many ranks next[i] is ahead of this node
+        final int[] span;
+
+        Node(String member, double score, int level) {
+            this.member = member;
+            this.score = score;
+            this.next = new Node[level];
+            this.span = new int[level];
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package com.db.memory.storage;
+
+/**
+ * Notified of every member change in a {@link SortedSetStore}. Callbacks run on the writing thread
+ * inside the key's update, so one key's changes arrive in the order they were made.
+ */
+public interface SortedSetListener {
+
+    /**
+     * @param previous the member's score before the change, or null if it was absent
+     * @param score    its score after the change, or null if it was removed
+     */
+    void onMember(String key, String member, Double previous, Double score);
+}
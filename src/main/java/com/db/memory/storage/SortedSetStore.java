@@ -0,0 +1,213 @@
+package com.db.memory.storage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+/**
+ * The sorted-set keys of a node. A set is created by its first add and dropped once its last
+ * member is removed; both happen inside the key's compute so a concurrent add never lands in a
+ * set that is being dropped.
+ */
+public class SortedSetStore {
+    // Map node 32, table slot 8, key String 24 plus array header 16
+    private static final int KEY_OVERHEAD = 80;
+
+    private final Map<String, SortedSet> sets = new ConcurrentHashMap<>();
+    private final LongAdder memoryBytes = new LongAdder();
+    private final List<SortedSetListener> listeners = new CopyOnWriteArrayList<>();
+
+    public void addListener(SortedSetListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Adds or re-scores the members in one step. Returns how many were new, and the entries that
+     * actually changed, which are all replicas need to hear about.
+     */
+    public AddResult add(String key, List<SortedSet.Entry> entries) {
+        int[] added = {0};
+        List<SortedSet.Entry> changed = new ArrayList<>(entries.size());
+        sets.compute(key, (k, set) -> {
+            SortedSet target = set == null ? new SortedSet() : set;
+            long before = set == null ? 0 : memoryUsage(k, set);
+            for (SortedSet.Entry entry : entries) {
+                Double previous = target.add(entry.member(), entry.score());
+                if (previous == null) {
+                    added[0]++;
+                }
+                if (previous == null || previous != entry.score()) {
+                    changed.add(entry);
+                    notify(k, entry.member(), previous, entry.score());
+                }
+            }
+            memoryBytes.add(memoryUsage(k, target) - before);
+            return target;
+        });
+        return new AddResult(added[0], changed);
+    }
+
+    /**
+     * Removes the members, returning the ones that were present.
+     */
+    public List<String> remove(String key, List<String> members) {
+        List<String> removed = new ArrayList<>(members.size());
+        sets.computeIfPresent(key, (k, set) -> {
+            long before = memoryUsage(k, set);
+            for (String member : members) {
+                Double score = set.score(member);
+                if (score != null && set.remove(member)) {
+                    removed.add(member);
+                    notify(k, member, score, null);
+                }
+            }
+            boolean empty = set.size() == 0;
+            memoryBytes.add((empty ? 0 : memoryUsage(k, set)) - before);
+            return empty ? null : set;
+        });
+        return removed;
+    }
+
+    /**
+     * Drops the key's whole set. Returns false if it had none.
+     */
+    public boolean delete(String key) {
+        boolean[] deleted = {false};
+        sets.computeIfPresent(key, (k, set) -> {
+            memoryBytes.add(-memoryUsage(k, set));
+            for (SortedSet.Entry entry : set.range(0, -1)) {
+                notify(k, entry.member(), entry.score(), null);
+            }
+            deleted[0] = true;
+            return null;
+        });
+        return deleted[0];
+    }
+
+    /**
+     * Creates the key's set with the given members only if it has none, so a set copied in from
+     * elsewhere never overwrites one written here. Returns false if the key already had a set.
+     */
+    public boolean putIfAbsent(String key, List<SortedSet.Entry> entries) {
+        boolean[] created = {false};
+        sets.computeIfAbsent(key, k -> {
+            created[0] = true;
+            return fill(k, entries);
+        });
+        return created[0];
+    }
+
+    /**
+     * Makes the key's set hold exactly the given members, none meaning no set, unless skip holds
+     * for the key. Skip is tested inside the key's update, so it sees every write made before.
+     * Returns false if skipped.
+     */
+    public boolean replace(String key, List<SortedSet.Entry> entries, Predicate<String> skip) {
+        boolean[] replaced = {false};
+        sets.compute(key, (k, set) -> {
+            if (skip.test(k)) {
+                return set;
+            }
+            if (set != null) {
+                memoryBytes.add(-memoryUsage(k, set));
+                for (SortedSet.Entry entry : set.range(0, -1)) {
+                    notify(k, entry.member(), entry.score(), null);
+                }
+            }
+            replaced[0] = true;
+            return entries.isEmpty() ? null : fill(k, entries);
+        });
+        return replaced[0];
+    }
+
+    private SortedSet fill(String key, List<SortedSet.Entry> entries) {
+        SortedSet set = new SortedSet();
+        for (SortedSet.Entry entry : entries) {
+            Double previous = set.add(entry.member(), entry.score());
+            notify(key, entry.member(), previous, entry.score());
+        }
+        memoryBytes.add(memoryUsage(key, set));
+        return set;
+    }
+
+    private void notify(String key, String member, Double previous, Double score) {
+        for (SortedSetListener listener : listeners) {
+            listener.onMember(key, member, previous, score);
+        }
+    }
+
+    /**
+     * The key's members as "score member ..." pairs, the form migration and anti-entropy send
+     * sets in, or null if it has no set.
+     */
+    public String format(String key) {
+        SortedSet set = sets.get(key);
+        if (set == null) {
+            return null;
+        }
+        StringBuilder pairs = new StringBuilder();
+        for (SortedSet.Entry entry : set.range(0, -1)) {
+            if (!pairs.isEmpty()) {
+                pairs.append(' ');
+            }
+            pairs.append(SortedSet.formatScore(entry.score())).append(' ').append(entry.member());
+        }
+        return pairs.toString();
+    }
+
+    /**
+     * Reads back what {@link #format(String)} wrote, starting at the given token.
+     */
+    public static List<SortedSet.Entry> parse(String[] tokens, int from) {
+        List<SortedSet.Entry> entries = new ArrayList<>((tokens.length - from) / 2);
+        for (int i = from; i + 1 < tokens.length; i += 2) {
+            entries.add(new SortedSet.Entry(tokens[i + 1], Double.parseDouble(tokens[i])));
+        }
+        return entries;
+    }
+
+    /**
+     * The key's set for reading, or null if it has none.
+     */
+    public SortedSet get(String key) {
+        return sets.get(key);
+    }
+
+    /**
+     * Approximate heap bytes held for the key's set, or 0 if it has none.
+     */
+    public long memoryUsage(String key) {
+        SortedSet set = sets.get(key);
+        return set == null ? 0 : memoryUsage(key, set);
+    }
+
+    /**
+     * Approximate heap bytes held by all sets, maintained on every add and remove.
+     */
+    public long memoryBytes() {
+        return memoryBytes.sum();
+    }
+
+    /**
+     * Keys holding a set. Weakly consistent with concurrent writes.
+     */
+    public Iterable<String> keys() {
+        return sets.keySet();
+    }
+
+    private static long memoryUsage(String key, SortedSet set) {
+        return KEY_OVERHEAD + key.length() + set.memoryBytes();
+    }
+
+    @Override
+    public String toString() {
+        return "sortedSets=" + sets.size() + " sortedSetBytes=" + memoryBytes.sum();
+    }
+
+    public record AddResult(int added, List<SortedSet.Entry> changed) {
+    }
+}
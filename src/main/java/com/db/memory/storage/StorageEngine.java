@@ -0,0 +1,71 @@
+package com.db.memory.storage;
+
+import java.util.Iterator;
+import java.util.function.UnaryOperator;
+
+/**
+ * The map underneath a {@link KVStore}: current state per key, with an atomic per-key compute.
+ * Versioning, snapshots, stats and listeners all live in KVStore, so an engine only decides how
+ * entries are laid out in memory.
+ */
+public interface StorageEngine {
+
+    /**
+     * Current state of the key, or null if it has none.
+     */
+    VersionedValue get(String key);
+
+    /**
+     * Atomically replaces the key's state with the function's result (null removes it). The
+     * function may return its argument unchanged to leave the entry as it is. Returns the new state.
+     */
+    VersionedValue compute(String key, UnaryOperator<VersionedValue> function);
+
+    /**
+     * Keys with a state, including tombstones. Weakly consistent with concurrent writes.
+     */
+    Iterator<String> keyIterator();
+
+    /**
+     * Number of keys with a state, including tombstones.
+     */
+    long size();
+
+    /**
+     * Approximate heap bytes held by the engine's own structures, keys and values.
+     */
+    long footprintBytes();
+
+    /**
+     * Approximate heap bytes held for the keys' current states, which is what removing keys gives
+     * back. Engines that keep overwritten data until they compact it report less here than
+     * {@link #footprintBytes()}.
+     */
+    default long liveBytes() {
+        return footprintBytes();
+    }
+
+    /**
+     * Approximate heap bytes held for the key's current state, or 0 if it has none.
+     */
+    long entryBytes(String key);
+
+    String name();
+
+    /**
+     * Engine named by kv.storage.engine: "map" (default), "compact" or "sharded".
+     */
+    static StorageEngine fromSystemProperties() {
+        return create(System.getProperty("kv.storage.engine", "map"));
+    }
+
+    static StorageEngine create(String name) {
+        return switch (name) {
+            case "compact" -> new CompactStorageEngine(Integer.getInteger("kv.storage.compact.stripes", 64));
+            case "map" -> new MapStorageEngine();
+            case "sharded" -> new ShardedStorageEngine(
+                    Integer.getInteger("kv.storage.shards", Runtime.getRuntime().availableProcessors()));
+            default -> throw new IllegalArgumentException("Unknown storage engine " + name);
+        };
+    }
+}
@@ -0,0 +1,15 @@
+package com.db.memory.storage;
+
+/**
+ * Notified after every change to a {@link KVStore}. Callbacks run on the writing thread and
+ * may arrive out of order for concurrent writes, so listeners must only keep commutative state.
+ */
+public interface StoreListener {
+
+    /**
+     * @param previous the encoded value that was replaced, or null if the key was absent
+     */
+    void onPut(String key, byte[] previous, byte[] encoded);
+
+    void onRemove(String key, byte[] previous);
+}
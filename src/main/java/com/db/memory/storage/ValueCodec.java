@@ -0,0 +1,112 @@
+package com.db.memory.storage;
+
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4FastDecompressor;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * ValueCodec converts client values into the byte form kept in the store and shipped to replicas.
+ * Values at or above the size threshold are LZ4-compressed; smaller ones are kept as plain UTF-8.
+ * The first byte of every encoded value tags its format, so either form can be decoded anywhere.
+ */
+public class ValueCodec {
+    public static final byte RAW = 0;
+    public static final byte LZ4 = 1;
+    public static final int DEFAULT_THRESHOLD = 1024;
+
+    private static final int LZ4_HEADER = 5;
+    private static final LZ4Factory FACTORY = LZ4Factory.fastestInstance();
+
+    private final int threshold;
+    private final LZ4Compressor compressor = FACTORY.fastCompressor();
+    private final LZ4FastDecompressor decompressor = FACTORY.fastDecompressor();
+
+    public ValueCodec(int threshold) {
+        this.threshold = threshold;
+    }
+
+    public static ValueCodec fromSystemProperties() {
+        return new ValueCodec(Integer.getInteger("kv.compression.threshold", DEFAULT_THRESHOLD));
+    }
+
+    public byte[] encode(String value, CompressionStats stats) {
+        byte[] raw = value.getBytes(StandardCharsets.UTF_8);
+        if (threshold <= 0 || raw.length < threshold) {
+            return wrapRaw(raw);
+        }
+
+        long start = System.nanoTime();
+        byte[] out = new byte[LZ4_HEADER + compressor.maxCompressedLength(raw.length)];
+        int compressedLength = compressor.compress(raw, 0, raw.length, out, LZ4_HEADER);
+        stats.recordCompress(System.nanoTime() - start);
+
+        // Incompressible payloads are cheaper to keep raw than to decompress on every read
+        if (LZ4_HEADER + compressedLength >= raw.length + 1) {
+            return wrapRaw(raw);
+        }
+        out[0] = LZ4;
+        ByteBuffer.wrap(out, 1, 4).putInt(raw.length);
+        byte[] encoded = new byte[LZ4_HEADER + compressedLength];
+        System.arraycopy(out, 0, encoded, 0, encoded.length);
+        return encoded;
+    }
+
+    public String decode(byte[] encoded, CompressionStats stats) {
+        if (encoded[0] == RAW) {
+            return new String(encoded, 1, encoded.length - 1, StandardCharsets.UTF_8);
+        }
+        long start = System.nanoTime();
+        int rawLength = rawLength(encoded);
+        byte[] raw = new byte[rawLength];
+        decompressor.decompress(encoded, LZ4_HEADER, raw, 0, rawLength);
+        stats.recordDecompress(System.nanoTime() - start);
+        return new String(raw, StandardCharsets.UTF_8);
+    }
+
+    public static boolean isCompressed(byte[] encoded) {
+        return encoded[0] == LZ4;
+    }
+
+    /**
+     * Size of the value as the client sent it, read from the header without decompressing.
+     */
+    public static int rawLength(byte[] encoded) {
+        if (encoded[0] == RAW) {
+            return encoded.length - 1;
+        }
+        return (encoded[1] & 0xFF) << 24 | (encoded[2] & 0xFF) << 16 | (encoded[3] & 0xFF) << 8 | encoded[4] & 0xFF;
+    }
+
+    /**
+     * Writes the value's UTF-8 bytes into target at offset, decompressing if needed, without
+     * going through a String. target must have room for {@link #rawLength(byte[])} bytes.
+     */
+    public int decodeInto(byte[] encoded, byte[] target, int offset, CompressionStats stats) {
+        int rawLength = rawLength(encoded);
+        if (encoded[0] == RAW) {
+            System.arraycopy(encoded, 1, target, offset, rawLength);
+            return rawLength;
+        }
+        long start = System.nanoTime();
+        decompressor.decompress(encoded, LZ4_HEADER, target, offset, rawLength);
+        stats.recordDecompress(System.nanoTime() - start);
+        return rawLength;
+    }
+
+    /**
+     * Text of an uncompressed value. Callers must check {@link #isCompressed(byte[])} first.
+     */
+    public static String rawString(byte[] encoded) {
+        return new String(encoded, 1, encoded.length - 1, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] wrapRaw(byte[] raw) {
+        byte[] encoded = new byte[raw.length + 1];
+        encoded[0] = RAW;
+        System.arraycopy(raw, 0, encoded, 1, raw.length);
+        return encoded;
+    }
+}
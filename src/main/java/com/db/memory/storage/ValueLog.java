@@ -0,0 +1,407 @@
+package com.db.memory.storage;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Append-only, memory-mapped log for large values. A {@link KVStore} with a value log keeps any
+ * encoded value at or above the threshold here and only a small pointer in its engine, so values
+ * of several MB live in mapped files rather than on the heap, and a GET can send an uncompressed
+ * one to the socket with {@link FileChannel#transferTo} without copying it through the JVM.
+ *
+ * The log is a series of segment files, each mapped whole. A record is the key followed by the
+ * encoded value, so a segment can be scanned on its own. Once a sealed segment's live values fall
+ * below the compaction ratio, they are copied forward into the active segment and the store swaps
+ * each key's pointer if it still points at the old copy. A segment with nothing live left is
+ * deleted one compaction pass after it drained, so readers that picked up one of its pointers just
+ * before can still finish; a reader that finds the segment gone re-reads the key.
+ *
+ * The log only extends memory: it lives in a private directory removed when the JVM exits, and is
+ * never read back after a restart.
+ */
+public class ValueLog {
+    static final byte POINTER = 2;
+    // Tag, segment id, value offset and value length
+    private static final int POINTER_LENGTH = 13;
+
+    private final Path directory;
+    private final int threshold;
+    private final int segmentBytes;
+    private final double compactRatio;
+    private final Map<Integer, Segment> segments = new ConcurrentHashMap<>();
+    // Held for a whole pass, separately from the append lock so writers aren't held up
+    private final Object compactLock = new Object();
+    private Segment active;
+    private int nextSegment;
+    private Relocator relocator;
+
+    private final LongAdder appendedBytes = new LongAdder();
+    private final LongAdder compactedBytes = new LongAdder();
+    private final LongAdder retiredSegments = new LongAdder();
+    private final LongAdder transfers = new LongAdder();
+
+    /**
+     * The owning store's side of compaction.
+     */
+    interface Relocator {
+        /**
+         * Whether the key's current value is the one at the pointer.
+         */
+        boolean pointsAt(String key, byte[] pointer);
+
+        /**
+         * Points the key at the copy, if it still points at the original.
+         */
+        boolean relocate(String key, byte[] from, byte[] to);
+    }
+
+    public ValueLog(Path directory, int threshold, int segmentBytes, double compactRatio) {
+        this.directory = directory;
+        this.threshold = threshold;
+        this.segmentBytes = segmentBytes;
+        this.compactRatio = compactRatio;
+    }
+
+    /**
+     * Value log for one namespace, or null when kv.valuelog.threshold is 0. Encoded values of at
+     * least kv.valuelog.threshold bytes (default 1 MB) are logged into kv.valuelog.segment.bytes
+     * segments (default 64 MB) under kv.valuelog.dir (default the temp directory). A segment is
+     * compacted once less than kv.valuelog.compact.ratio (default 0.5) of it is live.
+     */
+    public static ValueLog fromSystemProperties(String namespace) {
+        int threshold = Integer.getInteger("kv.valuelog.threshold", 1024 * 1024);
+        if (threshold <= 0) {
+            return null;
+        }
+        try {
+            Path parent = Path.of(System.getProperty("kv.valuelog.dir", System.getProperty("java.io.tmpdir")));
+            Files.createDirectories(parent);
+            Path directory = Files.createTempDirectory(parent, "kv-valuelog-" + namespace + "-");
+            directory.toFile().deleteOnExit();
+            return new ValueLog(directory, threshold,
+                    Integer.getInteger("kv.valuelog.segment.bytes", 64 * 1024 * 1024),
+                    Double.parseDouble(System.getProperty("kv.valuelog.compact.ratio", "0.5")));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Starts compacting every kv.valuelog.compact.interval.ms (default 5000) through the store
+     * that owns the log.
+     */
+    synchronized void attach(Relocator relocator) {
+        if (this.relocator != null) {
+            throw new IllegalStateException("Value log " + directory + " already belongs to a store");
+        }
+        this.relocator = relocator;
+        long intervalMs = Long.getLong("kv.valuelog.compact.interval.ms", 5000);
+        if (intervalMs > 0) {
+            ScheduledExecutorService compactor = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "valuelog-compact");
+                t.setDaemon(true);
+                return t;
+            });
+            compactor.scheduleWithFixedDelay(this::compact, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    boolean accepts(byte[] encoded) {
+        return encoded != null && encoded.length >= threshold;
+    }
+
+    static boolean isPointer(byte[] value) {
+        return value != null && value.length == POINTER_LENGTH && value[0] == POINTER;
+    }
+
+    /**
+     * Length of the encoded value a pointer refers to.
+     */
+    static int length(byte[] pointer) {
+        return ByteBuffer.wrap(pointer).getInt(9);
+    }
+
+    /**
+     * Logs the encoded value and returns a pointer to it.
+     */
+    byte[] append(String key, byte[] encoded) throws IOException {
+        return append(key.getBytes(StandardCharsets.UTF_8), ByteBuffer.wrap(encoded));
+    }
+
+    /**
+     * Reserves the record and writes its header under the lock; the value itself, which may be
+     * megabytes, is copied in afterwards so concurrent appends don't queue behind it.
+     */
+    private byte[] append(byte[] key, ByteBuffer value) throws IOException {
+        int length = value.remaining();
+        int recordLength = Integer.BYTES + key.length + Integer.BYTES + length;
+        Segment segment;
+        int valueOffset;
+        synchronized (this) {
+            if (active == null || active.buffer.capacity() - active.written < recordLength) {
+                rotate(recordLength);
+            }
+            segment = active;
+            int offset = segment.written;
+            segment.buffer.putInt(offset, key.length);
+            segment.buffer.put(offset + Integer.BYTES, key);
+            segment.buffer.putInt(offset + Integer.BYTES + key.length, length);
+            valueOffset = offset + Integer.BYTES + key.length + Integer.BYTES;
+            segment.written = offset + recordLength;
+            segment.valueBytes += length;
+            segment.live.add(length);
+        }
+        segment.buffer.put(valueOffset, value, value.position(), length);
+        appendedBytes.add(length);
+        return pointer(segment.id, valueOffset, length);
+    }
+
+    private static byte[] pointer(int segment, int offset, int length) {
+        return ByteBuffer.allocate(POINTER_LENGTH).put(POINTER).putInt(segment).putInt(offset).putInt(length).array();
+    }
+
+    private void rotate(int minBytes) throws IOException {
+        int id = nextSegment++;
+        Path file = directory.resolve("segment-" + id + ".log");
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        file.toFile().deleteOnExit();
+        Segment segment = new Segment(id, file, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(segmentBytes, minBytes)));
+        if (active != null) {
+            active.sealed = true;
+        }
+        segments.put(id, segment);
+        active = segment;
+    }
+
+    /**
+     * Copies the value out of the log, or returns null if its segment has been deleted because
+     * the value was moved or superseded since the pointer was read.
+     */
+    byte[] read(byte[] pointer) {
+        ByteBuffer p = ByteBuffer.wrap(pointer);
+        Segment segment = segments.get(p.getInt(1));
+        if (segment == null) {
+            return null;
+        }
+        byte[] value = new byte[p.getInt(9)];
+        segment.buffer.get(p.getInt(5), value);
+        return value;
+    }
+
+    /**
+     * Sends an uncompressed value's text to the channel straight from the segment file.
+     */
+    Transfer transferRaw(byte[] pointer, WritableByteChannel target) throws IOException {
+        ByteBuffer p = ByteBuffer.wrap(pointer);
+        Segment segment = segments.get(p.getInt(1));
+        if (segment == null || !segment.acquire()) {
+            return Transfer.MOVED;
+        }
+        try {
+            int offset = p.getInt(5);
+            if (segment.buffer.get(offset) != ValueCodec.RAW) {
+                return Transfer.COMPRESSED;
+            }
+            // Skip the format tag; the rest is the UTF-8 text the client stored
+            long position = offset + 1;
+            long remaining = p.getInt(9) - 1;
+            while (remaining > 0) {
+                long sent = segment.channel.transferTo(position, remaining, target);
+                position += sent;
+                remaining -= sent;
+            }
+            transfers.increment();
+            return Transfer.SENT;
+        } finally {
+            segment.releaseReader();
+        }
+    }
+
+    /**
+     * Marks the value a pointer refers to as dead.
+     */
+    void release(byte[] pointer) {
+        ByteBuffer p = ByteBuffer.wrap(pointer);
+        Segment segment = segments.get(p.getInt(1));
+        if (segment != null) {
+            segment.live.add(-p.getInt(9));
+        }
+    }
+
+    /**
+     * One compaction pass: deletes segments that were already drained at the previous pass and
+     * copies the live values out of sparse ones.
+     */
+    public void compact() {
+        Relocator target;
+        synchronized (this) {
+            target = relocator;
+        }
+        if (target == null) {
+            return;
+        }
+        synchronized (compactLock) {
+            for (Segment segment : segments.values()) {
+                if (!segment.sealed) {
+                    continue;
+                }
+                try {
+                    long live = segment.live.sum();
+                    if (live == 0) {
+                        if (segment.drained) {
+                            retire(segment);
+                        }
+                        segment.drained = true;
+                    } else if (live < segment.valueBytes * compactRatio) {
+                        moveLive(segment, target);
+                    }
+                } catch (Exception e) {
+                    System.err.println("[ValueLog] Compacting " + segment.file + " failed: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void moveLive(Segment segment, Relocator target) throws IOException {
+        int end;
+        synchronized (this) {
+            end = segment.written;
+        }
+        for (int offset = 0; offset < end; ) {
+            int keyLength = segment.buffer.getInt(offset);
+            byte[] key = new byte[keyLength];
+            segment.buffer.get(offset + Integer.BYTES, key);
+            int length = segment.buffer.getInt(offset + Integer.BYTES + keyLength);
+            int valueOffset = offset + Integer.BYTES + keyLength + Integer.BYTES;
+            offset = valueOffset + length;
+
+            String name = new String(key, StandardCharsets.UTF_8);
+            byte[] from = pointer(segment.id, valueOffset, length);
+            if (!target.pointsAt(name, from)) {
+                continue;
+            }
+            byte[] to = append(key, segment.buffer.slice(valueOffset, length));
+            if (target.relocate(name, from, to)) {
+                release(from);
+                compactedBytes.add(length);
+            } else {
+                release(to);
+            }
+        }
+    }
+
+    private void retire(Segment segment) {
+        segments.remove(segment.id);
+        segment.retire();
+        retiredSegments.increment();
+        try {
+            Files.deleteIfExists(segment.file);
+        } catch (IOException e) {
+            System.err.println("[ValueLog] Could not delete " + segment.file + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Bytes mapped for all segments.
+     */
+    public long mappedBytes() {
+        long bytes = 0;
+        for (Segment segment : segments.values()) {
+            bytes += segment.buffer.capacity();
+        }
+        return bytes;
+    }
+
+    /**
+     * Bytes of values the store still points at, or that snapshots still need.
+     */
+    public long liveBytes() {
+        long bytes = 0;
+        for (Segment segment : segments.values()) {
+            bytes += segment.live.sum();
+        }
+        return bytes;
+    }
+
+    @Override
+    public String toString() {
+        return "valueLogSegments=" + segments.size() + " valueLogMappedBytes=" + mappedBytes()
+                + " valueLogLiveBytes=" + liveBytes() + " valueLogAppendedBytes=" + appendedBytes.sum()
+                + " valueLogCompactedBytes=" + compactedBytes.sum() + " valueLogRetiredSegments=" + retiredSegments.sum()
+                + " valueLogTransfers=" + transfers.sum();
+    }
+
+    enum Transfer {
+        SENT,
+        // Compressed values have to be decoded, so they can't be sent as stored
+        COMPRESSED,
+        MOVED
+    }
+
+    private static final class Segment {
+        private final int id;
+        private final Path file;
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+        private final LongAdder live = new LongAdder();
+        // Channel users; the channel is closed once the segment is retired and the last one leaves
+        private final AtomicInteger readers = new AtomicInteger();
+        private int written;
+        private long valueBytes;
+        private volatile boolean sealed;
+        private volatile boolean retired;
+        private boolean drained;
+
+        Segment(int id, Path file, FileChannel channel, MappedByteBuffer buffer) {
+            this.id = id;
+            this.file = file;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+
+        boolean acquire() {
+            readers.incrementAndGet();
+            if (retired) {
+                releaseReader();
+                return false;
+            }
+            return true;
+        }
+
+        void releaseReader() {
+            if (readers.decrementAndGet() == 0 && retired) {
+                close();
+            }
+        }
+
+        void retire() {
+            retired = true;
+            if (readers.get() == 0) {
+                close();
+            }
+        }
+
+        private void close() {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+                // Nothing more to release
+            }
+        }
+    }
+}
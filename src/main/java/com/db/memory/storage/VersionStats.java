@@ -0,0 +1,58 @@
+package com.db.memory.storage;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters for MVCC snapshots: how often and how expensively snapshots are pinned, and how much
+ * superseded data is being retained for them.
+ */
+public class VersionStats {
+    private final LongAdder pins = new LongAdder();
+    private final LongAdder pinNanos = new LongAdder();
+    private final LongAdder activeSnapshots = new LongAdder();
+    private final LongAdder historyVersions = new LongAdder();
+    private final LongAdder historyBytes = new LongAdder();
+
+    void recordPin(long nanos) {
+        pins.increment();
+        pinNanos.add(nanos);
+        activeSnapshots.increment();
+    }
+
+    void recordRelease() {
+        activeSnapshots.decrement();
+    }
+
+    void onRetained(byte[] value) {
+        historyVersions.increment();
+        historyBytes.add(value == null ? 0 : value.length);
+    }
+
+    void onDropped(byte[] value) {
+        historyVersions.decrement();
+        historyBytes.add(value == null ? 0 : -value.length);
+    }
+
+    public long getHistoryVersions() {
+        return historyVersions.sum();
+    }
+
+    /**
+     * Total size of the retained values themselves.
+     */
+    public long getHistoryBytes() {
+        return historyBytes.sum();
+    }
+
+    public long getActiveSnapshots() {
+        return activeSnapshots.sum();
+    }
+
+    @Override
+    public String toString() {
+        long count = pins.sum();
+        return String.format("snapshots=%d pins=%d pinAvgUs=%.1f historyVersions=%d historyBytes=%d",
+                activeSnapshots.sum(), count, count == 0 ? 0.0 : pinNanos.sum() / 1000.0 / count,
+                historyVersions.sum(), historyBytes.sum());
+    }
+}
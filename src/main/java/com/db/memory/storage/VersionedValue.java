@@ -0,0 +1,16 @@
+package com.db.memory.storage;
+
+/**
+ * One stored state of a key: its encoded value and the version that wrote it. A null value is a
+ * tombstone. Versions are unique per write, so two states are the same write iff their versions match.
+ */
+public record VersionedValue(byte[] value, long version) {
+
+    public boolean isTombstone() {
+        return value == null;
+    }
+
+    static boolean sameWrite(VersionedValue a, VersionedValue b) {
+        return a == null ? b == null : b != null && a.version == b.version;
+    }
+}
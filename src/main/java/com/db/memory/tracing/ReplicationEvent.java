@@ -0,0 +1,36 @@
+package com.db.memory.tracing;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * One send from a leader to a replica, including retries.
+ */
+@Name("com.db.memory.ReplicationSend")
+@Label("Replication Send")
+@Category({"InMemoryDB", "Replication"})
+@Description("A replication command sent to one replica, including retries")
+@StackTrace(false)
+@Threshold("5 ms")
+public class ReplicationEvent extends jdk.jfr.Event {
+    @Label("Replica")
+    public String replica;
+
+    @Label("Operation")
+    public String operation;
+
+    @Label("Size")
+    @DataAmount
+    public long bytes;
+
+    @Label("Attempts")
+    public int attempts;
+
+    @Label("Delivered")
+    public boolean delivered;
+}
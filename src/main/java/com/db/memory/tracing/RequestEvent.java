@@ -0,0 +1,55 @@
+package com.db.memory.tracing;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+import jdk.jfr.Timespan;
+
+@Name("com.db.memory.Request")
+@Label("Request")
+@Category({"InMemoryDB", "Requests"})
+@Description("A slow client request with its time split by stage")
+@StackTrace(false)
+@Threshold("20 ms")
+class RequestEvent extends jdk.jfr.Event {
+    @Label("Command")
+    String command;
+
+    @Label("Key")
+    String key;
+
+    @Label("Parse")
+    @Timespan
+    long parse;
+
+    @Label("Admission")
+    @Timespan
+    long admission;
+
+    @Label("Ring Lookup")
+    @Timespan
+    long ringLookup;
+
+    @Label("Leader Check")
+    @Timespan
+    long leaderCheck;
+
+    @Label("Store")
+    @Timespan
+    long store;
+
+    @Label("Backing Store")
+    @Timespan
+    long backingStore;
+
+    @Label("Replication")
+    @Timespan
+    long replication;
+
+    @Label("Response")
+    @Timespan
+    long response;
+}
@@ -0,0 +1,109 @@
+package com.db.memory.tracing;
+
+import jdk.jfr.EventType;
+
+/**
+ * Splits one request's time across {@link Stage}s and reports it to JDK Flight Recorder. The
+ * request starts at the first {@link #enter(Stage)}; each call ends the current stage and starts
+ * the next. Stages longer than their threshold become {@code com.db.memory.RequestStage} events,
+ * and requests longer than theirs one {@code com.db.memory.Request} event with the breakdown.
+ *
+ * When neither event is enabled, which is the case whenever no recording is running, {@link #begin()}
+ * hands out one shared trace whose methods all return after a single field check, so untraced
+ * requests allocate nothing.
+ */
+public final class RequestTrace {
+    private static final EventType REQUEST_TYPE = EventType.getEventType(RequestEvent.class);
+    private static final EventType STAGE_TYPE = EventType.getEventType(StageEvent.class);
+    private static final RequestTrace DISABLED = new RequestTrace(false);
+
+    private final RequestEvent request;
+    private final boolean enabled;
+    private final long[] stageNanos;
+    private boolean started;
+    private boolean discarded;
+    private Stage current;
+    private long stageStart;
+    private StageEvent stageEvent;
+    private String command;
+    private String key;
+
+    private RequestTrace(boolean enabled) {
+        this.enabled = enabled;
+        this.request = enabled ? new RequestEvent() : null;
+        this.stageNanos = enabled ? new long[Stage.values().length] : null;
+    }
+
+    public static RequestTrace begin() {
+        return REQUEST_TYPE.isEnabled() || STAGE_TYPE.isEnabled() ? new RequestTrace(true) : DISABLED;
+    }
+
+    public void identify(String command, String key) {
+        if (!enabled) {
+            return;
+        }
+        this.command = command;
+        this.key = key;
+    }
+
+    public void enter(Stage stage) {
+        if (!enabled || discarded || stage == current) {
+            return;
+        }
+        if (!started) {
+            started = true;
+            request.begin();
+        }
+        long now = System.nanoTime();
+        endStage(now);
+        current = stage;
+        stageStart = now;
+        stageEvent = new StageEvent();
+        stageEvent.begin();
+    }
+
+    /**
+     * Stops tracing, for connections that stay open long after the request itself was handled.
+     */
+    public void discard() {
+        if (enabled) {
+            discarded = true;
+        }
+    }
+
+    public void end() {
+        if (!enabled || !started || discarded) {
+            return;
+        }
+        endStage(System.nanoTime());
+        request.end();
+        if (request.shouldCommit()) {
+            request.command = command;
+            request.key = key;
+            request.parse = stageNanos[Stage.PARSE.ordinal()];
+            request.admission = stageNanos[Stage.ADMISSION.ordinal()];
+            request.ringLookup = stageNanos[Stage.RING_LOOKUP.ordinal()];
+            request.leaderCheck = stageNanos[Stage.LEADER_CHECK.ordinal()];
+            request.store = stageNanos[Stage.STORE.ordinal()];
+            request.backingStore = stageNanos[Stage.BACKING_STORE.ordinal()];
+            request.replication = stageNanos[Stage.REPLICATION.ordinal()];
+            request.response = stageNanos[Stage.RESPONSE.ordinal()];
+            request.commit();
+        }
+    }
+
+    private void endStage(long now) {
+        if (current == null) {
+            return;
+        }
+        stageNanos[current.ordinal()] += now - stageStart;
+        stageEvent.end();
+        if (stageEvent.shouldCommit()) {
+            stageEvent.stage = current.name();
+            stageEvent.command = command;
+            stageEvent.key = key;
+            stageEvent.commit();
+        }
+        current = null;
+    }
+}
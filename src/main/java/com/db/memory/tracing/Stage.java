@@ -0,0 +1,15 @@
+package com.db.memory.tracing;
+
+/**
+ * Phases of handling one client request, in the order KVServer goes through them.
+ */
+public enum Stage {
+    PARSE,
+    ADMISSION,
+    RING_LOOKUP,
+    LEADER_CHECK,
+    STORE,
+    BACKING_STORE,
+    REPLICATION,
+    RESPONSE
+}
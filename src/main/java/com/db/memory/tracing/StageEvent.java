@@ -0,0 +1,25 @@
+package com.db.memory.tracing;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+@Name("com.db.memory.RequestStage")
+@Label("Request Stage")
+@Category({"InMemoryDB", "Requests"})
+@Description("One stage of handling a client request that took longer than the threshold")
+@StackTrace(false)
+@Threshold("5 ms")
+class StageEvent extends jdk.jfr.Event {
+    @Label("Stage")
+    String stage;
+
+    @Label("Command")
+    String command;
+
+    @Label("Key")
+    String key;
+}
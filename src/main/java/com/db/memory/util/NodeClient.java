@@ -0,0 +1,48 @@
+package com.db.memory.util;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.Socket;
+
+/**
+ * Minimal request/response client for node-to-node calls over the line protocol. Nodes are
+ * addressed by their client host:port; node-to-node commands (REPLICATE ...) go to the node's
+ * peer port, which is the client port plus kv.peer.port.offset, and anything else to its client
+ * port.
+ */
+public final class NodeClient {
+    private static final int TIMEOUT_MS = 5000;
+    private static final int PEER_PORT_OFFSET = Integer.getInteger("kv.peer.port.offset", 10000);
+
+    private NodeClient() {
+    }
+
+    /**
+     * Sends one command to a host:port address and returns the single-line reply (null on EOF).
+     */
+    public static String send(String address, String command) throws Exception {
+        String[] split = address.split(":");
+        try (Socket socket = command.startsWith("REPLICATE ") ? connectToPeer(address) : new Socket(split[0], Integer.parseInt(split[1]));
+             PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream()), true);
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
+            socket.setSoTimeout(TIMEOUT_MS);
+            out.println(command);
+            return in.readLine();
+        }
+    }
+
+    /**
+     * Opens a connection to the peer port of the node with the given client host:port address.
+     */
+    public static Socket connectToPeer(String address) throws IOException {
+        String[] split = address.split(":");
+        return new Socket(split[0], peerPort(Integer.parseInt(split[1])));
+    }
+
+    public static int peerPort(int clientPort) {
+        return clientPort + PEER_PORT_OFFSET;
+    }
+}
@@ -0,0 +1,56 @@
+package com.db.memory;
+
+import com.db.memory.admission.AdaptiveLimit;
+import com.db.memory.admission.AdmissionController;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AdmissionControlTest {
+
+    @Test
+    void limitGrowsWhenFastAndShrinksWhenLatencyClimbs() {
+        AdaptiveLimit limit = new AdaptiveLimit(10, 2, 100, 2.0);
+        for (int i = 0; i < 500; i++) {
+            runRequests(limit, limit.getLimit(), 1_000_000);
+        }
+        int grown = limit.getLimit();
+        assertTrue(grown > 10, "Limit should grow while latency stays at baseline, was " + grown);
+
+        for (int i = 0; i < 50; i++) {
+            runRequests(limit, limit.getLimit(), 20_000_000);
+        }
+        assertTrue(limit.getLimit() < grown / 2, "Limit should back off when latency climbs, was " + limit.getLimit());
+        assertTrue(limit.getLimit() >= 2);
+    }
+
+    @Test
+    void requestsBeyondLimitAreRejected() {
+        AdaptiveLimit limit = new AdaptiveLimit(2, 1, 10, 2.0);
+        AdmissionController admission = new AdmissionController(10, 1, 1, 1000, limit, 0, 0);
+        assertTrue(admission.tryStartRequest());
+        assertTrue(admission.tryStartRequest());
+        assertFalse(admission.tryStartRequest());
+        admission.finishRequest(1_000_000);
+        assertTrue(admission.tryStartRequest());
+    }
+
+    @Test
+    void clientRateLimitIsPerClient() {
+        AdmissionController admission = new AdmissionController(10, 1, 1, 1000, new AdaptiveLimit(10, 1, 10, 2.0), 1, 2);
+        assertTrue(admission.allowClient("10.0.0.1"));
+        assertTrue(admission.allowClient("10.0.0.1"));
+        assertFalse(admission.allowClient("10.0.0.1"), "Burst of 2 should be exhausted");
+        assertTrue(admission.allowClient("10.0.0.2"));
+    }
+
+    private static void runRequests(AdaptiveLimit limit, int concurrency, long serviceNanos) {
+        int admitted = 0;
+        while (admitted < concurrency && limit.tryAcquire()) {
+            admitted++;
+        }
+        for (int i = 0; i < admitted; i++) {
+            limit.release(serviceNanos);
+        }
+    }
+}
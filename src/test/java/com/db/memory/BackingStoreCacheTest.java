@@ -0,0 +1,100 @@
+package com.db.memory;
+
+import com.db.memory.cache.BackingStoreCache;
+import com.db.memory.cache.FileBackingStore;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BackingStoreCacheTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void concurrentMissesShareOneLoad() throws Exception {
+        AtomicInteger backingLoads = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        FileBackingStore files = new FileBackingStore(directory) {
+            @Override
+            public String load(String key) throws java.io.IOException {
+                backingLoads.incrementAndGet();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.load(key);
+            }
+        };
+        files.storeAll(Map.of("user:1", "alice"));
+        BackingStoreCache cache = new BackingStoreCache(files, 100, 5000);
+        Map<String, String> installed = new ConcurrentHashMap<>();
+
+        ExecutorService readers = Executors.newFixedThreadPool(8);
+        List<Future<BackingStoreCache.Load>> results = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            results.add(readers.submit(() -> cache.load("user:1", (key, value) -> {
+                installed.put(key, value);
+                return value.getBytes();
+            })));
+        }
+        Thread.sleep(200);
+        release.countDown();
+        int installers = 0;
+        for (Future<BackingStoreCache.Load> result : results) {
+            BackingStoreCache.Load load = result.get(5, TimeUnit.SECONDS);
+            assertEquals("alice", load.value());
+            installers += load.installed() == null ? 0 : 1;
+        }
+        readers.shutdown();
+
+        assertEquals(1, backingLoads.get(), "Concurrent misses should trigger a single load");
+        assertEquals(1, installers, "Only the loading caller installs the value");
+        assertEquals(Map.of("user:1", "alice"), installed);
+    }
+
+    @Test
+    void writesAreCoalescedAndQueuedWritesAnswerMisses() throws Exception {
+        List<Map<String, String>> batches = new ArrayList<>();
+        FileBackingStore files = new FileBackingStore(directory) {
+            @Override
+            public void storeAll(Map<String, String> entries) throws java.io.IOException {
+                batches.add(entries);
+                super.storeAll(entries);
+            }
+        };
+        files.storeAll(Map.of("stale", "old"));
+        batches.clear();
+        BackingStoreCache cache = new BackingStoreCache(files, 100, 5000);
+
+        for (int i = 0; i < 10; i++) {
+            cache.written("counter", Integer.toString(i));
+        }
+        cache.written("stale", null);
+        assertNull(cache.load("stale", (key, value) -> fail("A queued delete must not be loaded")).value());
+
+        cache.flush();
+        assertEquals(1, batches.size(), "Both keys fit in one batch");
+        assertEquals("9", batches.get(0).get("counter"), "Only the latest write to a key is pushed");
+        assertTrue(batches.get(0).containsKey("stale"));
+        assertEquals("9", files.load("counter"));
+        assertNull(files.load("stale"));
+
+        cache.flush();
+        assertEquals(1, batches.size(), "Nothing is left to push");
+    }
+}
@@ -0,0 +1,193 @@
+package com.db.memory;
+
+import com.db.memory.replication.ChainLinks;
+import com.db.memory.replication.ReplicationManager;
+import com.db.memory.util.NodeClient;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChainReplicationTest {
+
+    @Test
+    void chainFollowsReplicaOrderAndDropsFailedMembers() {
+        List<String> replicas = List.of("node-2:9002", "node-5:9005", "node-7:9007");
+
+        assertEquals(List.of("node-1:9001", "node-2:9002", "node-5:9005", "node-7:9007"),
+                ReplicationManager.chainOrder("node-1:9001", replicas, Set.of("node-1:9001", "node-2:9002", "node-5:9005", "node-7:9007")));
+        assertEquals(List.of("node-1:9001", "node-2:9002", "node-7:9007"),
+                ReplicationManager.chainOrder("node-1:9001", replicas, Set.of("node-2:9002", "node-7:9007")),
+                "A member whose chain znode is gone is spliced out");
+        // A replica that took over as head keeps appearing in the old list but heads the chain once
+        assertEquals(List.of("node-2:9002", "node-5:9005"),
+                ReplicationManager.chainOrder("node-2:9002", replicas, Set.of("node-2:9002", "node-5:9005")));
+        assertEquals(List.of("node-2:9002", "node-5:9005"),
+                ReplicationManager.chainOrder(null, replicas, Set.of("node-2:9002", "node-5:9005")),
+                "Without a leader the chain has no head but replicas keep their order");
+    }
+
+    @Test
+    void writesArePipelinedInOrderOverOneLinkAndCompleteOnTheAck() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        try (FakeSuccessor successor = new FakeSuccessor("OK", release)) {
+            ChainLinks links = new ChainLinks("test", 5000);
+            List<CompletableFuture<Void>> forwarded = new ArrayList<>();
+            for (int i = 0; i < 50; i++) {
+                forwarded.add(links.forward(List.of(successor.address()), "REPLICATE PUT k " + i, "PUT"));
+            }
+            forwarded.add(links.forward(List.of(successor.address()), "REPLICATE BATCH 2\nPUTZ a YQ==\nDELETE b", "BATCH"));
+            successor.awaitReceived(51);
+            assertTrue(forwarded.stream().noneMatch(CompletableFuture::isDone), "A write completes only on its successor's answer");
+
+            release.countDown();
+            CompletableFuture.allOf(forwarded.toArray(new CompletableFuture<?>[0])).get(5, TimeUnit.SECONDS);
+            List<String> expected = new ArrayList<>();
+            for (int i = 0; i < 50; i++) {
+                expected.add("REPLICATE PUT k " + i);
+            }
+            expected.add("REPLICATE BATCH 2\nPUTZ a YQ==\nDELETE b");
+            assertEquals(expected, successor.received, "Writes arrive whole and in the order they were forwarded");
+            assertEquals(1, successor.connections.get(), "Every write shares one connection");
+            links.close();
+        }
+    }
+
+    @Test
+    void busyUnreachableAndSilentSuccessorsAreSkipped() throws Exception {
+        String unreachable;
+        try (ServerSocket closed = new ServerSocket(0)) {
+            unreachable = FakeSuccessor.clientAddress(closed.getLocalPort());
+        }
+        try (FakeSuccessor busy = new FakeSuccessor("BUSY concurrency limit", null);
+             FakeSuccessor okay = new FakeSuccessor("OKAY", null);
+             FakeSuccessor silent = new FakeSuccessor(null, null);
+             FakeSuccessor next = new FakeSuccessor("OK", null)) {
+            ChainLinks links = new ChainLinks("test", 500);
+            links.forward(List.of(unreachable, busy.address(), okay.address(), silent.address(), next.address()),
+                    "REPLICATE DELETE k", "DELETE").get(5, TimeUnit.SECONDS);
+
+            assertEquals(List.of("REPLICATE DELETE k"), busy.received, "BUSY is not an acknowledgement");
+            assertEquals(List.of("REPLICATE DELETE k"), okay.received, "Only an exact OK is an acknowledgement");
+            assertEquals(List.of("REPLICATE DELETE k"), silent.received, "A successor that never answers times out");
+            assertEquals(List.of("REPLICATE DELETE k"), next.received);
+
+            links.forward(List.of(next.address()), "REPLICATE PUT k v", "PUT").get(5, TimeUnit.SECONDS);
+            assertEquals(List.of("REPLICATE DELETE k", "REPLICATE PUT k v"), next.received);
+            links.close();
+        }
+        assertTrue(ReplicationManager.isAcknowledgement("OK 12"));
+        assertFalse(ReplicationManager.isAcknowledgement("OK busy"));
+        assertFalse(ReplicationManager.isAcknowledgement(null));
+    }
+
+    /**
+     * A chain member that records every write it is sent and answers each with a fixed reply,
+     * or never answers when the reply is null. Replies wait for the latch when there is one.
+     */
+    private static final class FakeSuccessor implements AutoCloseable {
+        final List<String> received = new CopyOnWriteArrayList<>();
+        final AtomicInteger connections = new AtomicInteger();
+        private final ServerSocket server = new ServerSocket(0);
+        private final String reply;
+        private final CountDownLatch release;
+
+        FakeSuccessor(String reply, CountDownLatch release) throws IOException {
+            this.reply = reply;
+            this.release = release;
+            Thread acceptor = new Thread(this::accept);
+            acceptor.setDaemon(true);
+            acceptor.start();
+        }
+
+        String address() {
+            return clientAddress(server.getLocalPort());
+        }
+
+        /**
+         * The address whose peer port is the given port, as chain members name each other.
+         */
+        static String clientAddress(int peerPort) {
+            return "localhost:" + (peerPort - NodeClient.peerPort(0));
+        }
+
+        void awaitReceived(int count) throws InterruptedException {
+            for (int i = 0; i < 500 && received.size() < count; i++) {
+                Thread.sleep(10);
+            }
+            assertEquals(count, received.size());
+        }
+
+        private void accept() {
+            while (!server.isClosed()) {
+                try {
+                    Socket socket = server.accept();
+                    connections.incrementAndGet();
+                    Thread serve = new Thread(() -> serve(socket));
+                    serve.setDaemon(true);
+                    serve.start();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+
+        private void serve(Socket socket) {
+            // Answers go out from a thread of their own, so records keep being read while they wait
+            BlockingQueue<String> replies = new LinkedBlockingQueue<>();
+            try (socket;
+                 BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                 PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), true)) {
+                Thread replier = new Thread(() -> {
+                    try {
+                        if (release != null) {
+                            release.await();
+                        }
+                        while (true) {
+                            out.println(replies.take());
+                        }
+                    } catch (InterruptedException ignored) {
+                    }
+                });
+                replier.setDaemon(true);
+                replier.start();
+                assertEquals("REPLICATE CHAIN", in.readLine());
+                String header;
+                while ((header = in.readLine()) != null) {
+                    List<String> lines = new ArrayList<>();
+                    for (int i = Integer.parseInt(header); i > 0; i--) {
+                        lines.add(in.readLine());
+                    }
+                    received.add(String.join("\n", lines));
+                    if (reply != null) {
+                        replies.add(reply);
+                    }
+                }
+                replier.interrupt();
+            } catch (Exception ignored) {
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            server.close();
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.db.memory;
+
+import com.db.memory.server.ClientConnection;
+import com.db.memory.storage.KVStore;
+import com.db.memory.storage.ValueCodec;
+import com.db.memory.tracing.RequestTrace;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ClientConnectionTest {
+
+    @Test
+    void requestLineIsTokenizedLikeSplit() throws Exception {
+        for (String line : new String[]{"GET key", "get  key", "PUT k v  ", "ZADD board 1 alice 2 bøb", "", "NS tenant GET k"}) {
+            ClientConnection connection = open(line + "\r\n", new ByteArrayOutputStream());
+            assertTrue(connection.readRequest());
+            String[] parts = line.split(" ");
+            assertArrayEquals(parts, connection.tokens(), line);
+            assertEquals(line, connection.line());
+            connection.close();
+        }
+
+        ClientConnection connection = open("get k\n", new ByteArrayOutputStream());
+        assertTrue(connection.readRequest());
+        assertSame("GET", connection.command(0), "Known commands resolve to shared constants");
+        assertTrue(connection.is(0, "GET"));
+        assertFalse(connection.is(1, "GET"));
+        assertEquals("k", connection.token(1));
+        connection.close();
+
+        assertFalse(open("", new ByteArrayOutputStream()).readRequest(), "Nothing sent means no request");
+    }
+
+    @Test
+    void repliesAndFollowingLinesSurviveBufferBoundaries() throws Exception {
+        KVStore store = new KVStore("replies", new ValueCodec(1024));
+        String small = "héllo 😀";
+        String compressed = "abc".repeat(1000);
+        String huge = "0123456789".repeat(5000);
+        store.put("small", small);
+        store.put("compressed", compressed);
+        store.put("huge", huge);
+        assertTrue(ValueCodec.isCompressed(store.getEncoded("compressed")));
+
+        String longKey = "k".repeat(20_000);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ClientConnection connection = open("MULTI " + longKey + "\nPUT a 1\nEXEC\n", out);
+        assertTrue(connection.readRequest());
+        assertEquals(longKey, connection.token(1), "A request line longer than the buffer grows it");
+        assertEquals("PUT a 1", connection.reader().readLine());
+        assertEquals("EXEC", connection.reader().readLine());
+
+        connection.printValue(store, store.getEncoded("small"));
+        connection.printValue(store, store.getEncoded("compressed"));
+        connection.printValue(store, store.getEncoded("huge"));
+        connection.writer().println(small);
+        connection.close();
+        assertEquals(small + "\n" + compressed + "\n" + huge + "\n" + small + "\n", out.toString(StandardCharsets.UTF_8));
+    }
+
+    private static ClientConnection open(String request, ByteArrayOutputStream out) {
+        return ClientConnection.open(Channels.newChannel(new ByteArrayInputStream(request.getBytes(StandardCharsets.UTF_8))),
+                Channels.newChannel(out), RequestTrace.begin());
+    }
+}
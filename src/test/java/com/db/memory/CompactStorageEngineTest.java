@@ -0,0 +1,119 @@
+package com.db.memory;
+
+import com.db.memory.storage.CompactStorageEngine;
+import com.db.memory.storage.KVStore;
+import com.db.memory.storage.MapStorageEngine;
+import com.db.memory.storage.StorageEngine;
+import com.db.memory.storage.ValueCodec;
+import com.db.memory.storage.VersionedValue;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.ref.Reference;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CompactStorageEngineTest {
+
+    @Test
+    void survivesResizeOverwriteDeleteAndCompaction() {
+        StorageEngine engine = new CompactStorageEngine(4);
+        int keys = 20_000;
+        for (int i = 0; i < keys; i++) {
+            put(engine, "key" + i, "v" + i, i);
+        }
+        // Enough overwrites to push garbage past live data and force compaction
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < keys; i++) {
+                put(engine, "key" + i, "round" + round + "-" + i, keys + i);
+            }
+        }
+        for (int i = 0; i < keys; i += 2) {
+            engine.compute("key" + i, current -> null);
+        }
+        engine.compute("key1", current -> new VersionedValue(null, 99));
+
+        assertEquals(keys / 2, engine.size());
+        assertNull(engine.get("key0"));
+        assertTrue(engine.get("key1").isTombstone());
+        assertEquals("round2-3", new String(engine.get("key3").value(), StandardCharsets.UTF_8));
+        assertEquals(keys + 3, engine.get("key3").version());
+
+        Set<String> seen = new HashSet<>();
+        for (Iterator<String> it = engine.keyIterator(); it.hasNext(); ) {
+            assertTrue(seen.add(it.next()), "Each key should be listed once");
+        }
+        assertEquals(keys / 2, seen.size());
+    }
+
+    @Test
+    void storeRunsOnCompactEngineWithSmallerFootprint() {
+        KVStore compact = new KVStore("test", new ValueCodec(64), new CompactStorageEngine(8));
+        KVStore map = new KVStore("test", new ValueCodec(64), new MapStorageEngine());
+        for (int i = 0; i < 50_000; i++) {
+            compact.put("user:" + i, "value" + i);
+            map.put("user:" + i, "value" + i);
+        }
+
+        try (KVStore.Snapshot snapshot = compact.snapshot()) {
+            compact.put("user:1", "changed");
+            compact.remove("user:2");
+            assertEquals("value1", snapshot.get("user:1"));
+            assertEquals("value2", snapshot.get("user:2"));
+        }
+        assertEquals("changed", compact.get("user:1"));
+        assertNull(compact.get("user:2"));
+        assertEquals(49_999, compact.size());
+
+        long compactBytes = compact.getEngine().footprintBytes();
+        long mapBytes = map.getEngine().footprintBytes();
+        // Small entries right after a table doubling are the compact engine's worst case
+        assertTrue(compactBytes * 3 < mapBytes * 2, "compact=" + compactBytes + " map=" + mapBytes);
+    }
+
+    @Test
+    void measuredHeapIsSmallerOnCompactEngine() {
+        int keys = 200_000;
+        long[] compact = retained(() -> new CompactStorageEngine(8), keys);
+        long[] map = retained(MapStorageEngine::new, keys);
+        // The heap actually retained, not the engines' own estimates, decides the comparison
+        assertTrue(compact[0] * 3 < map[0] * 2, "measured compact=" + compact[0] + " map=" + map[0]);
+        // and each estimate has to stay within a factor of two of what was measured
+        for (long[] measured : new long[][]{compact, map}) {
+            assertTrue(measured[1] * 2 > measured[0] && measured[1] < measured[0] * 2,
+                    "estimated=" + measured[1] + " measured=" + measured[0]);
+        }
+    }
+
+    /**
+     * Used heap after a full GC, before and after filling an engine with small entries: the bytes
+     * it measurably retains, and its own footprint estimate.
+     */
+    private static long[] retained(Supplier<StorageEngine> factory, int keys) {
+        long before = usedHeapAfterGc();
+        StorageEngine engine = factory.get();
+        for (int i = 0; i < keys; i++) {
+            put(engine, "user:" + i, "value" + i, i);
+        }
+        long after = usedHeapAfterGc();
+        long estimated = engine.footprintBytes();
+        Reference.reachabilityFence(engine);
+        return new long[]{after - before, estimated};
+    }
+
+    private static long usedHeapAfterGc() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    private static void put(StorageEngine engine, String key, String value, long version) {
+        engine.compute(key, current -> new VersionedValue(value.getBytes(StandardCharsets.UTF_8), version));
+    }
+}
@@ -0,0 +1,91 @@
+package com.db.memory;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Measures unplanned failover against a running docker-compose cluster: kills block-1's leader
+ * container and times how long until a write for a block-1 key succeeds on a surviving member.
+ * The killed container is restarted and rejoins as a replica before the next round.
+ *
+ * Usage: docker compose up -d, then run with [rounds] (default 5).
+ */
+public class FailoverBenchmark {
+    private static final int[] BLOCK1_PORTS = {9001, 9002, 9005};
+
+    public static void main(String[] args) throws Exception {
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        List<Long> timings = new ArrayList<>();
+        for (int round = 1; round <= rounds; round++) {
+            int leaderPort = -1;
+            String key = null;
+            for (int i = 0; leaderPort < 0 && i < 1000; i++) {
+                for (int port : BLOCK1_PORTS) {
+                    if ("OK".equals(send(port, "PUT failover-" + i + " warm"))) {
+                        leaderPort = port;
+                        key = "failover-" + i;
+                        break;
+                    }
+                }
+            }
+            if (leaderPort < 0) {
+                throw new IllegalStateException("No block-1 leader accepted a write");
+            }
+
+            String container = "kvstore-node-" + (leaderPort - 9000);
+            docker("kill", container);
+            long killedAt = System.nanoTime();
+            long elapsedMs = -1;
+            while (elapsedMs < 0) {
+                for (int port : BLOCK1_PORTS) {
+                    if (port != leaderPort && "OK".equals(send(port, "PUT " + key + " round-" + round))) {
+                        elapsedMs = (System.nanoTime() - killedAt) / 1_000_000;
+                        break;
+                    }
+                }
+                Thread.sleep(5);
+            }
+            timings.add(elapsedMs);
+            System.out.println("Round " + round + ": killed " + container + ", first write after " + elapsedMs + " ms");
+
+            docker("start", container);
+            while (send(leaderPort, "GET " + key) == null) {
+                Thread.sleep(500);
+            }
+            // Let the restarted node finish joining before it can be picked again
+            Thread.sleep(3000);
+        }
+
+        Collections.sort(timings);
+        System.out.println("Time to first successful write: min=" + timings.get(0) + " ms median="
+                + timings.get(timings.size() / 2) + " ms max=" + timings.get(timings.size() - 1) + " ms");
+    }
+
+    private static String send(int port, String command) {
+        try (Socket socket = new Socket("localhost", port);
+             PrintWriter writer = new PrintWriter(new OutputStreamWriter(socket.getOutputStream()), true);
+             BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
+            socket.setSoTimeout(1000);
+            writer.println(command);
+            return reader.readLine();
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private static void docker(String... args) throws Exception {
+        List<String> command = new ArrayList<>();
+        command.add("docker");
+        Collections.addAll(command, args);
+        Process process = new ProcessBuilder(command).inheritIO().start();
+        if (process.waitFor() != 0) {
+            throw new IllegalStateException("docker " + String.join(" ", args) + " failed");
+        }
+    }
+}
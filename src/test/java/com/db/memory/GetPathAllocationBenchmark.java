@@ -0,0 +1,159 @@
+package com.db.memory;
+
+import com.db.memory.failover.LeaderFailureDetector;
+import com.db.memory.hashing.HashRing;
+import com.db.memory.replication.ReplicationManager;
+import com.db.memory.server.KVServer;
+import com.db.memory.storage.KVStore;
+import com.db.memory.storage.ValueCodec;
+import com.db.memory.tracing.RequestTrace;
+
+import java.io.BufferedReader;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Measures heap bytes allocated per GET hit, from reading the request line to writing the reply,
+ * for the per-connection reader/writer path the server used to take and for the server's real
+ * request path, {@link KVServer#serve}, with admission, tracing, namespaces and hot-key tracking
+ * included. This is the figure JMH's gc.alloc.rate.norm reports, read from the thread's allocation
+ * counter. Requests are served from an in-memory channel, so the socket itself, which the
+ * one-request-per-connection protocol allocates regardless, is not counted. The server runs as a
+ * single node without ZooKeeper, which a GET hit on a node that isn't migrating never consults.
+ *
+ * Usage: run with [keys] [value bytes] [ops], e.g. "10000 100 5000000".
+ */
+public class GetPathAllocationBenchmark {
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    public static void main(String[] args) throws Exception {
+        int keys = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        int valueBytes = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        int ops = args.length > 2 ? Integer.parseInt(args[2]) : 5_000_000;
+
+        KVStore store = new KVStore("bench", new ValueCodec(ValueCodec.DEFAULT_THRESHOLD));
+        byte[][] requests = new byte[keys][];
+        for (int i = 0; i < keys; i++) {
+            store.put("key:" + i, "v".repeat(valueBytes));
+            requests[i] = ("GET key:" + i + "\n").getBytes(StandardCharsets.UTF_8);
+        }
+        Loopback loopback = new Loopback();
+        KVServer server = new KVServer(0, store, new ReplicationManager("bench", null), null,
+                new HashRing(null), new LeaderFailureDetector(null, List.of()));
+
+        for (String path : new String[]{"stream", "server"}) {
+            // Warm up long enough for the JIT to settle before counting
+            run(path, store, server, requests, loopback, ops);
+            long allocatedBefore = THREADS.getCurrentThreadAllocatedBytes();
+            long start = System.nanoTime();
+            run(path, store, server, requests, loopback, ops);
+            long elapsed = System.nanoTime() - start;
+            long allocated = THREADS.getCurrentThreadAllocatedBytes() - allocatedBefore;
+            System.out.printf("%-7s %,10.1f B/op  %,10.0f ops/s%n", path, (double) allocated / ops, ops / (elapsed / 1e9));
+        }
+    }
+
+    private static void run(String path, KVStore store, KVServer server, byte[][] requests, Loopback loopback, int ops)
+            throws Exception {
+        for (int i = 0; i < ops; i++) {
+            loopback.reset(requests[i % requests.length]);
+            if ("server".equals(path)) {
+                server.serve(loopback, loopback);
+            } else {
+                stream(store, loopback);
+            }
+        }
+    }
+
+    private static void stream(KVStore store, Loopback loopback) throws Exception {
+        RequestTrace trace = RequestTrace.begin();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(loopback.in));
+        PrintWriter writer = new PrintWriter(loopback.out, true);
+        String[] parts = reader.readLine().split(" ");
+        trace.identify(parts[0], parts[1]);
+        if ("GET".equalsIgnoreCase(parts[0])) {
+            String result = store.get(parts[1]);
+            writer.println(result == null ? "NULL" : result);
+        }
+        writer.close();
+        trace.end();
+    }
+
+    /**
+     * One request in, replies discarded, reusable for every iteration so the harness itself
+     * allocates nothing.
+     */
+    private static final class Loopback implements ReadableByteChannel, WritableByteChannel {
+        private byte[] request;
+        private int position;
+
+        final InputStream in = new InputStream() {
+            @Override
+            public int read() {
+                return position < request.length ? request[position++] : -1;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                if (position == request.length) {
+                    return -1;
+                }
+                int n = Math.min(len, request.length - position);
+                System.arraycopy(request, position, b, off, n);
+                position += n;
+                return n;
+            }
+        };
+
+        final OutputStream out = new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        };
+
+        void reset(byte[] request) {
+            this.request = request;
+            this.position = 0;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) {
+            if (position == request.length) {
+                return -1;
+            }
+            int n = Math.min(dst.remaining(), request.length - position);
+            dst.put(request, position, n);
+            position += n;
+            return n;
+        }
+
+        @Override
+        public int write(ByteBuffer src) {
+            int n = src.remaining();
+            src.position(src.limit());
+            return n;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -3,6 +3,10 @@ package com.db.memory;
 import com.db.memory.hashing.HashRing;
 import org.junit.jupiter.api.Test;
 
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 class HashRingTest {
@@ -30,4 +34,49 @@ class HashRingTest {
             assertTrue(ring.hash(key) >= 0, "Hash for '" + key + "' should be non-negative");
         }
     }
+
+    @Test
+    void weightedPartitionGetsProportionallyMoreKeys() {
+        HashRing ring = new HashRing(null, 100);
+        ring.buildHashRing(List.of("block-1", "block-2"), Map.of("block-2", 3.0));
+
+        Map<String, Integer> counts = countKeys(ring, 20000);
+        double share = counts.get("block-2") / 20000.0;
+        assertTrue(share > 0.65 && share < 0.85, "Weight 3 vs 1 should give ~75% of keys, got " + share);
+    }
+
+    @Test
+    void ringsBuiltFromTheSameLeadersAgreeOnEveryKey() {
+        HashRing first = new HashRing(null, 100);
+        first.buildHashRing(List.of("block-1", "block-2", "block-3"), Map.of("block-2", 2.0));
+        HashRing second = new HashRing(null, 100);
+        second.buildHashRing(List.of("block-3", "block-1", "block-2"), Map.of("block-2", 2.0));
+
+        for (int i = 0; i < 2000; i++) {
+            assertEquals(first.getTargetNode("key-" + i), second.getTargetNode("key-" + i),
+                    "Nodes must route a key the same way whatever order they saw the leaders in");
+        }
+    }
+
+    @Test
+    void distributionReportCoversWholeRing() {
+        HashRing ring = new HashRing(null, 50);
+        ring.buildHashRing(List.of("block-1", "block-2", "block-3"), Map.of());
+
+        String report = ring.describeDistribution(Map.of("block-1", 10L));
+        double total = 0;
+        for (String partition : report.split(" ")) {
+            String expected = partition.replaceAll(".*expected=([0-9.]+).*", "$1");
+            total += Double.parseDouble(expected);
+        }
+        assertEquals(1.0, total, 0.01);
+    }
+
+    private static Map<String, Integer> countKeys(HashRing ring, int keys) {
+        Map<String, Integer> counts = new HashMap<>();
+        for (int i = 0; i < keys; i++) {
+            counts.merge(ring.getTargetNode("key-" + i), 1, Integer::sum);
+        }
+        return counts;
+    }
 }
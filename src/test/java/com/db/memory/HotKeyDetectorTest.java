@@ -0,0 +1,75 @@
+package com.db.memory;
+
+import com.db.memory.hotkeys.CountMinSketch;
+import com.db.memory.hotkeys.HotKeyDetector;
+import com.db.memory.hotkeys.NearCache;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HotKeyDetectorTest {
+
+    @Test
+    void skewedKeyBecomesHot() {
+        HotKeyDetector detector = new HotKeyDetector(4, 100, 60000);
+        for (int i = 0; i < 1000; i++) {
+            detector.record("hot");
+            detector.record("cold-" + i);
+        }
+        assertTrue(detector.isHot("hot"));
+        assertFalse(detector.isHot("cold-1"));
+        assertEquals("hot", detector.getHotKeys().get(0).getKey());
+    }
+
+    @Test
+    void keysWithEqualHashCodesAreCountedApart() {
+        // "Aa" and "BB" share a String.hashCode(), so rows derived from it would always collide
+        assertEquals("Aa".hashCode(), "BB".hashCode());
+        CountMinSketch sketch = new CountMinSketch(4096, 4);
+        for (int i = 0; i < 1000; i++) {
+            sketch.add("Aa");
+        }
+        assertEquals(0, sketch.estimate("BB"));
+        assertEquals(1000, sketch.estimate("Aa"));
+
+        sketch.decay();
+        assertEquals(500, sketch.estimate("Aa"));
+    }
+
+    @Test
+    void topKIsBounded() {
+        HotKeyDetector detector = new HotKeyDetector(2, 10, 60000);
+        for (String key : new String[]{"a", "b", "c"}) {
+            for (int i = 0; i < 20; i++) {
+                detector.record(key);
+            }
+        }
+        assertEquals(2, detector.getHotKeys().size());
+    }
+
+    @Test
+    void nearCacheInvalidatesAndExpires() throws Exception {
+        NearCache cache = new NearCache(2, 50);
+        cache.put("k", "v");
+        assertEquals("v", cache.get("k"));
+        cache.invalidate("k");
+        assertNull(cache.get("k"));
+
+        cache.put("k", "v");
+        Thread.sleep(80);
+        assertNull(cache.get("k"));
+    }
+
+    @Test
+    void nearCacheDropsAFillThatRacedAWrite() {
+        NearCache cache = new NearCache(2, 60000);
+        long stamp = cache.stamp("k");
+        // A write lands between the read and the fill
+        cache.invalidate("k");
+        assertFalse(cache.put("k", "old", stamp));
+        assertNull(cache.get("k"));
+
+        assertTrue(cache.put("k", "new", cache.stamp("k")));
+        assertEquals("new", cache.get("k"));
+    }
+}
@@ -1,9 +1,12 @@
 package com.db.memory;
 
 import com.db.memory.cluster.ClusterManager;
+import com.db.memory.failover.LeaderFailureDetector;
 import com.db.memory.hashing.HashRing;
 import com.db.memory.replication.ReplicationManager;
 import com.db.memory.server.KVServer;
+import com.db.memory.storage.KVStore;
+import com.db.memory.storage.ValueCodec;
 import org.junit.jupiter.api.*;
 import org.testcontainers.containers.GenericContainer;
 import org.testcontainers.junit.jupiter.Container;
@@ -32,19 +35,20 @@ class KVStoreIntegrationTest {
     // block-1: leader on port 19001, replica on port 19002
     private static ClusterManager leaderCM;
     private static ClusterManager replicaCM;
-    private static Map<String, String> leaderStore;
-    private static Map<String, String> replicaStore;
+    private static KVStore leaderStore;
+    private static KVStore replicaStore;
     private static int leaderPort = 19001;
     private static int replicaPort = 19002;
 
     // block-2: leader on port 19003
     private static ClusterManager block2LeaderCM;
-    private static Map<String, String> block2LeaderStore;
+    private static KVStore block2LeaderStore;
     private static int block2LeaderPort = 19003;
 
     @BeforeAll
     static void setUp() throws Exception {
         zkConnect = zookeeper.getHost() + ":" + zookeeper.getMappedPort(2181);
+        System.setProperty("kv.bulk.dir", System.getProperty("java.io.tmpdir"));
 
         // --- block-1 leader ---
         String leaderAddress = "localhost:" + leaderPort;
@@ -80,17 +84,18 @@ class KVStoreIntegrationTest {
         HashRing block2Ring = new HashRing(block2LeaderCM);
         block2Ring.buildHashRing();
 
-        leaderStore = new HashMap<>();
-        replicaStore = new HashMap<>();
-        block2LeaderStore = new HashMap<>();
+        leaderStore = new KVStore(KVStore.DEFAULT_NAMESPACE, new ValueCodec(64));
+        replicaStore = new KVStore(KVStore.DEFAULT_NAMESPACE, new ValueCodec(64));
+        block2LeaderStore = new KVStore(KVStore.DEFAULT_NAMESPACE, new ValueCodec(64));
 
         ReplicationManager leaderRM = new ReplicationManager("block-1", leaderCM);
         ReplicationManager replicaRM = new ReplicationManager("block-1", replicaCM);
         ReplicationManager block2RM = new ReplicationManager("block-2", block2LeaderCM);
 
-        KVServer leaderServer = new KVServer(leaderPort, leaderStore, leaderRM, leaderCM, leaderRing);
-        KVServer replicaServer = new KVServer(replicaPort, replicaStore, replicaRM, replicaCM, replicaRing);
-        KVServer block2Server = new KVServer(block2LeaderPort, block2LeaderStore, block2RM, block2LeaderCM, block2Ring);
+        KVServer leaderServer = new KVServer(leaderPort, leaderStore, leaderRM, leaderCM, leaderRing, new LeaderFailureDetector(leaderCM, List.of()));
+        KVServer replicaServer = new KVServer(replicaPort, replicaStore, replicaRM, replicaCM, replicaRing, new LeaderFailureDetector(replicaCM, List.of()));
+        KVServer block2Server = new KVServer(block2LeaderPort, block2LeaderStore, block2RM, block2LeaderCM, block2Ring,
+                new LeaderFailureDetector(block2LeaderCM, List.of()));
 
         new Thread(leaderServer).start();
         new Thread(replicaServer).start();
@@ -363,4 +368,152 @@ class KVStoreIntegrationTest {
         String newLeader = failoverReplicaCM.getCurrentLeader(blockId);
         assertEquals(replicaAddr, newLeader, "Replica should have become the new leader after failover");
     }
+
+    // =========================================================
+    // Test 15: Large values are compressed and replicated as compressed bytes
+    // =========================================================
+    @Test
+    @Order(15)
+    void compressedValueReplicatesToReplica() throws Exception {
+        HashRing ring = new HashRing(leaderCM);
+        ring.buildHashRing();
+        String key = findKeyForBlock("block-1", ring);
+        String value = "{\"payload\":\"" + "abc".repeat(400) + "\"}";
+
+        assertEquals("OK", sendCommand(leaderPort, "PUT " + key + " " + value));
+        assertTrue(ValueCodec.isCompressed(leaderStore.getEncoded(key)), "Large value should be stored compressed");
+
+        Thread.sleep(500);
+
+        assertEquals(value, sendCommand(replicaPort, "GET " + key));
+        assertArrayEquals(leaderStore.getEncoded(key), replicaStore.getEncoded(key),
+                "Replica should hold the leader's compressed bytes unchanged");
+    }
+
+    // =========================================================
+    // Test 16: INCR runs on the leader and replicates the resulting value
+    // =========================================================
+    @Test
+    @Order(16)
+    void incrReplicatesResultingValue() throws Exception {
+        HashRing ring = new HashRing(leaderCM);
+        ring.buildHashRing();
+        String key = findKeyForBlock("block-1", ring);
+
+        sendCommand(leaderPort, "DELETE " + key);
+        assertEquals("1", sendCommand(leaderPort, "INCR " + key));
+        assertEquals("6", sendCommand(leaderPort, "INCR " + key + " 5"));
+        assertTrue(sendCommand(leaderPort, "DECR " + key + " " + Long.MIN_VALUE).startsWith("ERROR"),
+                "Decrementing by Long.MIN_VALUE overflows instead of wrapping to an increment");
+        assertTrue(sendCommand(replicaPort, "INCR " + key).startsWith("ERROR"), "Replica should reject INCR");
+
+        Thread.sleep(500);
+
+        assertEquals("6", sendCommand(replicaPort, "GET " + key));
+    }
+
+    // =========================================================
+    // Test 17: Anti-entropy repairs a replica that missed writes
+    // =========================================================
+    @Test
+    @Order(17)
+    void antiEntropyRepairsDivergedReplica() throws Exception {
+        HashRing ring = new HashRing(leaderCM);
+        ring.buildHashRing();
+        String key = findKeyForBlock("block-1", ring);
+
+        sendCommand(leaderPort, "PUT " + key + " authoritative");
+        Thread.sleep(500);
+        replicaStore.put(key, "drifted");
+        replicaStore.put("orphan-key", "only-on-replica");
+
+        String response = sendCommand(leaderPort, "ANTIENTROPY");
+        assertTrue(response.startsWith("REPAIRED"), "Unexpected response: " + response);
+
+        assertEquals("authoritative", sendCommand(replicaPort, "GET " + key));
+        assertEquals("NULL", sendCommand(replicaPort, "GET orphan-key"));
+    }
+
+    // =========================================================
+    // Test 18: MULTI/EXEC applies a same-partition batch and replicates it
+    // =========================================================
+    @Test
+    @Order(18)
+    void multiExecAppliesBatchAndRejectsCrossSlot() throws Exception {
+        HashRing ring = new HashRing(leaderCM);
+        ring.buildHashRing();
+        List<String> block1Keys = new ArrayList<>();
+        for (int i = 0; block1Keys.size() < 2; i++) {
+            if (ring.getTargetNode("batch-" + i).equals("block-1")) {
+                block1Keys.add("batch-" + i);
+            }
+        }
+        String first = block1Keys.get(0);
+        String second = block1Keys.get(1);
+        String block2Key = findKeyForBlock("block-2", ring);
+
+        sendCommand(leaderPort, "DELETE " + second);
+        String response = sendCommand(leaderPort, "MULTI\nPUT " + first + " v1\nINCR " + second + " 3\nEXEC");
+        assertEquals("OK 3", response);
+
+        String crossSlot = sendCommand(leaderPort, "MULTI\nPUT " + first + " v2\nPUT " + block2Key + " v2\nEXEC");
+        assertTrue(crossSlot.startsWith("ERROR: CROSSSLOT"), "Unexpected response: " + crossSlot);
+        assertEquals("v1", sendCommand(leaderPort, "GET " + first));
+
+        Thread.sleep(500);
+
+        assertEquals("v1", sendCommand(replicaPort, "GET " + first));
+        assertEquals("3", sendCommand(replicaPort, "GET " + second));
+    }
+
+    // =========================================================
+    // Test 19: HANDOVER moves leadership to the replica without a session timeout
+    // =========================================================
+    @Test
+    @Order(19)
+    void handoverPromotesCaughtUpReplica() throws Exception {
+        HashRing ring = new HashRing(leaderCM);
+        ring.buildHashRing();
+        String key = findKeyForBlock("block-1", ring);
+        assertEquals("OK", sendCommand(leaderPort, "PUT " + key + " before-handover"));
+
+        String response = sendCommand(leaderPort, "HANDOVER localhost:" + replicaPort);
+        assertTrue(response.startsWith("OK localhost:" + replicaPort), "Unexpected response: " + response);
+
+        assertEquals("before-handover", sendCommand(replicaPort, "GET " + key));
+        assertTrue(sendCommand(leaderPort, "PUT " + key + " stale").startsWith("ERROR"), "Old leader should reject writes");
+        assertEquals("OK", sendCommand(replicaPort, "PUT " + key + " after-handover"));
+
+        Thread.sleep(500);
+
+        assertEquals("after-handover", sendCommand(leaderPort, "GET " + key));
+    }
+
+    // =========================================================
+    // Test 20: LOAD streams a file to each partition's leader and its replicas
+    // =========================================================
+    @Test
+    @Order(20)
+    void bulkLoadReachesLeadersAndReplicas() throws Exception {
+        File file = File.createTempFile("bulk", ".txt");
+        file.deleteOnExit();
+        try (PrintWriter out = new PrintWriter(new FileWriter(file))) {
+            for (int i = 0; i < 12000; i++) {
+                out.println("bulk-" + i + " value " + i);
+            }
+        }
+
+        String response = sendCommand(block2LeaderPort, "LOAD " + file.getName());
+        assertTrue(response.startsWith("OK 12000 keys"), "Unexpected response: " + response);
+
+        HashRing ring = new HashRing(block2LeaderCM);
+        ring.buildHashRing();
+        Thread.sleep(500);
+        for (int i = 0; i < 12000; i += 997) {
+            String key = "bulk-" + i;
+            // Test 19 handed block-1's leadership to the replica, so both ports hold a full copy
+            int port = "block-1".equals(ring.getTargetNode(key)) ? (i % 2 == 0 ? leaderPort : replicaPort) : block2LeaderPort;
+            assertEquals("value " + i, sendCommand(port, "GET " + key));
+        }
+    }
 }
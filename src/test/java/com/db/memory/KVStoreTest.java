@@ -0,0 +1,107 @@
+package com.db.memory;
+
+import com.db.memory.storage.KVStore;
+import com.db.memory.storage.ValueCodec;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class KVStoreTest {
+
+    @Test
+    void concurrentIncrementsAreNotLost() throws Exception {
+        KVStore store = new KVStore("test", new ValueCodec(64));
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < 1000; i++) {
+                    store.update("counter", current -> Long.toString((current == null ? 0 : Long.parseLong(current)) + 1));
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals("8000", store.get("counter"));
+    }
+
+    @Test
+    void compareAndSetOnlyAppliesOnMatch() {
+        KVStore store = new KVStore("test", new ValueCodec(64));
+        assertNotNull(store.compareAndSet("k", null, "v1"), "Absent key should match NULL");
+        assertNull(store.compareAndSet("k", "other", "v2"));
+        assertEquals("v1", store.get("k"));
+        assertNotNull(store.compareAndSet("k", "v1", "v2"));
+        assertEquals("v2", store.get("k"));
+    }
+
+    @Test
+    void replaceEncodedNeverOverwritesANewerWrite() {
+        KVStore store = new KVStore("test", new ValueCodec(64));
+        store.put("k", "old");
+        byte[] seen = store.getEncoded("k");
+        store.put("k", "newer");
+        byte[] repair = new KVStore("other", new ValueCodec(64)).put("k", "repair");
+        assertFalse(store.replaceEncoded("k", seen, repair));
+        assertEquals("newer", store.get("k"));
+
+        assertTrue(store.replaceEncoded("k", store.getEncoded("k"), null));
+        assertNull(store.get("k"));
+    }
+
+    @Test
+    void snapshotKeepsSeeingPinnedVersion() throws Exception {
+        KVStore store = new KVStore("test", new ValueCodec(64));
+        store.put("a", "1");
+        store.put("b", "1");
+
+        Map<String, String> seen = new HashMap<>();
+        try (KVStore.Snapshot snapshot = store.snapshot()) {
+            store.put("a", "2");
+            store.remove("b");
+            store.put("c", "new");
+
+            assertEquals("1", snapshot.get("a"));
+            assertEquals("1", snapshot.get("b"));
+            assertNull(snapshot.get("c"), "Writes after the pin should be invisible");
+            snapshot.forEach((key, encoded) -> seen.put(key, snapshot.get(key)));
+            assertEquals(2, store.getVersionStats().getHistoryVersions());
+        }
+        assertEquals(Map.of("a", "1", "b", "1"), seen);
+        assertEquals("2", store.get("a"));
+        assertNull(store.get("b"));
+        assertEquals(2, store.size());
+
+        long deadline = System.currentTimeMillis() + 2000;
+        while (store.getVersionStats().getHistoryVersions() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, store.getVersionStats().getHistoryVersions(), "History should be collected after close");
+    }
+
+    @Test
+    void batchIsAllOrNothing() {
+        KVStore store = new KVStore("test", new ValueCodec(64));
+        store.put("n", "1");
+
+        List<KVStore.Update> updates = store.applyBatch(List.of(
+                new KVStore.BatchOp("n", current -> Long.toString(Long.parseLong(current) + 1)),
+                new KVStore.BatchOp("n", current -> current + "0"),
+                new KVStore.BatchOp("gone", current -> null)));
+        assertEquals("20", updates.get(1).value(), "Later ops should see earlier ops in the same batch");
+        assertEquals("20", store.get("n"));
+
+        assertThrows(NumberFormatException.class, () -> store.applyBatch(List.of(
+                new KVStore.BatchOp("other", current -> "x"),
+                new KVStore.BatchOp("other", current -> Long.toString(Long.parseLong(current) + 1)))));
+        assertNull(store.get("other"), "A failed batch should apply nothing");
+        assertEquals(1, store.size());
+    }
+}
@@ -0,0 +1,115 @@
+package com.db.memory;
+
+import com.db.memory.hotkeys.BigKeySampler;
+import com.db.memory.namespace.Namespace;
+import com.db.memory.namespace.NamespaceManager;
+import com.db.memory.storage.KVStore;
+import com.db.memory.storage.SortedSet;
+import com.db.memory.storage.SortedSetStore;
+import com.db.memory.storage.StorageEngine;
+import com.db.memory.storage.ValueCodec;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MemoryAccountingTest {
+
+    @Test
+    void perKeyUsageMatchesTheIncrementalTotals() {
+        for (String engine : List.of("map", "sharded", "compact")) {
+            KVStore store = new KVStore(engine, new ValueCodec(Integer.MAX_VALUE), StorageEngine.create(engine));
+            for (int i = 0; i < 100; i++) {
+                store.put("key-" + i, "v".repeat(i));
+            }
+            long sum = 0;
+            for (String key : store.keys()) {
+                sum += store.memoryUsage(key);
+            }
+            assertTrue(store.memoryUsage("key-99") > store.memoryUsage("key-1") + 90, engine);
+            assertEquals(0, store.memoryUsage("missing"), engine);
+            if (!"compact".equals(engine)) {
+                assertEquals(store.memoryBytes(), sum, engine + " totals should be the sum of its entries");
+                for (int i = 0; i < 100; i++) {
+                    store.remove("key-" + i);
+                }
+                assertEquals(0, store.memoryBytes(), engine + " should release everything on remove");
+            } else {
+                // Pages are allocated ahead and the table has empty slots, so the footprint covers more
+                assertTrue(store.memoryBytes() >= sum, engine);
+            }
+        }
+
+        KVStore store = new KVStore("history", new ValueCodec(Integer.MAX_VALUE));
+        store.put("doc", "x".repeat(1000));
+        long before = store.memoryUsage("doc");
+        try (KVStore.Snapshot snapshot = store.snapshot()) {
+            store.put("doc", "y".repeat(1000));
+            assertEquals("x".repeat(1000), snapshot.get("doc"));
+            assertTrue(store.memoryUsage("doc") >= before + 1000, "A version retained for a snapshot counts too");
+            assertTrue(store.historyBytes() >= 1000);
+        }
+    }
+
+    @Test
+    void sortedSetBytesFollowAddsAndRemoves() {
+        SortedSetStore sets = new SortedSetStore();
+        List<SortedSet.Entry> entries = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            entries.add(new SortedSet.Entry("member-" + i, i));
+        }
+        sets.add("board", entries);
+        long full = sets.memoryUsage("board");
+        assertTrue(full > 50 * "member-00".length());
+        assertEquals(full, sets.memoryBytes());
+
+        sets.add("board", List.of(new SortedSet.Entry("member-0", 100)));
+        sets.remove("board", List.of("member-1", "member-2"));
+        assertTrue(sets.memoryUsage("board") < full);
+        assertEquals(sets.memoryUsage("board"), sets.memoryBytes());
+
+        List<String> all = new ArrayList<>();
+        entries.forEach(entry -> all.add(entry.member()));
+        sets.remove("board", all);
+        assertEquals(0, sets.memoryUsage("board"));
+        assertEquals(0, sets.memoryBytes());
+    }
+
+    @Test
+    void samplerReportsTheLargestKeysAcrossNamespacesAndTypes() {
+        KVStore defaultStore = new KVStore(KVStore.DEFAULT_NAMESPACE, new ValueCodec(Integer.MAX_VALUE));
+        NamespaceManager namespaces = new NamespaceManager(new Namespace(defaultStore, 0, Namespace.EvictionPolicy.NOEVICTION, 0, 0));
+        KVStore tenant = new KVStore("tenant", new ValueCodec(Integer.MAX_VALUE));
+        namespaces.add(new Namespace(tenant, 0, Namespace.EvictionPolicy.NOEVICTION, 0, 0));
+        SortedSetStore sets = new SortedSetStore();
+
+        for (int i = 0; i < 500; i++) {
+            defaultStore.put("small-" + i, "v");
+        }
+        defaultStore.put("blob", "x".repeat(100_000));
+        tenant.put("report", "y".repeat(50_000));
+        List<SortedSet.Entry> members = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            members.add(new SortedSet.Entry("player-" + i, i));
+        }
+        sets.add("leaderboard", members);
+
+        BigKeySampler sampler = new BigKeySampler(namespaces, sets, 3, 100);
+        for (int i = 0; i < 10; i++) {
+            sampler.sampleBatch();
+        }
+        List<BigKeySampler.BigKey> big = sampler.getBigKeys();
+        assertEquals(List.of("leaderboard", "blob", "tenant/report"), big.stream().map(BigKeySampler.BigKey::key).toList());
+        assertEquals("zset", big.get(0).type());
+        assertEquals(defaultStore.memoryUsage("blob"), big.get(1).bytes());
+
+        // The next pass replaces the result, so deleted keys drop out
+        defaultStore.remove("blob");
+        for (int i = 0; i < 10; i++) {
+            sampler.sampleBatch();
+        }
+        assertFalse(sampler.getBigKeys().stream().anyMatch(key -> key.key().equals("blob")));
+    }
+}
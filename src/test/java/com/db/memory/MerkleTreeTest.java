@@ -0,0 +1,88 @@
+package com.db.memory;
+
+import com.db.memory.antientropy.MerkleTree;
+import com.db.memory.storage.KVStore;
+import com.db.memory.storage.SortedSet;
+import com.db.memory.storage.SortedSetStore;
+import com.db.memory.storage.ValueCodec;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MerkleTreeTest {
+
+    @Test
+    void rootDependsOnContentNotWriteOrder() {
+        MerkleTree treeA = new MerkleTree(6);
+        MerkleTree treeB = new MerkleTree(6);
+        KVStore a = storeWithTree(treeA);
+        KVStore b = storeWithTree(treeB);
+
+        a.put("x", "1");
+        a.put("y", "2");
+        a.put("x", "3");
+        b.put("y", "2");
+        b.put("x", "3");
+        assertEquals(treeA.root(), treeB.root());
+
+        b.remove("y");
+        assertNotEquals(treeA.root(), treeB.root());
+        b.put("y", "2");
+        assertEquals(treeA.root(), treeB.root());
+    }
+
+    @Test
+    void onlyTheChangedLeafDiffers() {
+        MerkleTree a = new MerkleTree(4);
+        MerkleTree b = new MerkleTree(4);
+        KVStore storeA = storeWithTree(a);
+        KVStore storeB = storeWithTree(b);
+        for (int i = 0; i < 100; i++) {
+            storeA.put("key-" + i, "v");
+            storeB.put("key-" + i, "v");
+        }
+        storeB.put("key-7", "changed");
+
+        long[] leavesA = a.level(4);
+        long[] leavesB = b.level(4);
+        int differing = 0;
+        for (int i = 0; i < leavesA.length; i++) {
+            if (leavesA[i] != leavesB[i]) {
+                differing++;
+                assertEquals(a.leafOf("key-7"), i);
+            }
+        }
+        assertEquals(1, differing);
+    }
+
+    @Test
+    void sortedSetsHashByTheirFinalMembers() {
+        MerkleTree treeA = new MerkleTree(6);
+        MerkleTree treeB = new MerkleTree(6);
+        SortedSetStore a = new SortedSetStore();
+        SortedSetStore b = new SortedSetStore();
+        a.addListener(treeA);
+        b.addListener(treeB);
+
+        a.add("board", List.of(new SortedSet.Entry("alice", 1), new SortedSet.Entry("bob", 2)));
+        a.add("board", List.of(new SortedSet.Entry("alice", 3)));
+        b.add("board", List.of(new SortedSet.Entry("bob", 2), new SortedSet.Entry("alice", 3)));
+        assertEquals(treeA.root(), treeB.root());
+
+        b.remove("board", List.of("bob"));
+        assertNotEquals(treeA.root(), treeB.root());
+        b.replace("board", SortedSetStore.parse(a.format("board").split(" "), 0), key -> false);
+        assertEquals(treeA.root(), treeB.root());
+
+        a.delete("board");
+        assertEquals(new MerkleTree(6).root(), treeA.root());
+    }
+
+    private static KVStore storeWithTree(MerkleTree tree) {
+        KVStore store = new KVStore("test", new ValueCodec(64));
+        store.addListener(tree);
+        return store;
+    }
+}
@@ -0,0 +1,73 @@
+package com.db.memory;
+
+import com.db.memory.namespace.Namespace;
+import com.db.memory.storage.KVStore;
+import com.db.memory.storage.ValueCodec;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NamespaceTest {
+
+    @Test
+    void quotaRejectsOrEvictsLeastRecentlyUsed() {
+        Namespace strict = new Namespace(new KVStore("strict", new ValueCodec(64)), 1000, Namespace.EvictionPolicy.NOEVICTION, 0, 0);
+        int stored = fill(strict);
+        assertFalse(strict.reserve(1).granted(), "A full noeviction namespace must reject writes");
+        assertEquals(stored, strict.getStore().size());
+
+        Namespace cache = new Namespace(new KVStore("cache", new ValueCodec(64)), 1000, Namespace.EvictionPolicy.LRU, 0, 0);
+        fill(cache);
+        cache.recordRead("key-0");
+        Namespace.Reservation reservation = cache.reserve(1);
+        assertTrue(reservation.granted());
+        List<String> evicted = reservation.evicted();
+        assertFalse(evicted.isEmpty());
+        assertFalse(evicted.contains("key-0"), "A recently read key should outlive older ones");
+        assertTrue(evicted.contains("key-1"));
+        assertTrue(cache.getStore().getEngine().footprintBytes() < 1000);
+        evicted.forEach(key -> assertNull(cache.getStore().get(key)));
+        assertNotNull(cache.getStore().get("key-0"));
+    }
+
+    @Test
+    void writesInFlightCountAgainstTheQuota() {
+        Namespace strict = new Namespace(new KVStore("strict", new ValueCodec(64)), 1000, Namespace.EvictionPolicy.NOEVICTION, 0, 0);
+        assertTrue(strict.reserve(600).granted());
+        assertFalse(strict.reserve(600).granted(), "A second writer must not fit into room already reserved");
+        strict.release(600);
+        assertTrue(strict.reserve(600).granted());
+    }
+
+    @Test
+    void rateBudgetAndRoutingAreIsolated() {
+        Namespace limited = new Namespace(new KVStore("team-a", new ValueCodec(64)), 0, Namespace.EvictionPolicy.NOEVICTION, 1, 5);
+        int allowed = 0;
+        for (int i = 0; i < 20; i++) {
+            if (limited.tryAcquire()) {
+                allowed++;
+            }
+        }
+        assertEquals(5, allowed, "Only the burst should get through");
+        assertTrue(limited.toString().contains("requests=20"));
+        assertTrue(limited.toString().contains("throttled=15"));
+
+        Namespace standard = new Namespace(new KVStore(KVStore.DEFAULT_NAMESPACE, new ValueCodec(64)), 0, Namespace.EvictionPolicy.NOEVICTION, 0, 0);
+        assertEquals("user:1", standard.routingKey("user:1"));
+        assertEquals("team-a/user:1", limited.routingKey("user:1"));
+    }
+
+    /**
+     * Writes keys until the namespace reaches its quota; returns how many it took.
+     */
+    private static int fill(Namespace namespace) {
+        int stored = 0;
+        while (namespace.getStore().getEngine().footprintBytes() < namespace.getQuotaBytes()) {
+            namespace.getStore().put("key-" + stored, "value-" + stored);
+            stored++;
+        }
+        return stored;
+    }
+}
@@ -0,0 +1,30 @@
+package com.db.memory;
+
+import com.db.memory.failover.PhiAccrualDetector;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PhiAccrualDetectorTest {
+
+    @Test
+    void suspicionGrowsOnlyOnceHeartbeatsStop() {
+        long interval = TimeUnit.MILLISECONDS.toNanos(100);
+        PhiAccrualDetector detector = new PhiAccrualDetector(100, interval / 4);
+        assertEquals(0, detector.phi(0), "No suspicion before any interval is known");
+
+        long now = 0;
+        for (int i = 0; i < 50; i++) {
+            now += interval + (i % 2 == 0 ? 1 : -1) * TimeUnit.MILLISECONDS.toNanos(5);
+            detector.heartbeat(now);
+        }
+
+        assertTrue(detector.phi(now + interval) < 1, "An on-time heartbeat should not be suspicious");
+        double late = detector.phi(now + 2 * interval);
+        double later = detector.phi(now + 3 * interval);
+        assertTrue(late < later, "Phi should keep growing while heartbeats are missing");
+        assertTrue(detector.phi(now + 4 * interval) > 8, "Four missed intervals should pass the default threshold");
+    }
+}
@@ -0,0 +1,52 @@
+package com.db.memory;
+
+import com.db.memory.hashing.HashRing;
+import com.db.memory.rebalance.HashRange;
+import com.db.memory.rebalance.RangeDiff;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RangeDiffTest {
+
+    @Test
+    void movedRangesCoverExactlyTheKeysThatChangedOwner() {
+        HashRing ring = new HashRing(null, 20);
+        ring.buildHashRing(List.of("block-1", "block-2"), Map.of());
+        NavigableMap<Integer, String> before = ring.getRing();
+        String[] ownersBefore = new String[5000];
+        for (int i = 0; i < ownersBefore.length; i++) {
+            ownersBefore[i] = ring.getTargetNode("key-" + i);
+        }
+
+        ring.buildHashRing(List.of("block-1", "block-2", "block-3"), Map.of());
+        List<HashRange> moved = RangeDiff.movedRanges(before, ring.getRing());
+
+        for (int i = 0; i < ownersBefore.length; i++) {
+            String key = "key-" + i;
+            String ownerAfter = ring.getTargetNode(key);
+            int hash = ring.hash(key);
+            HashRange range = moved.stream().filter(r -> r.contains(hash)).findFirst().orElse(null);
+            if (ownersBefore[i].equals(ownerAfter)) {
+                assertNull(range, key + " did not move but falls in " + range);
+            } else {
+                assertNotNull(range, key + " moved but no range covers it");
+                assertEquals(ownersBefore[i], range.from());
+                assertEquals(ownerAfter, range.to());
+            }
+        }
+        assertTrue(moved.stream().allMatch(r -> r.to().equals("block-3")), "Adding a partition only moves keys to it");
+    }
+
+    @Test
+    void wrappingRangeContainsBothEnds() {
+        HashRange range = new HashRange(1000, 10, "a", "b");
+        assertTrue(range.contains(5));
+        assertTrue(range.contains(Integer.MAX_VALUE));
+        assertFalse(range.contains(500));
+    }
+}
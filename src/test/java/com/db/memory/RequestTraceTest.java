@@ -0,0 +1,57 @@
+package com.db.memory;
+
+import com.db.memory.tracing.RequestTrace;
+import com.db.memory.tracing.Stage;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RequestTraceTest {
+
+    @Test
+    void slowRequestIsRecordedWithStageBreakdown() throws Exception {
+        Path file = Files.createTempFile("kvstore", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("com.db.memory.Request").withThreshold(Duration.ofMillis(5));
+            recording.enable("com.db.memory.RequestStage").withThreshold(Duration.ofMillis(5));
+            recording.start();
+
+            RequestTrace slow = RequestTrace.begin();
+            slow.enter(Stage.PARSE);
+            slow.identify("PUT", "k");
+            slow.enter(Stage.STORE);
+            Thread.sleep(20);
+            slow.enter(Stage.RESPONSE);
+            slow.end();
+
+            RequestTrace fast = RequestTrace.begin();
+            fast.enter(Stage.PARSE);
+            fast.identify("GET", "k");
+            fast.end();
+
+            recording.stop();
+            recording.dump(file);
+        }
+
+        List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+        Files.delete(file);
+        List<RecordedEvent> requests = events.stream()
+                .filter(e -> e.getEventType().getName().equals("com.db.memory.Request")).toList();
+        assertEquals(1, requests.size(), "Only the slow request should be recorded");
+        assertEquals("PUT", requests.get(0).getString("command"));
+        assertTrue(requests.get(0).getDuration("store").toMillis() >= 20);
+
+        List<RecordedEvent> stages = events.stream()
+                .filter(e -> e.getEventType().getName().equals("com.db.memory.RequestStage")).toList();
+        assertEquals(1, stages.size());
+        assertEquals("STORE", stages.get(0).getString("stage"));
+    }
+}
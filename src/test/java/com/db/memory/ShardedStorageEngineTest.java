@@ -0,0 +1,68 @@
+package com.db.memory;
+
+import com.db.memory.storage.KVStore;
+import com.db.memory.storage.ShardedStorageEngine;
+import com.db.memory.storage.ValueCodec;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ShardedStorageEngineTest {
+
+    @Test
+    void concurrentWritersOnShardedStore() throws Exception {
+        KVStore store = new KVStore("test", new ValueCodec(64), new ShardedStorageEngine(4));
+        int threads = 8;
+        int keysPerThread = 5_000;
+        ExecutorService writers = Executors.newFixedThreadPool(threads);
+        List<Future<?>> results = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int writer = t;
+            results.add(writers.submit(() -> {
+                for (int i = 0; i < keysPerThread; i++) {
+                    store.put("w" + writer + ":" + i, "v" + i);
+                    store.update("counter", current -> Long.toString(current == null ? 1 : Long.parseLong(current) + 1));
+                }
+            }));
+        }
+        for (Future<?> result : results) {
+            result.get();
+        }
+        writers.shutdown();
+
+        assertEquals(Integer.toString(threads * keysPerThread), store.get("counter"), "No increment may be lost");
+        assertEquals(threads * keysPerThread + 1, store.size());
+        assertEquals("v42", store.get("w3:42"));
+
+        try (KVStore.Snapshot snapshot = store.snapshot()) {
+            store.remove("w0:0");
+            assertEquals("v0", snapshot.get("w0:0"));
+        }
+        assertNull(store.get("w0:0"));
+
+        Set<String> keys = new HashSet<>();
+        store.keys().forEach(keys::add);
+        assertEquals(threads * keysPerThread, keys.size());
+        assertTrue(store.getEngine().footprintBytes() > 0);
+    }
+
+    @Test
+    void aFailingTaskReachesItsCallerAndTheShardCarriesOn() {
+        ShardedStorageEngine engine = new ShardedStorageEngine(1);
+        assertThrows(StackOverflowError.class, () -> engine.compute("k", current -> {
+            throw new StackOverflowError();
+        }));
+        assertThrows(IllegalStateException.class, () -> engine.compute("k", current -> {
+            throw new IllegalStateException();
+        }));
+        assertNull(engine.get("k"), "The shard still serves requests after a task fails");
+    }
+}
@@ -0,0 +1,62 @@
+package com.db.memory;
+
+import com.db.memory.storage.SortedSet;
+import com.db.memory.storage.SortedSetStore;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SortedSetTest {
+
+    @Test
+    void ranksAndRangesMatchSortedOrder() {
+        SortedSet set = new SortedSet();
+        Map<String, Double> expected = new HashMap<>();
+        Random random = new Random(7);
+        for (int i = 0; i < 5000; i++) {
+            String member = "m" + random.nextInt(1000);
+            if (random.nextInt(4) == 0) {
+                assertEquals(expected.remove(member) != null, set.remove(member));
+            } else {
+                double score = random.nextInt(200);
+                assertEquals(expected.put(member, score), set.add(member, score));
+            }
+        }
+
+        List<String> order = new ArrayList<>(expected.keySet());
+        order.sort(Comparator.comparing((String m) -> expected.get(m)).thenComparing(m -> m));
+        assertEquals(order.size(), set.size());
+        for (int rank = 0; rank < order.size(); rank++) {
+            assertEquals(rank, set.rank(order.get(rank)));
+        }
+        assertEquals(-1, set.rank("missing"));
+        assertEquals(order, set.range(0, -1).stream().map(SortedSet.Entry::member).toList());
+        assertEquals(order.subList(10, 21), set.range(10, 20).stream().map(SortedSet.Entry::member).toList());
+        assertEquals(order.subList(order.size() - 3, order.size()),
+                set.range(-3, -1).stream().map(SortedSet.Entry::member).toList());
+        assertTrue(set.range(5, 2).isEmpty());
+    }
+
+    @Test
+    void storeReportsOnlyChangedMembersAndDropsEmptySets() {
+        SortedSetStore store = new SortedSetStore();
+        SortedSetStore.AddResult first = store.add("board", List.of(new SortedSet.Entry("alice", 10), new SortedSet.Entry("bob", 5)));
+        assertEquals(2, first.added());
+
+        SortedSetStore.AddResult second = store.add("board", List.of(new SortedSet.Entry("alice", 10), new SortedSet.Entry("bob", 20)));
+        assertEquals(0, second.added());
+        assertEquals(List.of(new SortedSet.Entry("bob", 20)), second.changed());
+        assertEquals(1, store.get("board").rank("bob"));
+        assertEquals("20", SortedSet.formatScore(store.get("board").score("bob")));
+
+        assertEquals(List.of("alice", "bob"), store.remove("board", List.of("alice", "carol", "bob")));
+        assertNull(store.get("board"));
+    }
+}
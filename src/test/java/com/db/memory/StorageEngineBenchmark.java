@@ -0,0 +1,72 @@
+package com.db.memory;
+
+import com.db.memory.storage.KVStore;
+import com.db.memory.storage.StorageEngine;
+import com.db.memory.storage.ValueCodec;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Measures how store throughput scales with threads for each storage engine: every thread runs
+ * a 90% GET / 10% PUT mix over a shared key space, in-process, without the network in the way.
+ *
+ * Usage: run with [engines] [max threads] [ops per thread], e.g. "map,compact,sharded 32 2000000".
+ * Thread counts double from 1 up to the maximum. The sharded engine uses kv.storage.shards shards,
+ * one per core by default.
+ */
+public class StorageEngineBenchmark {
+    private static final int KEYS = 1_000_000;
+
+    public static void main(String[] args) throws Exception {
+        String[] engines = (args.length > 0 ? args[0] : "map,compact,sharded").split(",");
+        int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        int opsPerThread = args.length > 2 ? Integer.parseInt(args[2]) : 1_000_000;
+
+        for (String engine : engines) {
+            KVStore store = new KVStore("bench", new ValueCodec(ValueCodec.DEFAULT_THRESHOLD), StorageEngine.create(engine));
+            for (int i = 0; i < KEYS; i++) {
+                store.put("key:" + i, "value-" + i);
+            }
+            double single = 0;
+            for (int threads = 1; threads <= maxThreads; threads *= 2) {
+                double opsPerSec = run(store, threads, opsPerThread);
+                single = threads == 1 ? opsPerSec : single;
+                System.out.printf("%-8s threads=%-3d %,12.0f ops/s  speedup=%.1fx%n", engine, threads, opsPerSec, opsPerSec / single);
+            }
+        }
+    }
+
+    private static double run(KVStore store, int threads, int opsPerThread) throws InterruptedException {
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threads);
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            Thread worker = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < opsPerThread; i++) {
+                    String key = "key:" + random.nextInt(KEYS);
+                    if (random.nextInt(10) == 0) {
+                        store.put(key, "value-" + i);
+                    } else {
+                        store.get(key);
+                    }
+                }
+                done.countDown();
+            });
+            worker.start();
+            workers.add(worker);
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        return (double) threads * opsPerThread / ((System.nanoTime() - begin) / 1e9);
+    }
+}
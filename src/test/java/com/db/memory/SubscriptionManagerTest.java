@@ -0,0 +1,64 @@
+package com.db.memory;
+
+import com.db.memory.pubsub.Subscriber;
+import com.db.memory.pubsub.SubscriptionManager;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SubscriptionManagerTest {
+
+    @Test
+    void eventsReachExactAndPrefixSubscribers() throws Exception {
+        SubscriptionManager manager = new SubscriptionManager(16);
+        Subscriber exact = manager.subscribe(List.of("config/db"), List.of());
+        Subscriber prefix = manager.subscribe(List.of(), List.of("config/"));
+
+        manager.publishPut("config/db", "primary");
+        manager.publishDelete("config/cache");
+        manager.publishPut("other", "x");
+
+        assertEquals("EVENT PUT config/db primary", exact.next(100));
+        assertNull(exact.next(10), "Exact watch should not see other keys");
+        assertEquals("EVENT PUT config/db primary", prefix.next(100));
+        assertEquals("EVENT DELETE config/cache", prefix.next(100));
+        assertNull(prefix.next(10));
+    }
+
+    @Test
+    void prefixesOfEveryLengthMatchUntilUnsubscribed() throws Exception {
+        SubscriptionManager manager = new SubscriptionManager(16);
+        Subscriber all = manager.subscribe(List.of(), List.of(""));
+        Subscriber nested = manager.subscribe(List.of(), List.of("a/", "a/b/"));
+        Subscriber longer = manager.subscribe(List.of(), List.of("a/b/c/d"));
+
+        manager.publishPut("a/b/x", "1");
+        assertEquals("EVENT PUT a/b/x 1", all.next(100));
+        assertEquals("EVENT PUT a/b/x 1", nested.next(100));
+        assertEquals("EVENT PUT a/b/x 1", nested.next(100), "Each matching prefix delivers the event");
+        assertNull(longer.next(10), "A prefix longer than the key can't match it");
+
+        manager.unsubscribe(nested);
+        manager.publishPut("a/b/c/d", "2");
+        assertEquals("EVENT PUT a/b/c/d 2", all.next(100));
+        assertEquals("EVENT PUT a/b/c/d 2", longer.next(100));
+        assertNull(nested.next(10));
+        assertEquals(2, manager.getSubscriberCount());
+    }
+
+    @Test
+    void slowConsumerIsDisconnectedWithoutBlockingWriters() {
+        SubscriptionManager manager = new SubscriptionManager(4);
+        Subscriber slow = manager.subscribe(List.of("k"), List.of());
+        for (int i = 0; i < 100; i++) {
+            manager.publishPut("k", Integer.toString(i));
+        }
+        assertTrue(slow.isClosed());
+        assertTrue(slow.isOverflowed());
+        assertEquals(0, manager.getSubscriberCount());
+        assertEquals(1, manager.getSlowDisconnects());
+        assertFalse(manager.hasSubscribers());
+    }
+}
@@ -0,0 +1,42 @@
+package com.db.memory;
+
+import com.db.memory.storage.CompressionStats;
+import com.db.memory.storage.KVStore;
+import com.db.memory.storage.ValueCodec;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ValueCodecTest {
+
+    @Test
+    void smallValuesStayRaw() {
+        ValueCodec codec = new ValueCodec(64);
+        CompressionStats stats = new CompressionStats("test");
+        byte[] encoded = codec.encode("apple", stats);
+        assertFalse(ValueCodec.isCompressed(encoded));
+        assertEquals("apple", codec.decode(encoded, stats));
+    }
+
+    @Test
+    void largeValuesRoundTripCompressed() {
+        ValueCodec codec = new ValueCodec(64);
+        CompressionStats stats = new CompressionStats("test");
+        String value = "{\"name\":\"value\"}".repeat(100);
+        byte[] encoded = codec.encode(value, stats);
+        assertTrue(ValueCodec.isCompressed(encoded));
+        assertTrue(encoded.length < value.length(), "Repetitive JSON should shrink");
+        assertEquals(value.length(), ValueCodec.rawLength(encoded));
+        assertEquals(value, codec.decode(encoded, stats));
+    }
+
+    @Test
+    void storeTracksResidentCompressionRatio() {
+        KVStore store = new KVStore("test", new ValueCodec(64));
+        store.put("a", "x".repeat(1000));
+        assertTrue(store.getCompressionStats().getRatio() > 1.0);
+
+        store.remove("a");
+        assertEquals(1.0, store.getCompressionStats().getRatio());
+    }
+}
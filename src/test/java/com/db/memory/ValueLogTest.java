@@ -0,0 +1,86 @@
+package com.db.memory;
+
+import com.db.memory.antientropy.MerkleTree;
+import com.db.memory.storage.KVStore;
+import com.db.memory.storage.MapStorageEngine;
+import com.db.memory.storage.ValueCodec;
+import com.db.memory.storage.ValueLog;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ValueLogTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void largeValuesAreLoggedAndStreamedButReadTheSame() throws Exception {
+        ValueLog log = new ValueLog(directory, 1000, 64 * 1024, 0.5);
+        KVStore store = new KVStore("logged", new ValueCodec(0), new MapStorageEngine(), log);
+        String big = "x".repeat(10_000);
+        store.put("big", big);
+        store.put("small", "tiny");
+
+        assertEquals(big, store.get("big"));
+        assertEquals("tiny", store.get("small"));
+        assertArrayEquals(new ValueCodec(0).encode(big, store.getCompressionStats()), store.getEncoded("big"),
+                "Pointers must never leave the store");
+        assertTrue(store.getEngine().footprintBytes() < 1000, "Only a pointer should be on the heap");
+        assertTrue(store.memoryUsage("big") > 10_000, "The logged value still counts towards the key");
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertTrue(store.transferTo("big", Channels.newChannel(out)));
+        assertEquals(big, out.toString(StandardCharsets.UTF_8));
+        assertFalse(store.transferTo("small", Channels.newChannel(out)), "Heap values are read the normal way");
+
+        try (KVStore.Snapshot snapshot = store.snapshot()) {
+            store.put("big", "y".repeat(10_000));
+            assertEquals(big, snapshot.get("big"));
+            assertEquals("y".repeat(10_000), store.get("big"));
+        }
+        assertEquals(11, store.update("big", current -> current.substring(0, 10) + "!").value().length());
+        assertEquals("yyyyyyyyyy!", store.get("big"));
+    }
+
+    @Test
+    void compactionMovesLiveValuesAndDeletesDrainedSegments() throws Exception {
+        ValueLog log = new ValueLog(directory, 1000, 64 * 1024, 0.5);
+        MerkleTree logTree = new MerkleTree(6);
+        KVStore store = new KVStore("logged", new ValueCodec(0), new MapStorageEngine(), log);
+        store.addListener(logTree);
+        MerkleTree heapTree = new MerkleTree(6);
+        KVStore reference = new KVStore("heap", new ValueCodec(0));
+        reference.addListener(heapTree);
+
+        // Ten 10 KB values fill a little over one segment; overwriting most leaves it sparse
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < 10; i++) {
+                String value = (char) ('a' + round) + Integer.toString(i).repeat(10_000);
+                if (round == 0 || i % 5 != 0) {
+                    store.put("key-" + i, value);
+                    reference.put("key-" + i, value);
+                }
+            }
+        }
+        store.remove("key-9");
+        reference.remove("key-9");
+        long mappedBefore = log.mappedBytes();
+
+        for (int pass = 0; pass < 3; pass++) {
+            log.compact();
+        }
+        assertTrue(log.mappedBytes() < mappedBefore, "Drained segments should be deleted");
+        assertTrue(log.toString().contains("valueLogRetiredSegments="));
+        for (int i = 0; i < 10; i++) {
+            assertEquals(reference.get("key-" + i), store.get("key-" + i), "key-" + i);
+        }
+        assertEquals(heapTree.root(), logTree.root(), "Listeners must see the same bytes with or without the log");
+    }
+}